@@ -9,14 +9,18 @@ package com.gpfcomics.deepcompare.cli;
 import com.gpfcomics.deepcompare.Main;
 import com.gpfcomics.deepcompare.core.*;
 
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 /**
@@ -50,6 +54,15 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
 
     private final List<Integer> percentsShown = new ArrayList<>();
 
+    // The control file to watch for throttle changes while the comparison runs.  Null if we're not watching one.
+    private Path controlFile = null;
+
+    // The modification time of the control file when we last applied it
+    private long controlFileModified = -1L;
+
+    // Whether to run a preflight check instead of the comparison
+    private boolean preflight = false;
+
     public CLIRunner(String[] args) {
         this.args = args;
     }
@@ -100,6 +113,16 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
             // back and wait.  (The listeners will feed back progress information to this thread so we can update the
             // UI.)
             ExecutorService executor = Executors.newSingleThreadExecutor();
+            // A preflight check runs the same way, but all we have to do with its result is print it:
+            if (preflight) {
+                PreflightReport report = executor.submit(
+                        new PreflightPlanner(sourcePath, targetPath, options, this)
+                ).get();
+                executor.shutdown();
+                System.out.println();
+                System.out.println(report.toText());
+                return 0;
+            }
             ComparisonEngine engine = new ComparisonEngine(
                     sourcePath,
                     targetPath,
@@ -108,17 +131,40 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
                     this
             );
             Future<ComparisonResult> worker = executor.submit(engine);
+            // If we've been given a control file, check it about once a second while we wait, so the user can change
+            // the throttle or pause the comparison without stopping it:
+            if (controlFile != null) {
+                while (!worker.isDone()) {
+                    try {
+                        worker.get(1L, TimeUnit.SECONDS);
+                    } catch (TimeoutException ex) {
+                        applyControlFile(engine.getThrottle());
+                    }
+                }
+            }
             ComparisonResult result = worker.get();
             // Check the result.  It shouldn't be null, but we'll add a check for that, just in case.  Do a simple check
             // to see if the two directories match, then print either the confirmation of that or the warning that
             // discrepancies were found.  For the CLI, that's all we're going to do on the screen.  For the full
             // results, we'll direct the user to the mandatory log file.
             if (result != null) {
-                if (result.getSourceDirectory().isMatch() && result.getTargetDirectory().isMatch()) {
+                if (options.getWriteManifest() != null) {
+                    System.out.println(Main.RESOURCES.getString("cli.manifest.written"));
+                } else if (options.getTargetManifest() != null ? result.isMatch() :
+                        result.getSourceDirectory().isMatch() && result.getTargetDirectory().isMatch()) {
                     System.out.println(Main.RESOURCES.getString("cli.all.match"));
                 } else {
                     System.out.println(Main.RESOURCES.getString("cli.discrepancies.found"));
                 }
+                // If any pairs turned out to be the same physical file, say how much reading that saved:
+                if (result.getSameFileBytes() > 0L) {
+                    System.out.println(
+                            String.format(
+                                    Main.RESOURCES.getString("cli.same.files"),
+                                    Utilities.prettyPrintFileSize(result.getSameFileBytes())
+                            )
+                    );
+                }
                 System.out.println(Main.RESOURCES.getString("cli.see.log"));
                 return 0;
             } else {
@@ -136,6 +182,47 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
         }
     }
 
+    /**
+     * Check the control file, and if it has changed since we last looked, apply its settings to the throttle.  The
+     * control file is a simple properties file; any of "paused" (true or false), "max-read-rate" (megabytes per
+     * second) and "max-file-rate" (files per second) may be given, and anything left out is left as it is.  A rate of
+     * zero means no limit.  A missing or unreadable file is ignored, as the user may be in the middle of writing it.
+     * @param throttle The running comparison's Throttle
+     */
+    private void applyControlFile(Throttle throttle) {
+        try {
+            long modified = Files.getLastModifiedTime(controlFile).toMillis();
+            if (modified == controlFileModified) return;
+            controlFileModified = modified;
+            Properties control = new Properties();
+            try (InputStream in = Files.newInputStream(controlFile)) {
+                control.load(in);
+            }
+            String value = control.getProperty("max-read-rate");
+            if (value != null) throttle.setBytesPerSecond(Long.parseLong(value.trim()) * 1024L * 1024L);
+            value = control.getProperty("max-file-rate");
+            if (value != null) throttle.setFilesPerSecond(Long.parseLong(value.trim()));
+            value = control.getProperty("paused");
+            if (value != null) {
+                if (Boolean.parseBoolean(value.trim())) throttle.pause();
+                else throttle.resume();
+            }
+            System.out.println(
+                    String.format(
+                            Main.RESOURCES.getString("cli.control.applied"),
+                            throttle.isPaused(),
+                            throttle.getBytesPerSecond() / (1024L * 1024L),
+                            throttle.getFilesPerSecond()
+                    )
+            );
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException lands here too:
+            System.err.println(Main.RESOURCES.getString("cli.error.control.file.not.valid"));
+        } catch (Exception ignored) {
+            // The file isn't there or can't be read right now.  We'll try again next time.
+        }
+    }
+
     /**
      * Print the usage text to the console.
      */
@@ -153,6 +240,8 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
     private List<String> parseCommandLineArgs() {
         // Create a return list of error strings:
         List<String> errors = new ArrayList<>();
+        // Whether a general thread count was given, which adaptive threading would otherwise silently override:
+        boolean threadsGiven = false;
         // Loop through the list of arguments.  Before this gets called, we should already know that the list is
         // populated and non-empty.
         for (String arg : args) {
@@ -264,6 +353,277 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
                         options.setHash(argParts[1].trim().toUpperCase());
                     }
                     break;
+                // Set the number of hashing threads:
+                case "threads":
+                    // This must be populated and be a positive whole number.  Anything else is an error.
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.threads.not.found"));
+                    } else {
+                        try {
+                            options.setThreads(Integer.parseInt(argParts[1].trim()));
+                            threadsGiven = true;
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.threads.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the number of threads for just the source or target tree.  These work just like the general
+                // thread count above, but only apply to one side of the comparison:
+                case "source-threads":
+                case "target-threads":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.threads.not.found"));
+                    } else {
+                        try {
+                            int threads = Integer.parseInt(argParts[1].trim());
+                            if (threads < 1) throw new IllegalArgumentException();
+                            if (argParts[0].equalsIgnoreCase("source-threads")) options.setSourceThreads(threads);
+                            else options.setTargetThreads(threads);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.threads.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the size (in kilobytes) of the buffers used to read files:
+                case "buffer-size":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.buffer.size.not.found"));
+                    } else {
+                        try {
+                            options.setBufferSize(Math.multiplyExact(Integer.parseInt(argParts[1].trim()), 1024));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.buffer.size.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the minimum size (in megabytes) of files that will be memory-mapped for hashing.  Zero turns
+                // memory-mapping off.
+                case "mmap-threshold":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.mmap.threshold.not.found"));
+                    } else {
+                        try {
+                            options.setMappedThreshold(Long.parseLong(argParts[1].trim()) * 1024L * 1024L);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.mmap.threshold.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the minimum size of files to hash as a tree.  This must be a whole number of megabytes, zero or
+                // more.
+                case "tree-hash":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.tree.hash.not.found"));
+                    } else {
+                        try {
+                            options.setTreeHashThreshold(Long.parseLong(argParts[1].trim()) * 1024L * 1024L);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.tree.hash.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the size of each region when hashing a file as a tree.  This must be a whole number of
+                // megabytes, one or more.
+                case "tree-region":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.tree.region.not.found"));
+                    } else {
+                        try {
+                            options.setTreeRegionSize(Long.parseLong(argParts[1].trim()) * 1024L * 1024L);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.tree.region.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the path to the hash cache file.  This just needs to be populated; the file will be created if it
+                // doesn't exist yet.
+                case "hash-cache":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.hash.cache.not.found"));
+                    } else {
+                        options.setHashCacheFile(argParts[1].trim());
+                    }
+                    break;
+                // Hash the source tree and write the hashes to a manifest file instead of comparing against a target.
+                // This just needs to be populated; the file will be created or replaced.
+                case "write-manifest":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.write.manifest.not.found"));
+                    } else {
+                        options.setWriteManifest(Paths.get(argParts[1].trim()).toAbsolutePath().toString());
+                    }
+                    break;
+                // Compare the source tree against a manifest file instead of a target directory.  The manifest must
+                // exist and be a regular file.
+                case "target-manifest":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.target.manifest.not.found"));
+                    } else if (!Files.isRegularFile(Paths.get(argParts[1].trim()))) {
+                        errors.add(Main.RESOURCES.getString("cli.error.target.manifest.not.valid"));
+                    } else {
+                        options.setTargetManifest(Paths.get(argParts[1].trim()).toAbsolutePath().toString());
+                    }
+                    break;
+                // Resume an interrupted comparison from the journal in the log directory:
+                case "resume":
+                    options.setResume(true);
+                    break;
+                // Write the manifest in our binary format instead of as text:
+                case "binary-manifest":
+                    options.setBinaryManifest(true);
+                    break;
+                // Use a manifest file in place of the source directory.  The manifest must exist and be a regular file.
+                case "source-manifest":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.source.manifest.not.found"));
+                    } else if (!Files.isRegularFile(Paths.get(argParts[1].trim()))) {
+                        errors.add(Main.RESOURCES.getString("cli.error.source.manifest.not.valid"));
+                    } else {
+                        options.setSourceManifest(Paths.get(argParts[1].trim()).toAbsolutePath().toString());
+                    }
+                    break;
+                // Let each worker pool work out how many threads to use.  The most it may use can optionally be given
+                // as well.
+                case "adaptive-threads":
+                    options.setAdaptiveThreads(true);
+                    if (argParts.length > 1 && argParts[1] != null && !argParts[1].trim().isEmpty()) {
+                        try {
+                            options.setAdaptiveThreadLimit(Integer.parseInt(argParts[1].trim()));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.adaptive.threads.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the order files are hashed in.  This must be one of the schedule names.
+                case "schedule":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.schedule.not.found"));
+                    } else {
+                        try {
+                            options.setHashSchedule(HashSchedule.fromLabel(argParts[1].trim()));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.schedule.not.valid"));
+                        }
+                    }
+                    break;
+                // Limit how fast we read from the disks.  This must be a whole number of megabytes per second.
+                case "max-read-rate":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.max.read.rate.not.found"));
+                    } else {
+                        try {
+                            options.setBytesPerSecond(Long.parseLong(argParts[1].trim()) * 1024L * 1024L);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.max.read.rate.not.valid"));
+                        }
+                    }
+                    break;
+                // Limit how many files per second we open:
+                case "max-file-rate":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.max.file.rate.not.found"));
+                    } else {
+                        try {
+                            options.setFilesPerSecond(Long.parseLong(argParts[1].trim()));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.max.file.rate.not.valid"));
+                        }
+                    }
+                    break;
+                // Watch a control file for changes to the throttle while the comparison runs.  The file doesn't have
+                // to exist yet.
+                case "control-file":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.control.file.not.found"));
+                    } else {
+                        controlFile = Paths.get(argParts[1].trim()).toAbsolutePath();
+                    }
+                    break;
+                // Turn on the extended attribute hash cache:
+                case "xattr-cache":
+                    options.setXattrCache(true);
+                    break;
+                // Turn on the extended attribute hash cache, but never write to it:
+                case "xattr-read-only":
+                    options.setXattrCache(true);
+                    options.setXattrCacheReadOnly(true);
+                    break;
+                // Set the maximum size of the hash cache file.  This must be a whole number of megabytes.
+                case "hash-cache-size":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.hash.cache.size.not.found"));
+                    } else {
+                        try {
+                            options.setHashCacheMaxSize(Long.parseLong(argParts[1].trim()) * 1024L * 1024L);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.hash.cache.size.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the direct I/O flag if this is set (the default will be false):
+                case "direct-io":
+                    options.setDirectIo(true);
+                    break;
+                // Hash with asynchronous I/O, keeping this many reads in flight.  This must be a whole number, at least
+                // one.
+                case "async-io":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.async.io.not.found"));
+                    } else {
+                        try {
+                            int depth = Integer.parseInt(argParts[1].trim());
+                            if (depth < 1) throw new IllegalArgumentException();
+                            options.setAsyncQueueDepth(depth);
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.async.io.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the most files to have open at once with asynchronous I/O.  This must be a whole number, at least
+                // one.
+                case "async-open-files":
+                    if (argParts.length < 2 || argParts[1] == null || argParts[1].trim().isEmpty()) {
+                        errors.add(Main.RESOURCES.getString("cli.error.async.open.files.not.found"));
+                    } else {
+                        try {
+                            options.setAsyncOpenFiles(Integer.parseInt(argParts[1].trim()));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.async.open.files.not.valid"));
+                        }
+                    }
+                    break;
+                // Give each hashing thread a reader that fills buffers ahead of it.  The number of buffers can
+                // optionally be given as well, and must be at least two.
+                case "read-ahead":
+                    options.setReadAheadBuffers(3);
+                    if (argParts.length > 1 && argParts[1] != null && !argParts[1].trim().isEmpty()) {
+                        try {
+                            options.setReadAheadBuffers(Integer.parseInt(argParts[1].trim()));
+                        } catch (Exception ex) {
+                            errors.add(Main.RESOURCES.getString("cli.error.read.ahead.not.valid"));
+                        }
+                    }
+                    break;
+                // Set the lazy hashing flag if this is set (the default will be false):
+                case "lazy":
+                    options.setLazyHashing(true);
+                    break;
+                // Set the verify matches flag if this is set (the default will be false):
+                case "verify":
+                    options.setVerifyMatches(true);
+                    break;
+                // Set the quick check flag if this is set (the default will be false):
+                case "quick-check":
+                    options.setQuickCheck(true);
+                    break;
+                // Set the byte-for-byte comparison flag if this is set (the default will be false):
+                case "byte-compare":
+                    options.setByteCompare(true);
+                    break;
+                // Set the "same device" flag if this is set (the default will be false):
+                case "same-device":
+                    options.setAssumeSameDevice(true);
+                    break;
                 // Set the "check hidden files" flag if this is set (the default will be false):
                 case "hidden":
                     options.setCheckHiddenFiles(true);
@@ -287,6 +647,10 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
                         }
                     }
                     break;
+                // Scan both paths and measure the devices instead of running the comparison:
+                case "preflight":
+                    preflight = true;
+                    break;
                 // Set the debug flag (default is false):
                 case "debug":
                     options.setDebugMode(true);
@@ -315,15 +679,39 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
         // By this point, we should have pulled out our required parameters.  If we couldn't find them, explicitly print
         // errors for them.  We'll do this in reverse order of what's in the usage list, inserting them into the
         // beginning of the list.  The log file, the target path, and the source path  are all required.
-        if (options.getLogFilePath() == null) {
+        if (options.getLogFilePath() == null && !preflight) {
             errors.add(0, Main.RESOURCES.getString("cli.error.log.path.not.specified"));
         }
-        if (targetPath == null) {
+        // The target path isn't needed if we're working with a manifest instead, but then it can't be given either:
+        boolean manifestMode = options.getWriteManifest() != null || options.getTargetManifest() != null;
+        if (targetPath == null && !manifestMode) {
             errors.add(0, Main.RESOURCES.getString("cli.error.target.path.not.specified"));
         }
-        if (sourcePath == null) {
+        if (targetPath != null && manifestMode) {
+            errors.add(Main.RESOURCES.getString("cli.error.manifest.with.target"));
+        }
+        if (preflight && (manifestMode || options.getSourceManifest() != null)) {
+            errors.add(Main.RESOURCES.getString("cli.error.preflight.manifest"));
+        }
+        if (options.getWriteManifest() != null && options.getTargetManifest() != null) {
+            errors.add(Main.RESOURCES.getString("cli.error.manifest.both"));
+        }
+        // With adaptive threading, the most threads to use is given with --adaptive-threads itself:
+        if (threadsGiven && options.isAdaptiveThreads()) {
+            errors.add(Main.RESOURCES.getString("cli.error.adaptive.threads.with.threads"));
+        }
+        if (sourcePath != null && options.getWriteManifest() != null &&
+                Paths.get(options.getWriteManifest()).startsWith(sourcePath)) {
+            errors.add(Main.RESOURCES.getString("cli.error.manifest.in.path"));
+        }
+        // Likewise, a source manifest takes the place of the source path, but only makes sense with a target manifest:
+        if (sourcePath == null && options.getSourceManifest() == null) {
             errors.add(0,Main.RESOURCES.getString("cli.error.source.path.not.specified"));
         }
+        if (options.getSourceManifest() != null && (sourcePath != null || options.getTargetManifest() == null ||
+                options.getWriteManifest() != null)) {
+            errors.add(Main.RESOURCES.getString("cli.error.source.manifest.alone"));
+        }
         // Don't let the user compare the same path to itself, or let the source path contain the target path or vice
         // versa:
         if (sourcePath != null && targetPath != null && (
@@ -336,9 +724,9 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
         }
         // There's one last thing that needs to be checked.  If all three paths are set (source, target, and log), make
         // sure the log isn't being written to either the source or target path, as this could throw off the comparison.
-        if (sourcePath != null && targetPath != null && options.getLogFilePath() != null && (
+        if (sourcePath != null && options.getLogFilePath() != null && (
             Paths.get(options.getLogFilePath()).startsWith(sourcePath) ||
-            Paths.get(options.getLogFilePath()).startsWith(targetPath))) {
+            (targetPath != null && Paths.get(options.getLogFilePath()).startsWith(targetPath)))) {
             errors.add(Main.RESOURCES.getString("cli.error.log.file.in.path"));
         }
         // Return the final error list:
@@ -396,11 +784,13 @@ public class CLIRunner implements IHashProgressListener, IStatusListener {
         int percent = (int) Math.floor(
                 (((double) processedBytes + (double) currentFileBytes) / (double) totalBytes) * 100.0d
         );
-        // Report our progress at approximately 10% intervals.  If the percentage is evenly divisible by ten, check to
-        // see if we've already reported our progress.  If not, do so now.  The "percents shown" list will keep us from
-        // reporting the same percentage multiple times, on the off-chance that the calculation above resolves to the
-        // same number multiple times.
-        if (percent % 10 == 0 && !percentsShown.contains(percent)) {
+        // Report our progress at approximately 10% intervals.  Round the percentage down to the nearest ten, then check
+        // to see if we've already reported our progress.  If not, do so now.  (With large read buffers, a single update
+        // can skip right past an exact multiple of ten, so we can't just wait for one.)  The "percents shown" list will
+        // keep us from reporting the same percentage multiple times, on the off-chance that the calculation above
+        // resolves to the same number multiple times.
+        percent = percent / 10 * 10;
+        if (!percentsShown.contains(percent)) {
             System.out.println(
                     String.format(
                             Main.RESOURCES.getString("cli.hash.progress"),
@@ -0,0 +1,364 @@
+/*
+ * DEEP COMPARE: AsyncHashEngine
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * The asynchronous hash engine hashes a list of files by keeping many reads in flight at once, rather than having each
+ * thread issue one blocking read at a time.  Network shares and NVMe drives only reach their full speed with a deep
+ * queue of outstanding requests, and this gets there without a thread per file.
+ * <p>
+ * A limited number of files are open at any time, and each open file keeps a few reads in flight, each into its own
+ * buffer.  Reads can finish in any order, but a digest has to be fed in order, so finished reads wait in the file's
+ * reorder queue until the reads before them are done.  Whichever thread completes the read that fills a gap digests
+ * everything that's now in order and sends the freed buffers straight back out for the next reads.  Each file has its
+ * own hasher, and only one thread at a time ever touches it.
+ * <p>
+ * Note that on most platforms other than Windows, Java carries out "asynchronous" file reads on the channel's thread
+ * pool, so the pool is sized to the queue depth.  That's still one thread per outstanding read, not one per file.
+ */
+class AsyncHashEngine {
+
+    // Our comparison options
+    private final ComparisonOptions options;
+
+    // The hash progress listener to notify of hash updates.  Completions arrive on many threads, so this must be safe
+    // to call from any of them.
+    private final IHashProgressListener listener;
+
+    // The log file to write errors to.  May be null if no log is to be written.
+    private final BufferedWriter log;
+
+    // The throttle to apply to every read.  May be null if reading isn't throttled.
+    private final Throttle throttle;
+
+    // The number of reads to keep in flight across all files
+    private final int queueDepth;
+
+    // The most files to have open at once
+    private final int openFiles;
+
+    // The number of reads to keep in flight for each file
+    private final int fileDepth;
+
+    // The read buffers, shared by all files.  There are exactly enough for every open file to have its share.
+    private final BufferPool buffers;
+
+    // Spare hashers, left over from files we've finished
+    private final Deque<IHasher> hashers = new ArrayDeque<>();
+
+    // Files we've opened and not yet finished, so we can close them if we're cancelled
+    private final Set<FileJob> active = Collections.synchronizedSet(new HashSet<>());
+
+    // Permits to open another file
+    private final Semaphore openPermits;
+
+    // Set if we've been cancelled, after which no new reads are started
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @param listener An IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is to be written.
+     * @param throttle A Throttle to apply to every read.  May be null if reading isn't to be throttled.
+     */
+    AsyncHashEngine(ComparisonOptions options, IHashProgressListener listener, BufferedWriter log, Throttle throttle) {
+        this.options = options;
+        this.listener = listener instanceof SynchronizedHashProgressListener ||
+                listener instanceof ConcurrencyController ? listener : new SynchronizedHashProgressListener(listener);
+        this.log = log;
+        this.throttle = throttle;
+        this.queueDepth = options.getAsyncQueueDepth();
+        this.openFiles = Math.min(options.getAsyncOpenFiles(), queueDepth);
+        this.fileDepth = Math.max(queueDepth / openFiles, 1);
+        this.buffers = new BufferPool(openFiles * fileDepth, options.getBufferSize());
+        this.openPermits = new Semaphore(openFiles);
+    }
+
+    /**
+     * Hash every file in the list, returning once they're all done
+     * @param files A List of DCFiles to hash
+     * @param hashed A Consumer to call with each file as soon as it's been hashed (or failed to be), from whichever
+     * thread finished it
+     * @throws Exception Thrown if the algorithm isn't available or if we were interrupted while waiting
+     */
+    void hash(List<DCFile> files, Consumer<DCFile> hashed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(queueDepth);
+        try {
+            for (DCFile file : files) {
+                // Wait for a free slot, then open the file and send out its first reads.  The slot is given back when
+                // the file is finished.
+                openPermits.acquire();
+                if (throttle != null) throttle.acquireFile();
+                FileJob job = new FileJob(file, hashed);
+                active.add(job);
+                job.start(executor);
+            }
+            // Once we have every permit back, every file is finished:
+            openPermits.acquire(openFiles);
+            openPermits.release(openFiles);
+        } catch (InterruptedException | IOException ex) {
+            // We've been cancelled.  Stop issuing reads and close everything that's still open, which fails any reads
+            // still in flight.
+            cancelled = true;
+            synchronized (active) {
+                for (FileJob job : active) job.close();
+            }
+            throw ex instanceof InterruptedException ? ex : new InterruptedException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get a hasher for a new file, reusing a spare one if we have it
+     * @return A reset IHasher
+     * @throws Exception Thrown if the algorithm isn't available
+     */
+    private IHasher takeHasher() throws Exception {
+        IHasher hasher;
+        synchronized (hashers) {
+            hasher = hashers.poll();
+        }
+        if (hasher == null) hasher = HashProviders.newHasher(options.getHash());
+        hasher.reset();
+        return hasher;
+    }
+
+    /**
+     * The state of a single file being hashed
+     */
+    private class FileJob implements CompletionHandler<Integer, FileJob.Read> {
+
+        // The file we're hashing
+        private final DCFile file;
+
+        // Who to tell once the file is hashed
+        private final Consumer<DCFile> hashed;
+
+        // The file's open channel and its size when we opened it.  The channel is null if it couldn't be opened.
+        private AsynchronousFileChannel channel;
+        private long size;
+
+        // The hasher for this file
+        private IHasher hasher;
+
+        // The offset of the next read to send out, and of the next byte to digest
+        private long nextRead = 0L;
+        private long nextDigest = 0L;
+
+        // Reads that have finished ahead of their turn, keyed by offset
+        private final TreeMap<Long, Read> finished = new TreeMap<>();
+
+        // The number of reads in flight
+        private int outstanding = 0;
+
+        // Set if a read failed, after which the file's hash is lost
+        private boolean failed = false;
+
+        // Set once the file is finished, so we only finish it once
+        private boolean done = false;
+
+        /**
+         * Constructor
+         * @param file The DCFile to hash
+         * @param hashed A Consumer to call once the file is hashed
+         */
+        FileJob(DCFile file, Consumer<DCFile> hashed) {
+            this.file = file;
+            this.hashed = hashed;
+        }
+
+        /**
+         * Open the file and send out its first reads.  If the file can't be opened, it's finished right away with no
+         * hash.
+         * @param executor The ExecutorService that carries out reads and their completions
+         */
+        void start(ExecutorService executor) {
+            try {
+                hasher = takeHasher();
+                channel = AsynchronousFileChannel.open(
+                        Paths.get(file.getPathString()),
+                        Collections.singleton(StandardOpenOption.READ),
+                        executor
+                );
+                size = channel.size();
+            } catch (Exception ex) {
+                synchronized (this) {
+                    fail(ex);
+                    finishIfDone();
+                }
+                return;
+            }
+            synchronized (this) {
+                for (int i = 0; i < fileDepth && nextRead < size; i++) {
+                    ByteBuffer buffer;
+                    synchronized (buffers) {
+                        buffer = buffers.acquire();
+                    }
+                    issue(new Read(buffer));
+                }
+                finishIfDone();
+            }
+        }
+
+        /**
+         * Send out the next read of the file into a buffer.  Must be called while holding our lock.
+         * @param read The Read holding the buffer to read into
+         */
+        private void issue(Read read) {
+            read.offset = nextRead;
+            read.buffer.clear();
+            read.length = (int) Math.min(read.buffer.capacity(), size - nextRead);
+            read.buffer.limit(read.length);
+            nextRead += read.length;
+            outstanding++;
+            channel.read(read.buffer, read.offset, read, this);
+        }
+
+        @Override
+        public void completed(Integer count, Read read) {
+            try {
+                // A read can come back short.  Unless we've hit the end of the file, read the rest into the same
+                // buffer before we call this one finished.
+                if (count >= 0 && read.buffer.hasRemaining() && !cancelled) {
+                    channel.read(read.buffer, read.offset + read.buffer.position(), read, this);
+                    return;
+                }
+                int length = read.buffer.position();
+                if (throttle != null) throttle.acquireBytes(length);
+                listener.updateProgress(length);
+            } catch (Exception ex) {
+                failed(ex, read);
+                return;
+            }
+            synchronized (this) {
+                outstanding--;
+                finished.put(read.offset, read);
+                // Digest everything that's now in order, and send each freed buffer out for the next read:
+                Read next;
+                while ((next = finished.get(nextDigest)) != null) {
+                    finished.remove(nextDigest);
+                    next.buffer.flip();
+                    int length = next.buffer.remaining();
+                    if (!failed) hasher.update(next.buffer);
+                    nextDigest += length;
+                    // If this read came up short, the file shrank while we were reading it.  Don't read past the end.
+                    if (length < next.length) size = nextDigest;
+                    if (!failed && !cancelled && nextRead < size) {
+                        issue(next);
+                    } else {
+                        release(next);
+                    }
+                }
+                finishIfDone();
+            }
+        }
+
+        @Override
+        public synchronized void failed(Throwable ex, Read read) {
+            outstanding--;
+            fail(ex);
+            release(read);
+            // Any reads waiting their turn will never be digested now, so let their buffers go:
+            for (Read waiting : finished.values()) release(waiting);
+            finished.clear();
+            finishIfDone();
+        }
+
+        /**
+         * Note that the file couldn't be hashed.  Must be called while holding our lock.
+         * @param ex The Throwable that caused the failure
+         */
+        private void fail(Throwable ex) {
+            if (!failed && !cancelled) {
+                file.logHashError(ex instanceof Exception ? (Exception) ex : new Exception(ex), log);
+            }
+            failed = true;
+        }
+
+        /**
+         * If there's nothing left in flight and either we've digested the whole file or it failed, finish up: set the
+         * file's hash, close the channel, and give back our hasher and slot.  Must be called while holding our lock.
+         */
+        private void finishIfDone() {
+            if (done || outstanding > 0 || (!failed && !cancelled && nextDigest < size)) return;
+            done = true;
+            file.setHash(failed || cancelled ? null : hasher.digest());
+            close();
+            // If the file shrank, reads past the new end may be left waiting for a turn that will never come:
+            for (Read waiting : finished.values()) release(waiting);
+            finished.clear();
+            if (hasher != null) {
+                synchronized (hashers) {
+                    hashers.push(hasher);
+                }
+            }
+            try {
+                if (!cancelled) hashed.accept(file);
+            } finally {
+                active.remove(this);
+                openPermits.release();
+            }
+        }
+
+        /**
+         * Give a buffer back to the shared pool
+         * @param read The Read holding the buffer
+         */
+        private void release(Read read) {
+            synchronized (buffers) {
+                buffers.release(read.buffer);
+            }
+        }
+
+        /**
+         * Close the file's channel, if it's open
+         */
+        void close() {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) { }
+        }
+
+        /**
+         * A single read: the buffer it goes into and where in the file it starts
+         */
+        private class Read {
+
+            final ByteBuffer buffer;
+            long offset;
+            int length;
+
+            Read(ByteBuffer buffer) {
+                this.buffer = buffer;
+            }
+
+        }
+
+    }
+
+}
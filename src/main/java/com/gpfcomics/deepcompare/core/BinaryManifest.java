@@ -0,0 +1,502 @@
+/*
+ * DEEP COMPARE: BinaryManifest
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A compact binary manifest of the files in a tree, meant for trees far too big for a text manifest to be practical.
+ * The file is laid out as a fixed-size header followed by four sections:
+ * <ul>
+ *     <li>The path table: every path (as UTF-8) in sorted order.  Each path is stored as the number of leading bytes it
+ *     shares with the path before it, followed by the rest of the path, so the long common directory prefixes of a
+ *     deep tree are only stored once per run.  Every BLOCK_SIZE paths, a path is stored in full, starting a new
+ *     block.</li>
+ *     <li>The sparse index: the file offset of the first path of each block.</li>
+ *     <li>The size table: the size of each file, eight bytes apiece.</li>
+ *     <li>The digest table: the raw digest of each file, all the same length.</li>
+ * </ul>
+ * The manifest is read through memory mapping, so opening one costs next to nothing no matter how big it is, and only
+ * the pages we actually touch are ever read.  A path can be found with a binary search of the blocks followed by a
+ * short scan of a single block, and the sizes and digests of the n-th file sit at fixed offsets.  Walking the whole
+ * manifest in order, as when comparing it against a live tree or another manifest, just decodes the path table from
+ * front to back.
+ */
+public class BinaryManifest implements IManifestReader {
+
+    // The magic number at the start of every binary manifest.  The last byte is the format version.
+    private static final byte[] MAGIC = { 'D', 'C', 'M', 'A', 'N', 'I', 'F', 1 };
+
+    // The number of paths in each block of the path table
+    private static final int BLOCK_SIZE = 64;
+
+    // The longest algorithm name we have room for in the header
+    private static final int MAX_ALGORITHM_LENGTH = 64;
+
+    // The size of the header: the magic number, the entry count, the digest length, the block size, the tree hashing
+    // threshold and region size, the offsets of the four sections, and the algorithm name (a two-byte length plus the
+    // name itself)
+    private static final int HEADER_SIZE = 8 + 8 + 4 + 4 + 8 + 8 + 8 * 4 + 2 + MAX_ALGORITHM_LENGTH;
+
+    // The size of each memory-mapped chunk of the file.  Java can't map more than 2 GB at a time.
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    // The memory-mapped chunks of the file
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * The number of files in the manifest
+     */
+    @Getter
+    private final long count;
+
+    /**
+     * The length of each digest in bytes
+     */
+    @Getter
+    private final int digestLength;
+
+    /**
+     * The name of the hash algorithm the manifest was made with
+     */
+    @Getter
+    private final String algorithm;
+
+    /**
+     * The tree hashing threshold the manifest was made with, or zero if tree hashing wasn't used
+     */
+    @Getter
+    private final long treeHashThreshold;
+
+    /**
+     * The tree hashing region size the manifest was made with, or zero if tree hashing wasn't used
+     */
+    @Getter
+    private final long treeRegionSize;
+
+    // The number of paths in each block, as recorded in the header
+    private final int blockSize;
+
+    // The offsets of the sections of the file
+    private final long indexOffset;
+    private final long sizesOffset;
+    private final long digestsOffset;
+
+    // Where next() will read from: the index of the next entry, the offset of its path, and the previous path's bytes
+    private long cursorIndex = 0L;
+    private long cursorOffset;
+    private byte[] cursorPath = new byte[256];
+
+    /**
+     * Constructor.  This maps the manifest into memory and reads its header.
+     * @param path The Path to the manifest file
+     * @throws IOException Thrown if the manifest can't be opened or isn't a valid binary manifest
+     */
+    public BinaryManifest(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) throw new IOException("Not a binary manifest: " + path);
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1L) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+        byte[] magic = new byte[MAGIC.length];
+        read(0L, magic, 0, magic.length);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a binary manifest: " + path);
+        count = readLong(8L);
+        digestLength = readInt(16L);
+        blockSize = readInt(20L);
+        treeHashThreshold = readLong(24L);
+        treeRegionSize = readLong(32L);
+        cursorOffset = readLong(40L);
+        indexOffset = readLong(48L);
+        sizesOffset = readLong(56L);
+        digestsOffset = readLong(64L);
+        byte[] name = new byte[((read(72L) & 0xff) << 8) | (read(73L) & 0xff)];
+        read(74L, name, 0, name.length);
+        algorithm = new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check whether a file is a binary manifest
+     * @param path The Path to the file
+     * @return True if the file starts with our magic number
+     * @throws IOException Thrown if the file can't be read
+     */
+    public static boolean isBinaryManifest(Path path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read = 0;
+            while (read < magic.length) {
+                int n = in.read(magic, read, magic.length - read);
+                if (n < 0) return false;
+                read += n;
+            }
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Get the path of a file in the manifest
+     * @param index The index of the file, from zero up to one less than the count
+     * @return The path of the file relative to the root of the tree, with forward slashes
+     */
+    public String getPath(long index) {
+        checkIndex(index);
+        // Decode the block from its first path up to the one we want:
+        long block = index / blockSize;
+        long[] offset = { readLong(indexOffset + block * 8L) };
+        byte[] buffer = new byte[256];
+        int length = 0;
+        for (long i = block * blockSize; i <= index; i++) {
+            int shared = readVarInt(offset);
+            int rest = readVarInt(offset);
+            if (shared + rest > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, shared + rest));
+            }
+            read(offset[0], buffer, shared, rest);
+            offset[0] += rest;
+            length = shared + rest;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the size of a file in the manifest
+     * @param index The index of the file, from zero up to one less than the count
+     * @return The size of the file in bytes
+     */
+    public long getSize(long index) {
+        checkIndex(index);
+        return readLong(sizesOffset + index * 8L);
+    }
+
+    /**
+     * Get the digest of a file in the manifest
+     * @param index The index of the file, from zero up to one less than the count
+     * @return The raw digest of the file
+     */
+    public byte[] getDigest(long index) {
+        checkIndex(index);
+        byte[] digest = new byte[digestLength];
+        read(digestsOffset + index * digestLength, digest, 0, digestLength);
+        return digest;
+    }
+
+    /**
+     * Find a file in the manifest by path
+     * @param path The path of the file relative to the root of the tree, with forward slashes
+     * @return The index of the file, or -1 if it isn't in the manifest
+     */
+    public long find(String path) {
+        if (count == 0L) return -1L;
+        // Binary search the first path of each block to find the last block starting at or before our path.  Those
+        // paths are stored in full, so each probe only reads one path.
+        long blocks = (count + blockSize - 1L) / blockSize;
+        long low = 0L;
+        long high = blocks - 1L;
+        while (low < high) {
+            long middle = (low + high + 1L) >>> 1;
+            if (getPath(middle * blockSize).compareTo(path) <= 0) low = middle;
+            else high = middle - 1L;
+        }
+        // Then decode that block one path at a time until we find ours or pass where it would be:
+        long end = Math.min(count, (low + 1L) * blockSize);
+        long[] offset = { readLong(indexOffset + low * 8L) };
+        byte[] buffer = new byte[256];
+        for (long i = low * blockSize; i < end; i++) {
+            int shared = readVarInt(offset);
+            int rest = readVarInt(offset);
+            if (shared + rest > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, shared + rest));
+            }
+            read(offset[0], buffer, shared, rest);
+            offset[0] += rest;
+            int order = new String(buffer, 0, shared + rest, StandardCharsets.UTF_8).compareTo(path);
+            if (order == 0) return i;
+            if (order > 0) break;
+        }
+        return -1L;
+    }
+
+    @Override
+    public TextManifest.Entry next() {
+        if (cursorIndex >= count) return null;
+        long[] offset = { cursorOffset };
+        int shared = readVarInt(offset);
+        int rest = readVarInt(offset);
+        if (shared + rest > cursorPath.length) {
+            cursorPath = Arrays.copyOf(cursorPath, Math.max(cursorPath.length * 2, shared + rest));
+        }
+        read(offset[0], cursorPath, shared, rest);
+        cursorOffset = offset[0] + rest;
+        TextManifest.Entry entry = new TextManifest.Entry(
+                new String(cursorPath, 0, shared + rest, StandardCharsets.UTF_8),
+                getSize(cursorIndex),
+                getDigest(cursorIndex)
+        );
+        cursorIndex++;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        // There's nothing to close.  The mappings are released once they're garbage collected.
+    }
+
+    /**
+     * Make sure an entry index is in range
+     * @param index The index to check
+     * @throws IndexOutOfBoundsException Thrown if the index is out of range
+     */
+    private void checkIndex(long index) throws IndexOutOfBoundsException {
+        if (index < 0L || index >= count) throw new IndexOutOfBoundsException("Manifest index out of range: " + index);
+    }
+
+    /**
+     * Read a single byte from the file
+     * @param offset The offset of the byte within the file
+     * @return The byte at that offset
+     */
+    private byte read(long offset) {
+        return chunks[(int) (offset / CHUNK_SIZE)].get((int) (offset % CHUNK_SIZE));
+    }
+
+    /**
+     * Read a run of bytes from the file, which may straddle two chunks
+     * @param offset The offset of the first byte within the file
+     * @param buffer The array to read into
+     * @param start The position in the array to start at
+     * @param length The number of bytes to read
+     */
+    private void read(long offset, byte[] buffer, int start, int length) {
+        while (length > 0) {
+            ByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)].duplicate();
+            chunk.position((int) (offset % CHUNK_SIZE));
+            int n = Math.min(length, chunk.remaining());
+            chunk.get(buffer, start, n);
+            offset += n;
+            start += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Read a big-endian int from the file
+     * @param offset The offset of the int within the file
+     * @return The int at that offset
+     */
+    private int readInt(long offset) {
+        byte[] bytes = new byte[4];
+        read(offset, bytes, 0, 4);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * Read a big-endian long from the file
+     * @param offset The offset of the long within the file
+     * @return The long at that offset
+     */
+    private long readLong(long offset) {
+        int chunk = (int) (offset / CHUNK_SIZE);
+        int position = (int) (offset % CHUNK_SIZE);
+        // Take the fast path unless the long straddles two chunks:
+        if (position + 8 <= chunks[chunk].limit()) return chunks[chunk].getLong(position);
+        byte[] bytes = new byte[8];
+        read(offset, bytes, 0, 8);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * Read a variable-length int (seven bits per byte, low bits first) from the file
+     * @param offset A one-element array holding the offset to read from, which is moved past the int
+     * @return The int read
+     */
+    private int readVarInt(long[] offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = read(offset[0]++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Writes a binary manifest, one file at a time.  Paths are written straight to the manifest as they come in, while
+     * the sizes and digests are spooled to temporary files beside it and copied in when the manifest is closed, since
+     * their tables come after the path table.
+     */
+    public static class Writer implements IManifestWriter {
+
+        // The manifest file
+        private final Path path;
+
+        // The stream the header and path table are written to
+        private final DataOutputStream out;
+
+        // The temporary files and streams for the size and digest tables
+        private final Path sizesFile;
+        private final Path digestsFile;
+        private final DataOutputStream sizes;
+        private final OutputStream digests;
+
+        // The algorithm name and tree hashing settings, for the header
+        private final byte[] algorithm;
+        private final long treeHashThreshold;
+        private final long treeRegionSize;
+
+        // The offset of the first path of each block
+        private long[] index = new long[1024];
+
+        // The number of files written so far
+        private long count = 0L;
+
+        // The length of each digest, once we've seen the first one
+        private int digestLength = -1;
+
+        // The offset where the next path will be written
+        private long offset = HEADER_SIZE;
+
+        // The previous path, as a string for checking the order and as bytes for prefix compression
+        private String previous;
+        private byte[] previousBytes = new byte[0];
+
+        /**
+         * Constructor.  This creates (or replaces) the manifest file.
+         * @param path The Path to the manifest file
+         * @param algorithm The name of the hash algorithm
+         * @param treeHashThreshold The tree hashing threshold in bytes, or zero if tree hashing is off
+         * @param treeRegionSize The tree hashing region size in bytes
+         * @throws IOException Thrown if the manifest or its temporary files can't be created
+         */
+        public Writer(Path path, String algorithm, long treeHashThreshold, long treeRegionSize) throws IOException {
+            this.path = path;
+            this.algorithm = algorithm.getBytes(StandardCharsets.UTF_8);
+            if (this.algorithm.length > MAX_ALGORITHM_LENGTH) {
+                throw new IllegalArgumentException("Hash algorithm name is too long for a binary manifest");
+            }
+            this.treeHashThreshold = treeHashThreshold;
+            this.treeRegionSize = treeRegionSize > 0L && treeHashThreshold > 0L ? treeRegionSize : 0L;
+            Path directory = path.toAbsolutePath().getParent();
+            sizesFile = Files.createTempFile(directory, "deep-compare-sizes", ".tmp");
+            digestsFile = Files.createTempFile(directory, "deep-compare-digests", ".tmp");
+            sizes = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sizesFile)));
+            digests = new BufferedOutputStream(Files.newOutputStream(digestsFile));
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            // Leave room for the header, which we'll fill in once we know where everything ended up:
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        @Override
+        public void write(String path, long size, byte[] digest) throws IOException {
+            if (previous != null && previous.compareTo(path) >= 0) {
+                throw new IllegalArgumentException("Manifest entries must be written in sorted order");
+            }
+            if (digestLength < 0) digestLength = digest.length;
+            else if (digest.length != digestLength) {
+                throw new IllegalArgumentException("Manifest digests must all be the same length");
+            }
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            // Start a new block every so often, storing the path in full so lookups can start decoding from there:
+            int shared = 0;
+            if (count % BLOCK_SIZE == 0L) {
+                int block = (int) (count / BLOCK_SIZE);
+                if (block == index.length) index = Arrays.copyOf(index, index.length * 2);
+                index[block] = offset;
+            } else {
+                int limit = Math.min(bytes.length, previousBytes.length);
+                while (shared < limit && bytes[shared] == previousBytes[shared]) shared++;
+            }
+            writeVarInt(shared);
+            writeVarInt(bytes.length - shared);
+            out.write(bytes, shared, bytes.length - shared);
+            offset += bytes.length - shared;
+            sizes.writeLong(size);
+            digests.write(digest);
+            previous = path;
+            previousBytes = bytes;
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Write the sparse index, then copy in the size and digest tables:
+                long indexOffset = offset;
+                long blocks = (count + BLOCK_SIZE - 1L) / BLOCK_SIZE;
+                for (int i = 0; i < blocks; i++) out.writeLong(index[i]);
+                long sizesOffset = indexOffset + blocks * 8L;
+                long digestsOffset = sizesOffset + count * 8L;
+                sizes.close();
+                digests.close();
+                Files.copy(sizesFile, out);
+                Files.copy(digestsFile, out);
+                out.close();
+                // Now go back and fill in the header:
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(MAGIC)
+                        .putLong(count)
+                        .putInt(Math.max(digestLength, 0))
+                        .putInt(BLOCK_SIZE)
+                        .putLong(treeHashThreshold)
+                        .putLong(treeRegionSize)
+                        .putLong(HEADER_SIZE)
+                        .putLong(indexOffset)
+                        .putLong(sizesOffset)
+                        .putLong(digestsOffset)
+                        .putShort((short) algorithm.length)
+                        .put(algorithm);
+                header.rewind();
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    while (header.hasRemaining()) channel.write(header, header.position());
+                }
+            } finally {
+                sizes.close();
+                digests.close();
+                out.close();
+                Files.deleteIfExists(sizesFile);
+                Files.deleteIfExists(digestsFile);
+            }
+        }
+
+        /**
+         * Write a variable-length int (seven bits per byte, low bits first) to the path table
+         * @param value The int to write, which must not be negative
+         * @throws IOException Thrown if the manifest can't be written
+         */
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                offset++;
+                value >>>= 7;
+            }
+            out.write(value);
+            offset++;
+        }
+
+    }
+
+}
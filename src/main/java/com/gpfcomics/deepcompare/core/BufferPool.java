@@ -0,0 +1,65 @@
+/*
+ * DEEP COMPARE: BufferPool
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A small, fixed pool of direct ByteBuffers for reading files.  The buffers are allocated once, up front, and handed
+ * out and returned over and over again, so once a hashing thread gets going it doesn't create any garbage no matter how
+ * many files it reads.  Each HashWorker owns its own pool, so this class makes no attempt to be thread-safe.
+ */
+public class BufferPool {
+
+    // The buffers that are currently available to be handed out
+    private final Deque<ByteBuffer> available = new ArrayDeque<>();
+
+    /**
+     * The size of each buffer in the pool, in bytes
+     */
+    @Getter
+    private final int bufferSize;
+
+    /**
+     * Constructor
+     * @param count The number of buffers to allocate
+     * @param bufferSize The size of each buffer in bytes
+     */
+    public BufferPool(int count, int bufferSize) {
+        this.bufferSize = bufferSize;
+        for (int i = 0; i < count; i++) {
+            available.push(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * Take a buffer out of the pool.  The buffer will be cleared and ready to read into.
+     * @return A cleared ByteBuffer
+     * @throws IllegalStateException Thrown if every buffer in the pool is already in use
+     */
+    public ByteBuffer acquire() throws IllegalStateException {
+        ByteBuffer buffer = available.poll();
+        if (buffer == null) {
+            throw new IllegalStateException("No buffers available in pool");
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool once we're done with it
+     * @param buffer The ByteBuffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null) available.push(buffer);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * DEEP COMPARE: CRC32CHasher
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * A hasher wrapping the JDK's CRC-32C checksum.  Modern JVMs compile CRC-32C down to the dedicated CPU
+ * instructions on x86 and ARM, which makes it one of the fastest ways to fingerprint a file that Java has to offer.
+ * Like any checksum, it's only good for catching accidental damage and is no defense against a deliberate collision.
+ * CRC-32C only arrived in Java 9, so we look it up by name at run time; on older runtimes it simply won't be offered.
+ * The same goes for the checksum's method that reads a buffer in place, which we still build without.
+ * The digest is the 32-bit checksum in big-endian order.
+ */
+public class CRC32CHasher implements IHasher {
+
+    /**
+     * The name of this algorithm as it appears in the hash list
+     */
+    public static final String ALGORITHM = "CRC32C";
+
+    // The name of the JDK class that does the actual work
+    private static final String CHECKSUM_CLASS = "java.util.zip.CRC32C";
+
+    // The wrapped checksum
+    private final Checksum checksum;
+
+    // The checksum's update(ByteBuffer) method, looked up once when the first hasher is made
+    private static Method updateBuffer = null;
+
+    /**
+     * Constructor
+     * @throws NoSuchAlgorithmException Thrown if this Java runtime does not provide CRC-32C
+     */
+    public CRC32CHasher() throws NoSuchAlgorithmException {
+        try {
+            Class<?> checksumClass = Class.forName(CHECKSUM_CLASS);
+            checksum = (Checksum) checksumClass.getDeclaredConstructor().newInstance();
+            synchronized (CRC32CHasher.class) {
+                if (updateBuffer == null) updateBuffer = checksumClass.getMethod("update", ByteBuffer.class);
+            }
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            throw new NoSuchAlgorithmException(ALGORITHM + " is not available in this Java runtime");
+        }
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 4;
+    }
+
+    @Override
+    public void reset() {
+        checksum.reset();
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int length) {
+        checksum.update(input, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+        // The checksum can work on a direct buffer in place.  (If we got this far, we're on Java 9 or later, where
+        // Checksum has this method.)
+        try {
+            updateBuffer.invoke(checksum, input);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public byte[] digest() {
+        int value = (int) checksum.getValue();
+        checksum.reset();
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+}
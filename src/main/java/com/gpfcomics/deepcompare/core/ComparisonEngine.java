@@ -7,15 +7,30 @@
 package com.gpfcomics.deepcompare.core;
 
 import com.gpfcomics.deepcompare.Main;
+import lombok.Getter;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The comparison engine is the main workhorse of this application.  It searches the input source and target
@@ -32,8 +47,9 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
     // The absolute path to the target directory
     private final String targetPath;
 
-    // Our comparison options
-    private final ComparisonOptions options;
+    // Our comparison options.  If we compare against a manifest, this is replaced by a copy carrying the manifest's
+    // hash settings, so the caller's options are never changed.
+    private ComparisonOptions options;
 
     // The hash progress listener to notify of hash updates
     private final IHashProgressListener hashListener;
@@ -41,6 +57,13 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
     // The status listener to notify of status updates
     private final IStatusListener statusListener;
 
+    /**
+     * The throttle shared by every read this comparison makes.  The rates can be changed, and reading paused and
+     * resumed, through this while the comparison is running.
+     */
+    @Getter
+    private final Throttle throttle;
+
     /**
      * Constructor
      * @param sourcePath A String containing the source directory's absolute path
@@ -61,6 +84,7 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
         this.options = options;
         this.hashListener = hashListener;
         this.statusListener = statusListener;
+        this.throttle = new Throttle(options.getBytesPerSecond(), options.getFilesPerSecond());
     }
 
     @Override
@@ -102,30 +126,170 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
                         )
                 );
                 log.newLine();
+                if (options.getSourceManifest() != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.source.manifest"),
+                                    options.getSourceManifest()
+                            )
+                    );
+                } else {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.source.directory"),
+                                    sourcePath
+                            )
+                    );
+                }
+                log.newLine();
+                // If we're working with a manifest, log that in place of the target directory:
+                if (options.getTargetManifest() != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.target.manifest"),
+                                    options.getTargetManifest()
+                            )
+                    );
+                } else if (options.getWriteManifest() != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.write.manifest"),
+                                    options.getWriteManifest()
+                            )
+                    );
+                } else {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.target.directory"),
+                                    targetPath
+                            )
+                    );
+                }
+                log.newLine();
+
+                // Log the chosen hash algorithm:
                 log.write(
                         String.format(
-                                Main.RESOURCES.getString("engine.log.source.directory"),
-                                sourcePath
+                                Main.RESOURCES.getString("engine.log.hash"),
+                                options.getHash()
                         )
                 );
                 log.newLine();
+
+                // Log the number of hashing threads, or the most we'll use if we're working that out as we go:
+                if (options.isAdaptiveThreads()) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.threads.adaptive"),
+                                    options.getSourceThreads(),
+                                    options.getTargetThreads()
+                            )
+                    );
+                } else {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.threads"),
+                                    options.getSourceThreads(),
+                                    options.getTargetThreads()
+                            )
+                    );
+                }
+                log.newLine();
+
+                // Log the order files are hashed in:
                 log.write(
                         String.format(
-                                Main.RESOURCES.getString("engine.log.target.directory"),
-                                targetPath
+                                Main.RESOURCES.getString("engine.log.schedule"),
+                                options.getHashSchedule().getLabel()
                         )
                 );
                 log.newLine();
 
-                // Log the chosen hash algorithm:
+                // Log the read buffer size:
                 log.write(
                         String.format(
-                                Main.RESOURCES.getString("engine.log.hash"),
-                                options.getHash()
+                                Main.RESOURCES.getString("engine.log.buffer.size"),
+                                Utilities.prettyPrintFileSize(options.getBufferSize())
                         )
                 );
                 log.newLine();
 
+                // Log whether we're bypassing the cache, and warn if we wanted to but can't:
+                if (options.isDirectIo()) {
+                    log.write(Main.RESOURCES.getString(DirectIO.isAvailable() ?
+                            "engine.log.direct.io" : "engine.log.direct.io.unavailable"));
+                    log.newLine();
+                }
+
+                // Log the read-ahead buffer count, if read-ahead is turned on:
+                if (options.getReadAheadBuffers() > 0) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.read.ahead"),
+                                    options.getReadAheadBuffers()
+                            )
+                    );
+                    log.newLine();
+                }
+
+                // Log the asynchronous I/O settings, if we're using it:
+                if (options.getAsyncQueueDepth() > 0) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.async.io"),
+                                    options.getAsyncQueueDepth(),
+                                    Math.min(options.getAsyncOpenFiles(), options.getAsyncQueueDepth())
+                            )
+                    );
+                    log.newLine();
+                }
+
+                // Log the memory-mapping threshold, if memory-mapping is turned on:
+                if (options.getMappedThreshold() > 0L) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.mmap.threshold"),
+                                    Utilities.prettyPrintFileSize(options.getMappedThreshold())
+                            )
+                    );
+                    log.newLine();
+                }
+
+                // Log the hash cache file, if we're using one:
+                if (options.getHashCacheFile() != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.hash.cache"),
+                                    options.getHashCacheFile(),
+                                    Utilities.prettyPrintFileSize(options.getHashCacheMaxSize())
+                            )
+                    );
+                    log.newLine();
+                }
+
+                // Log whether we're using the extended attribute cache, and if so, whether we'll write to it:
+                if (options.isXattrCache()) {
+                    log.write(
+                            Main.RESOURCES.getString(
+                                    options.isXattrCacheReadOnly() ?
+                                            "engine.log.xattr.cache.read.only" : "engine.log.xattr.cache"
+                            )
+                    );
+                    log.newLine();
+                }
+
+                // Log the tree hashing threshold and region size, if tree hashing is turned on:
+                if (options.getTreeHashThreshold() > 0L) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.tree.hash"),
+                                    Utilities.prettyPrintFileSize(options.getTreeHashThreshold()),
+                                    Utilities.prettyPrintFileSize(options.getTreeRegionSize())
+                            )
+                    );
+                    log.newLine();
+                }
+
                 // If any exclusions were specified:
                 if (!options.getExclusions().isEmpty()) {
 
@@ -151,6 +315,50 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
 
                 }
 
+                // Are we only hashing files that can't be decided from the scan:
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.lazy.hashing"),
+                                options.isLazyHashing() ?
+                                        Main.RESOURCES.getString("engine.log.boolean.true") :
+                                        Main.RESOURCES.getString("engine.log.boolean.false")
+                        )
+                );
+                log.newLine();
+
+                // Are we comparing files directly instead of hashing them:
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.byte.compare"),
+                                options.isByteCompare() ?
+                                        Main.RESOURCES.getString("engine.log.boolean.true") :
+                                        Main.RESOURCES.getString("engine.log.boolean.false")
+                        )
+                );
+                log.newLine();
+
+                // Are we verifying matching hashes byte-for-byte:
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.verify.matches"),
+                                options.isVerifyMatches() ?
+                                        Main.RESOURCES.getString("engine.log.boolean.true") :
+                                        Main.RESOURCES.getString("engine.log.boolean.false")
+                        )
+                );
+                log.newLine();
+
+                // Are we fingerprinting the ends of each file before hashing:
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.quick.check"),
+                                options.isQuickCheck() ?
+                                        Main.RESOURCES.getString("engine.log.boolean.true") :
+                                        Main.RESOURCES.getString("engine.log.boolean.false")
+                        )
+                );
+                log.newLine();
+
                 // Are we checking hidden files:
                 log.write(
                         String.format(
@@ -170,6 +378,13 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
             result.setSourceDirectory(sourceDirectory);
             result.setTargetDirectory(targetDirectory);
 
+            // If we're comparing two manifests, there are no trees to scan at all:
+            if (options.getSourceManifest() != null) {
+                compareManifests(result, log);
+                finishJournal();
+                return result;
+            }
+
             // Time to start building our maps.  We'll start with the source:
             statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.build.source.map"));
             if (log != null) {
@@ -187,6 +402,18 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
                 log.newLine();
             }
 
+            // If we're working with a manifest rather than a target directory, that's a different job from here on:
+            if (options.getWriteManifest() != null) {
+                writeManifest(sourceDirectory, result, log);
+                finishJournal();
+                return result;
+            }
+            if (options.getTargetManifest() != null) {
+                compareWithManifest(sourceDirectory, result, log);
+                finishJournal();
+                return result;
+            }
+
             // Next, build the target map:
             statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.build.target.map"));
             if (log != null) {
@@ -229,29 +456,84 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
                 log.newLine();
             }
 
-            // Now for the real work.  Starting with the source tree, start recursively hashing files:
-            statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.source"));
-            if (log != null) {
-                log.write(Main.RESOURCES.getString("engine.status.hash.source"));
+            // Pairs of files that are really the same physical file (bind mounts, hard-linked snapshots and the like)
+            // can only match, so settle them now rather than reading the same data twice:
+            List<DCFile> sameFiles = new ArrayList<>();
+            sourceDirectory.resolveSameFiles(targetDirectory, sameFiles);
+            long sameFileBytes = 2L * totalSize(sameFiles);
+            result.setSameFileBytes(sameFileBytes);
+            if (log != null && !sameFiles.isEmpty()) {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.same.files"),
+                                sameFiles.size(),
+                                Utilities.prettyPrintFileSize(sameFileBytes)
+                        )
+                );
                 log.newLine();
             }
-            MessageDigest hash = MessageDigest.getInstance(options.getHash());
-            sourceDirectory.hash(hash, hashListener, log);
 
-            // Do the same for the target tree:
-            statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.target"));
-            if (log != null) {
-                log.write(Main.RESOURCES.getString("engine.status.hash.target"));
-                log.newLine();
+            // Now for the real work.  Build the lists of files we need to read.  Normally, that's every file in both
+            // trees.  In lazy mode, pair the files up first and only hash the pairs whose outcome actually depends on
+            // their contents.  Files that only exist on one side and pairs with different sizes are decided right now
+            // from the scan, which can save an enormous amount of reading when the trees have drifted apart.  Comparing
+            // files byte-for-byte works on pairs, so that needs the same treatment.
+            List<DCFile> sourceFiles = new ArrayList<>();
+            List<DCFile> targetFiles = new ArrayList<>();
+            if (options.isLazyHashing() || options.isByteCompare() || options.isQuickCheck() ||
+                    options.isVerifyMatches()) {
+                statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.pair.files"));
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.status.pair.files"));
+                    log.newLine();
+                }
+                sourceDirectory.pairFiles(targetDirectory, sourceFiles, targetFiles);
+                // If we're doing a quick check first, weed out the pairs whose beginnings or ends differ:
+                if (options.isQuickCheck()) quickCheck(sourceFiles, targetFiles, log);
+                // Let the listener know how much we'll actually be reading, so the progress is accurate:
+                long bytesToHash = totalSize(sourceFiles) + totalSize(targetFiles);
+                statusListener.updateTotalBytes(bytesToHash);
+                if (log != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.files.to.hash"),
+                                    sourceFiles.size() + targetFiles.size(),
+                                    Utilities.prettyPrintFileSize(bytesToHash)
+                            )
+                    );
+                    log.newLine();
+                }
+            } else {
+                sourceDirectory.collectFiles(sourceFiles);
+                targetDirectory.collectFiles(targetFiles);
+                if (!sameFiles.isEmpty()) {
+                    sourceFiles.removeIf(DCFile::isResolved);
+                    targetFiles.removeIf(DCFile::isResolved);
+                    statusListener.updateTotalBytes(totalBytes - sameFileBytes);
+                }
+            }
+
+            // Either compare the pairs directly or hash both lists:
+            if (options.isByteCompare()) {
+                statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.compare.contents"));
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.status.compare.contents"));
+                    log.newLine();
+                }
+                newPool(options.getThreads(), hashListener, log, null)
+                        .compareContents(sourceFiles, targetFiles);
+            } else {
+                hashFiles(sourceFiles, targetFiles, log);
+                // If asked, double-check the pairs that appear to match by reading them side by side:
+                if (options.isVerifyMatches()) verifyMatches(sourceFiles, targetFiles, log);
             }
-            targetDirectory.hash(hash, hashListener, log);
 
             // Generate the final report.  Tell the source folder to compare itself against the target folder and vice
             // versa.  This has to be done from both sides, because a file may be missing from one tree and not the
             // other, and that's the best way to identify this.
             // TODO: One efficiency shortcut might be to skip comparing two files' hashes if we've already compared them
             //       (i.e., skip target to source if we've already checked source to target).  Then again, this is just
-            //       a simple string compare at this point, so this might not buy us much.
+            //       a simple array compare at this point, so this might not buy us much.
             statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.generate.report"));
             sourceDirectory.compare(targetDirectory);
             targetDirectory.compare(sourceDirectory);
@@ -265,63 +547,9 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
             );
             targetDirectory.compileResults(result.getTargetMissingFiles());
 
-            // Log our results to the log file.  For CLI mode, this is our only useful output, while for GUI mode its
-            // an added bonus.  For the log file, we'll only be concerned with logging discrepancies; we don't need an
-            // exhaustive list of all files.  If the two folders match, a simple message stating that they match will
-            // suffice.
-            if (log != null) {
-                if (sourceDirectory.isMatch() && targetDirectory.isMatch()) {
-                    log.write(
-                            Main.RESOURCES.getString("engine.log.all.match")
-                    );
-                    log.newLine();
-                } else {
-
-                    // If there are discrepancies, start by printing a header:
-                    log.write(
-                            Main.RESOURCES.getString("engine.log.discrepancies.found")
-                    );
-                    log.newLine();
-
-                    // Log the results.  Start with the files in the source path but missing from the target:
-                    if (!result.getSourceMissingFiles().isEmpty()) {
-                        log.write(
-                                Main.RESOURCES.getString("engine.log.discrepancies.source.missing")
-                        );
-                        log.newLine();;
-                        for (DCFile file : result.getSourceMissingFiles()) {
-                            log.write("\t" + file.relativePath(sourcePath));
-                            log.newLine();
-                        }
-                    }
-
-                    // Next, log the files in the target path but missing from the source:
-                    if (!result.getTargetMissingFiles().isEmpty()) {
-                        log.write(
-                                Main.RESOURCES.getString("engine.log.discrepancies.target.missing")
-                        );
-                        log.newLine();;
-                        for (DCFile file : result.getTargetMissingFiles()) {
-                            log.write("\t" + file.relativePath(targetPath));
-                            log.newLine();
-                        }
-                    }
-
-                    // Finally, log the changed files:
-                    if (!result.getChangedFiles().isEmpty()) {
-                        log.write(
-                                Main.RESOURCES.getString("engine.log.discrepancies.changed")
-                        );
-                        log.newLine();;
-                        for (DCFile file : result.getChangedFiles()) {
-                            log.write("\t" + file.relativePath(sourcePath));
-                            log.newLine();
-                        }
-                    }
-
-                }
-
-            }
+            // Log our results to the log file:
+            logResults(result, sourceDirectory.isMatch() && targetDirectory.isMatch(), sourcePath, targetPath, log);
+            finishJournal();
 
         // If anything blows up, catch the exception and write the exception to the log, if we're writing one.  Note
         // that this ignores the debug flag; we will *ALWAYS* log the exception here.
@@ -360,4 +588,950 @@ public class ComparisonEngine implements Callable<ComparisonResult> {
 
     }
 
+    /**
+     * Hash every file in the source tree and write the results to a text manifest instead of comparing them with a
+     * target tree.  The manifest is written in order of relative path, so it can later be compared against a live tree
+     * without loading it all into memory.
+     * @param sourceDirectory The scanned source DCDirectory
+     * @param result The ComparisonResult to fill in
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if hashing fails, the manifest can't be written, or we are interrupted
+     */
+    private void writeManifest(DCDirectory sourceDirectory, ComparisonResult result, BufferedWriter log)
+            throws Exception {
+        List<DCFile> files = new ArrayList<>();
+        sourceDirectory.collectFiles(files);
+        reportTotals(files, result, log);
+
+        // Hash everything, using the cache if we have one:
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.source"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.hash.source"));
+            log.newLine();
+        }
+        List<DCFile> toHash = new ArrayList<>(files);
+        List<DCFile[]> links = removeHardLinks(toHash, null, log);
+        IHashCache cache = openHashCache(log);
+        try {
+            newPool(options.getSourceThreads(), hashListener, log, cache).hash(toHash);
+        } finally {
+            closeHashCache(cache, log);
+        }
+        shareDigests(links);
+
+        // Now write the manifest in path order.  Files we couldn't hash have already been logged as errors, so just
+        // leave them out.
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.write.manifest"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.write.manifest"));
+            log.newLine();
+        }
+        String[] paths = sortByManifestPath(files);
+        long written = 0L;
+        Path manifestPath = Paths.get(options.getWriteManifest());
+        try (IManifestWriter writer = options.isBinaryManifest() ?
+                new BinaryManifest.Writer(manifestPath, options.getHash(), options.getTreeHashThreshold(),
+                        options.getTreeRegionSize()) :
+                new TextManifest.Writer(manifestPath, options.getHash(), options.getTreeHashThreshold(),
+                        options.getTreeRegionSize())) {
+            for (int i = 0; i < files.size(); i++) {
+                DCFile file = files.get(i);
+                if (file.getHash() == null) continue;
+                writer.write(paths[i], file.getSize(), file.getHash());
+                written++;
+            }
+        }
+        if (log != null) {
+            log.write(
+                    String.format(
+                            Main.RESOURCES.getString("engine.log.manifest.written"),
+                            written,
+                            options.getWriteManifest()
+                    )
+            );
+            log.newLine();
+        }
+    }
+
+    /**
+     * Compare the source tree against a text manifest rather than a target tree.  Only the source tree is read.  The
+     * manifest is walked side by side with the sorted list of source files twice: once before hashing, to pick out
+     * missing files and files whose sizes differ (neither of which needs hashing), and once after, to compare digests.
+     * Neither pass holds more than one manifest entry in memory at a time, unless the manifest isn't sorted.
+     * @param sourceDirectory The scanned source DCDirectory
+     * @param result The ComparisonResult to fill in
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if hashing fails, the manifest can't be read, or we are interrupted
+     */
+    private void compareWithManifest(DCDirectory sourceDirectory, ComparisonResult result, BufferedWriter log)
+            throws Exception {
+        Path manifestPath = Paths.get(options.getTargetManifest());
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.read.manifest"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.read.manifest"));
+            log.newLine();
+        }
+        boolean sorted = isSortedManifest(manifestPath, log);
+        adoptManifestSettings(manifestPath, log);
+
+        List<DCFile> files = new ArrayList<>();
+        sourceDirectory.collectFiles(files);
+        String[] paths = sortByManifestPath(files);
+
+        // First pass: sort out the files that are missing from one side or the other, and the ones whose sizes don't
+        // match.  Everything else needs to be hashed.  Files only in the manifest get a stand-in DCFile, rooted at the
+        // manifest's path so the report can show their relative paths.
+        List<DCFile> toHash = new ArrayList<>();
+        walkManifest(manifestPath, sorted, files, paths, (file, entry) -> {
+            if (entry == null) {
+                result.getSourceMissingFiles().add(file);
+            } else if (file == null) {
+                result.getTargetMissingFiles().add(
+                        manifestFile(options.getTargetManifest(), entry)
+                );
+            } else if (entry.getSize() >= 0L && entry.getSize() != file.getSize()) {
+                file.resolve(false);
+            } else {
+                toHash.add(file);
+            }
+        });
+        reportTotals(toHash, result, log);
+
+        // Hash the files that are left, using the cache if we have one:
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.source"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.hash.source"));
+            log.newLine();
+        }
+        List<DCFile[]> links = removeHardLinks(toHash, null, log);
+        IHashCache cache = openHashCache(log);
+        try {
+            newPool(options.getSourceThreads(), hashListener, log, cache).hash(toHash);
+        } finally {
+            closeHashCache(cache, log);
+        }
+        shareDigests(links);
+
+        // Second pass: compare the digests of the files we hashed.  Then sort every file present on both sides into
+        // the matching or changed list.
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.generate.report"));
+        walkManifest(manifestPath, sorted, files, paths, (file, entry) -> {
+            if (file != null && entry != null && !file.isResolved()) {
+                file.resolve(file.getHash() != null && Arrays.equals(file.getHash(), entry.getDigest()));
+            }
+        });
+        for (DCFile file : files) {
+            if (!file.isResolved()) continue;
+            if (file.isHashMatch()) result.getMatchingFiles().add(file);
+            else result.getChangedFiles().add(file);
+        }
+        // The totals we reported earlier were what we had to read.  As with two directories, the total number of
+        // files counts every file on both sides: the whole source tree, plus every entry in the manifest.
+        result.setTotalFiles(2L * files.size() - result.getSourceMissingFiles().size() +
+                result.getTargetMissingFiles().size());
+        logResults(result, result.isMatch(), sourcePath, options.getTargetManifest(), log);
+    }
+
+    /**
+     * Switch to the hash algorithm and tree hashing settings a manifest was made with, since its digests can only be
+     * compared against digests made the same way.  Manifests without a header (e.g., from sha256sum) don't say which
+     * algorithm they used; for those, we keep the user's choice.  The settings are changed on our own copy of the
+     * options, never on the caller's.
+     * @param manifestPath The Path to the manifest file
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws IOException Thrown if the manifest can't be read
+     * @throws ComparisonException Thrown if the manifest's algorithm isn't available here
+     */
+    private void adoptManifestSettings(Path manifestPath, BufferedWriter log) throws IOException, ComparisonException {
+        try (IManifestReader reader = openManifest(manifestPath, true)) {
+            options = new ComparisonOptions(options);
+            if (reader.getAlgorithm() != null && !reader.getAlgorithm().equals(options.getHash())) {
+                if (!ComparisonOptions.HASHES.contains(reader.getAlgorithm())) {
+                    throw new ComparisonException(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.error.manifest.hash"),
+                                    reader.getAlgorithm()
+                            )
+                    );
+                }
+                options.setHash(reader.getAlgorithm());
+                if (log != null) {
+                    log.write(
+                            String.format(
+                                    Main.RESOURCES.getString("engine.log.manifest.hash"),
+                                    reader.getAlgorithm()
+                            )
+                    );
+                    log.newLine();
+                }
+            }
+            // Tree hashes are only comparable if they were made with the same settings, so take those as they are:
+            options.setTreeHashThreshold(reader.getTreeHashThreshold());
+            if (reader.getTreeHashThreshold() > 0L) options.setTreeRegionSize(reader.getTreeRegionSize());
+        }
+    }
+
+    /**
+     * Walk a sorted list of files side by side with the entries of a manifest, calling the visitor for every path
+     * found on either side
+     * @param manifestPath The Path to the manifest file
+     * @param sorted True if the manifest is known to be sorted
+     * @param files The List of DCFiles, sorted by manifest path
+     * @param paths The manifest paths of the files, in the same order
+     * @param visitor The ManifestVisitor to call for each path
+     * @throws IOException Thrown if the manifest can't be read
+     * @throws InterruptedException Thrown if we are interrupted
+     */
+    private static void walkManifest(Path manifestPath, boolean sorted, List<DCFile> files, String[] paths,
+                                     ManifestVisitor visitor) throws IOException, InterruptedException {
+        try (IManifestReader reader = openManifest(manifestPath, sorted)) {
+            int index = 0;
+            TextManifest.Entry entry = reader.next();
+            while (index < files.size() || entry != null) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                int order = index >= files.size() ? 1 : entry == null ? -1 : paths[index].compareTo(entry.getPath());
+                if (order < 0) {
+                    visitor.visit(files.get(index++), null);
+                } else if (order > 0) {
+                    visitor.visit(null, entry);
+                    entry = reader.next();
+                } else {
+                    visitor.visit(files.get(index++), entry);
+                    entry = reader.next();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare two manifests against each other, without reading a single file.  Both manifests are walked side by side
+     * in path order, so neither is ever loaded into memory (unless it's an unsorted text manifest).  Files are
+     * compared by size, if both manifests know it, and then by digest.
+     * @param result The ComparisonResult to fill in
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if either manifest can't be read, they were made with different hash algorithms, or we
+     * are interrupted
+     */
+    private void compareManifests(ComparisonResult result, BufferedWriter log) throws Exception {
+        Path sourceManifest = Paths.get(options.getSourceManifest());
+        Path targetManifest = Paths.get(options.getTargetManifest());
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.read.manifest"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.read.manifest"));
+            log.newLine();
+        }
+        boolean sourceSorted = isSortedManifest(sourceManifest, log);
+        boolean targetSorted = isSortedManifest(targetManifest, log);
+        try (IManifestReader source = openManifest(sourceManifest, sourceSorted);
+             IManifestReader target = openManifest(targetManifest, targetSorted)) {
+            // Digests made different ways can never match, so don't pretend to compare them:
+            if (source.getAlgorithm() != null && target.getAlgorithm() != null &&
+                    (!source.getAlgorithm().equals(target.getAlgorithm()) ||
+                            source.getTreeHashThreshold() != target.getTreeHashThreshold() ||
+                            source.getTreeRegionSize() != target.getTreeRegionSize())) {
+                throw new ComparisonException(Main.RESOURCES.getString("engine.error.manifest.mismatch"));
+            }
+            // Files only on one side get a stand-in DCFile rooted at their manifest's path, so the report can show
+            // their relative paths.
+            TextManifest.Entry sourceEntry = source.next();
+            TextManifest.Entry targetEntry = target.next();
+            while (sourceEntry != null || targetEntry != null) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                int order = sourceEntry == null ? 1 : targetEntry == null ? -1 :
+                        sourceEntry.getPath().compareTo(targetEntry.getPath());
+                if (order < 0) {
+                    result.getSourceMissingFiles().add(manifestFile(options.getSourceManifest(), sourceEntry));
+                    sourceEntry = source.next();
+                } else if (order > 0) {
+                    result.getTargetMissingFiles().add(manifestFile(options.getTargetManifest(), targetEntry));
+                    targetEntry = target.next();
+                } else {
+                    DCFile file = manifestFile(options.getSourceManifest(), sourceEntry);
+                    boolean sizesDiffer = sourceEntry.getSize() >= 0L && targetEntry.getSize() >= 0L &&
+                            sourceEntry.getSize() != targetEntry.getSize();
+                    file.resolve(!sizesDiffer && Arrays.equals(sourceEntry.getDigest(), targetEntry.getDigest()));
+                    if (file.isHashMatch()) result.getMatchingFiles().add(file);
+                    else result.getChangedFiles().add(file);
+                    sourceEntry = source.next();
+                    targetEntry = target.next();
+                }
+            }
+        }
+        // As with two directories, count every file on both sides:
+        result.setTotalFiles(2L * (result.getMatchingFiles().size() + result.getChangedFiles().size()) +
+                result.getSourceMissingFiles().size() + result.getTargetMissingFiles().size());
+        logResults(result, result.isMatch(), options.getSourceManifest(), options.getTargetManifest(), log);
+    }
+
+    /**
+     * Create a stand-in DCFile for a file we only know about from a manifest
+     * @param manifest The path to the manifest, which stands in for the root of the tree
+     * @param entry The manifest entry for the file
+     * @return A DCFile whose path is the entry's path under the manifest's path
+     */
+    private static DCFile manifestFile(String manifest, TextManifest.Entry entry) {
+        return new DCFile(manifest + File.separator + entry.getPath().replace('/', File.separatorChar));
+    }
+
+    /**
+     * Open a manifest of either format so its entries come out in path order
+     * @param manifestPath The Path to the manifest file
+     * @param sorted True if the manifest is known to be sorted.  Binary manifests always are.
+     * @return An IManifestReader for the manifest
+     * @throws IOException Thrown if the manifest can't be read
+     */
+    private static IManifestReader openManifest(Path manifestPath, boolean sorted) throws IOException {
+        if (BinaryManifest.isBinaryManifest(manifestPath)) return new BinaryManifest(manifestPath);
+        return TextManifest.Reader.open(manifestPath, sorted);
+    }
+
+    /**
+     * Check whether a manifest is sorted by path, noting in the log if it isn't.  Binary manifests always are, so
+     * they're not checked.
+     * @param manifestPath The Path to the manifest file
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @return True if the manifest is sorted
+     * @throws IOException Thrown if the manifest can't be read
+     */
+    private static boolean isSortedManifest(Path manifestPath, BufferedWriter log) throws IOException {
+        if (BinaryManifest.isBinaryManifest(manifestPath) || TextManifest.isSorted(manifestPath)) return true;
+        if (log != null) {
+            log.write(
+                    String.format(
+                            Main.RESOURCES.getString("engine.log.manifest.unsorted"),
+                            manifestPath
+                    )
+            );
+            log.newLine();
+        }
+        return false;
+    }
+
+    /**
+     * Sort a list of source files by their paths as they appear in a manifest
+     * @param files The List of DCFiles to sort in place
+     * @return The manifest paths of the files, in their new order
+     */
+    private String[] sortByManifestPath(List<DCFile> files) {
+        // Work out each path once up front, rather than on every comparison:
+        String[] paths = new String[files.size()];
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = TextManifest.manifestPath(files.get(i).relativePath(sourcePath));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> paths[a].compareTo(paths[b]));
+        List<DCFile> unsorted = new ArrayList<>(files);
+        String[] sortedPaths = new String[paths.length];
+        for (int i = 0; i < order.length; i++) {
+            files.set(i, unsorted.get(order[i]));
+            sortedPaths[i] = paths[order[i]];
+        }
+        return sortedPaths;
+    }
+
+    /**
+     * Report the number and total size of the files we're about to read, to both our status listener and the log
+     * @param files The List of DCFiles we're about to read
+     * @param result The ComparisonResult to record the totals in
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private void reportTotals(List<DCFile> files, ComparisonResult result, BufferedWriter log) throws IOException {
+        long totalBytes = totalSize(files);
+        result.setTotalFiles(files.size());
+        result.setTotalBytes(totalBytes);
+        statusListener.updateTotalFiles(files.size());
+        statusListener.updateTotalBytes(totalBytes);
+        if (log != null) {
+            log.write(
+                    String.format(
+                            Main.RESOURCES.getString("engine.log.files.discovered"),
+                            files.size()
+                    )
+            );
+            log.newLine();
+            log.write(
+                    String.format(
+                            Main.RESOURCES.getString("engine.log.bytes.discovered"),
+                            Utilities.prettyPrintFileSize(totalBytes)
+                    )
+            );
+            log.newLine();
+        }
+    }
+
+    /**
+     * Something to be done for each path found while walking a manifest alongside a list of files
+     */
+    private interface ManifestVisitor {
+        /**
+         * Visit a single path
+         * @param file The DCFile at this path, or null if the path is only in the manifest
+         * @param entry The manifest entry for this path, or null if the path is only in the file list
+         */
+        void visit(DCFile file, TextManifest.Entry entry);
+    }
+
+    /**
+     * Write the results of a comparison to the log file.  For CLI mode, this is our only useful output, while for GUI
+     * mode its an added bonus.  For the log file, we'll only be concerned with logging discrepancies; we don't need an
+     * exhaustive list of all files.  If the two folders match, a simple message stating that they match will suffice.
+     * @param result The ComparisonResult to log
+     * @param match True if everything matched, false if there were discrepancies
+     * @param sourceRoot The root path of the source tree, used to shorten the paths of source files
+     * @param targetRoot The root path of the target tree, used to shorten the paths of files missing from the source
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private void logResults(ComparisonResult result, boolean match, String sourceRoot, String targetRoot,
+                            BufferedWriter log)
+            throws IOException {
+        if (log != null) {
+            if (match) {
+                log.write(
+                        Main.RESOURCES.getString("engine.log.all.match")
+                );
+                log.newLine();
+            } else {
+
+                // If there are discrepancies, start by printing a header:
+                log.write(
+                        Main.RESOURCES.getString("engine.log.discrepancies.found")
+                );
+                log.newLine();
+
+                // Log the results.  Start with the files in the source path but missing from the target:
+                if (!result.getSourceMissingFiles().isEmpty()) {
+                    log.write(
+                            Main.RESOURCES.getString("engine.log.discrepancies.source.missing")
+                    );
+                    log.newLine();;
+                    for (DCFile file : result.getSourceMissingFiles()) {
+                        log.write("\t" + file.relativePath(sourceRoot));
+                        log.newLine();
+                    }
+                }
+
+                // Next, log the files in the target path but missing from the source:
+                if (!result.getTargetMissingFiles().isEmpty()) {
+                    log.write(
+                            Main.RESOURCES.getString("engine.log.discrepancies.target.missing")
+                    );
+                    log.newLine();;
+                    for (DCFile file : result.getTargetMissingFiles()) {
+                        log.write("\t" + file.relativePath(targetRoot));
+                        log.newLine();
+                    }
+                }
+
+                // Finally, log the changed files:
+                if (!result.getChangedFiles().isEmpty()) {
+                    log.write(
+                            Main.RESOURCES.getString("engine.log.discrepancies.changed")
+                    );
+                    log.newLine();;
+                    for (DCFile file : result.getChangedFiles()) {
+                        log.write("\t" + file.relativePath(sourceRoot));
+                        // If we compared the files directly, we know exactly where they start to differ:
+                        if (file.getFirstDifference() >= 0L) {
+                            log.write(
+                                    String.format(
+                                            Main.RESOURCES.getString("engine.log.first.difference"),
+                                            file.getFirstDifference()
+                                    )
+                            );
+                        }
+                        // If we hashed the files as trees, we know which regions differ:
+                        if (file.getDifferingRegions() != null) {
+                            log.write(
+                                    String.format(
+                                            Main.RESOURCES.getString("engine.log.differing.regions"),
+                                            file.getDifferingRegions().length,
+                                            file.getRegionDigests().length,
+                                            describeRegions(file)
+                                    )
+                            );
+                        }
+                        log.newLine();
+                    }
+                }
+
+            }
+
+        }
+    }
+
+    /**
+     * Add up the sizes of all the files in a list
+     * @param files A List of DCFiles
+     * @return The total size of the files in bytes
+     */
+    private static long totalSize(List<DCFile> files) {
+        long total = 0L;
+        for (DCFile file : files) total += file.getSize();
+        return total;
+    }
+
+    /**
+     * Add up the sizes of the files in two lists, counting each physical file only once, the same way removeHardLinks()
+     * decides which files to hash
+     * @param sourceFiles A List of DCFiles from the source tree
+     * @param targetFiles A List of DCFiles from the target tree
+     * @return The total size in bytes of the distinct physical files
+     */
+    private static long uniqueSize(List<DCFile> sourceFiles, List<DCFile> targetFiles) {
+        Set<Object> seen = new HashSet<>();
+        long total = 0L;
+        for (List<DCFile> files : Arrays.asList(sourceFiles, targetFiles)) {
+            for (DCFile file : files) {
+                if (file.getFileKey() == null || seen.add(file.getFileKey())) total += file.getSize();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Build a short description of the byte ranges of the regions that differ in a file hashed as a tree.  Only the
+     * first few are listed, so a file that differs everywhere doesn't flood the log.
+     * @param file The DCFile whose differing regions to describe
+     * @return A String listing the byte ranges of the differing regions
+     */
+    private static String describeRegions(DCFile file) {
+        final int maxListed = 10;
+        StringBuilder sb = new StringBuilder();
+        int[] regions = file.getDifferingRegions();
+        for (int i = 0; i < regions.length && i < maxListed; i++) {
+            long start = regions[i] * file.getRegionSize();
+            long end = Math.min(start + file.getRegionSize(), file.getSize()) - 1L;
+            if (i > 0) sb.append(", ");
+            sb.append(start).append('-').append(end);
+        }
+        if (regions.length > maxListed) sb.append(", ...");
+        return sb.toString();
+    }
+
+    /**
+     * Take a quick fingerprint of the first and last blocks of each pair of files, mark the pairs whose fingerprints
+     * differ as changed, and remove them from the lists so they won't be hashed.  Small files are left alone, since
+     * fingerprinting them would cost about as much as hashing them outright.
+     * @param sourceFiles A List of DCFiles from the source tree, paired by position with the target list
+     * @param targetFiles A List of DCFiles from the target tree, paired by position with the source list
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if fingerprinting fails or if we are interrupted
+     */
+    private void quickCheck(List<DCFile> sourceFiles, List<DCFile> targetFiles, BufferedWriter log) throws Exception {
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.quick.check"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.quick.check"));
+            log.newLine();
+        }
+        // Pick out the pairs big enough to be worth fingerprinting:
+        List<DCFile> sourceCandidates = new ArrayList<>();
+        List<DCFile> targetCandidates = new ArrayList<>();
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            if (sourceFiles.get(i).getSize() > 2L * DCFile.QUICK_CHECK_BLOCK_SIZE) {
+                sourceCandidates.add(sourceFiles.get(i));
+                targetCandidates.add(targetFiles.get(i));
+            }
+        }
+        newPool(options.getSourceThreads(), hashListener, log, null).fingerprint(sourceCandidates);
+        newPool(options.getTargetThreads(), hashListener, log, null).fingerprint(targetCandidates);
+        // Now rebuild the lists, leaving out any pairs we now know are different.  If either fingerprint couldn't be
+        // taken, keep the pair and let the full hash sort it out.
+        List<DCFile> remainingSource = new ArrayList<>(sourceFiles.size());
+        List<DCFile> remainingTarget = new ArrayList<>(targetFiles.size());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            DCFile sourceFile = sourceFiles.get(i);
+            DCFile targetFile = targetFiles.get(i);
+            if (sourceFile.getFingerprint() != -1L && targetFile.getFingerprint() != -1L &&
+                    sourceFile.getFingerprint() != targetFile.getFingerprint()) {
+                sourceFile.resolve(false);
+                targetFile.resolve(false);
+            } else {
+                remainingSource.add(sourceFile);
+                remainingTarget.add(targetFile);
+            }
+        }
+        sourceFiles.clear();
+        sourceFiles.addAll(remainingSource);
+        targetFiles.clear();
+        targetFiles.addAll(remainingTarget);
+    }
+
+    /**
+     * Compare byte-for-byte every pair of files whose hashes match.  Pairs that really are identical are confirmed as
+     * matches, while any that differ (i.e., hash collisions) will be marked as changed.
+     * @param sourceFiles A List of hashed DCFiles from the source tree, paired by position with the target list
+     * @param targetFiles A List of hashed DCFiles from the target tree, paired by position with the source list
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if the comparison fails or if we are interrupted
+     */
+    private void verifyMatches(List<DCFile> sourceFiles, List<DCFile> targetFiles, BufferedWriter log)
+            throws Exception {
+        List<DCFile> sourceMatches = new ArrayList<>();
+        List<DCFile> targetMatches = new ArrayList<>();
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            byte[] hash = sourceFiles.get(i).getHash();
+            if (hash != null && Arrays.equals(hash, targetFiles.get(i).getHash())) {
+                sourceMatches.add(sourceFiles.get(i));
+                targetMatches.add(targetFiles.get(i));
+            }
+        }
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.verify.matches"));
+        if (log != null) {
+            log.write(Main.RESOURCES.getString("engine.status.verify.matches"));
+            log.newLine();
+        }
+        // The hash progress carries on from where hashing left off, so grow the total to cover the extra reading.  Hard
+        // links were only hashed once, so only count them once here, too.
+        statusListener.updateTotalBytes(
+                uniqueSize(sourceFiles, targetFiles) + totalSize(sourceMatches) + totalSize(targetMatches)
+        );
+        newPool(options.getThreads(), hashListener, log, null)
+                .compareContents(sourceMatches, targetMatches);
+    }
+
+    /**
+     * Hash the source and target file lists.  If the source and target live on different devices, there's no reason
+     * for one device to sit idle while we hash the other, so each device gets its own lane of workers and both lists
+     * are hashed at once.  Otherwise, we hash the source, then the target, just as we always have.
+     * @param sourceFiles A List of DCFiles from the source tree to hash
+     * @param targetFiles A List of DCFiles from the target tree to hash
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if hashing fails or if we are interrupted
+     */
+    private void hashFiles(List<DCFile> sourceFiles, List<DCFile> targetFiles, BufferedWriter log) throws Exception {
+        // Hard links are taken out of copies of the lists, since the callers may rely on them lining up pair by pair:
+        List<DCFile> sourceToHash = new ArrayList<>(sourceFiles);
+        List<DCFile> targetToHash = new ArrayList<>(targetFiles);
+        List<DCFile[]> links = removeHardLinks(sourceToHash, targetToHash, log);
+        IHashCache cache = openHashCache(log);
+        try {
+            if (!options.isAssumeSameDevice() && !sameDevice(log)) {
+                statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.both"));
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.status.hash.both"));
+                    log.newLine();
+                }
+                hashInLanes(sourceToHash, targetToHash, cache, log);
+            } else {
+                // Set up our pools of hashing workers.  With the default of one thread, this will hash each file in
+                // turn right here on the engine's thread; otherwise, the files will be spread across as many threads as
+                // the user asked for.  Starting with the source tree, start hashing files:
+                statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.source"));
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.status.hash.source"));
+                    log.newLine();
+                }
+                newPool(options.getSourceThreads(), hashListener, log, cache).hash(sourceToHash);
+
+                // Do the same for the target tree:
+                statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.hash.target"));
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.status.hash.target"));
+                    log.newLine();
+                }
+                newPool(options.getTargetThreads(), hashListener, log, cache).hash(targetToHash);
+            }
+        } finally {
+            // Save whatever we've learned, even if we were cancelled part way through:
+            closeHashCache(cache, log);
+        }
+        shareDigests(links);
+    }
+
+    /**
+     * Take every extra path to an already listed physical file (hard links, in other words) out of the lists of files
+     * to hash, so each file is only read once no matter how many paths lead to it.  Files are matched up by the file
+     * keys (device and inode, on Unix-like systems) gathered while scanning.  The progress total is brought down to the
+     * bytes we'll really read.
+     * @param sourceFiles The List of source DCFiles to hash.  Links are removed from it.
+     * @param targetFiles The List of target DCFiles to hash.  Links are removed from it.  May be null if we're only
+     *                    hashing one tree.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @return A List of pairs of DCFiles: each link removed, followed by the file that will actually be hashed
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private List<DCFile[]> removeHardLinks(List<DCFile> sourceFiles, List<DCFile> targetFiles, BufferedWriter log)
+            throws IOException {
+        Map<Object, DCFile> primaries = new HashMap<>();
+        List<DCFile[]> links = new ArrayList<>();
+        long total = 0L;
+        for (List<DCFile> files : Arrays.asList(sourceFiles, targetFiles)) {
+            if (files == null) continue;
+            Iterator<DCFile> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                DCFile file = iterator.next();
+                DCFile primary = file.getFileKey() == null ? null : primaries.putIfAbsent(file.getFileKey(), file);
+                if (primary != null) {
+                    links.add(new DCFile[] { file, primary });
+                    iterator.remove();
+                } else {
+                    total += file.getSize();
+                }
+            }
+        }
+        if (!links.isEmpty()) {
+            statusListener.updateTotalBytes(total);
+            if (log != null) {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.hard.links"),
+                                links.size(),
+                                Utilities.prettyPrintFileSize(total)
+                        )
+                );
+                log.newLine();
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Give each hard link removed by removeHardLinks() the digest of the file that was hashed in its place
+     * @param links The List of pairs returned by removeHardLinks()
+     */
+    private static void shareDigests(List<DCFile[]> links) {
+        for (DCFile[] link : links) link[0].shareDigest(link[1]);
+    }
+
+    /**
+     * Open the hash cache, if the user asked for one.  This may be the central cache file, the extended attribute
+     * cache, or both chained together (attributes first).  A cache file that can't be opened isn't fatal; we'll just
+     * log the problem and carry on without it.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @return The IHashCache to use, or null if we're not using one
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private IHashCache openHashCache(BufferedWriter log) throws IOException {
+        IHashCache journal = openJournal(log);
+        IHashCache cache = openPersistentCache(log);
+        if (journal == null) return cache;
+        return cache == null ? journal : new HashCacheChain(journal, cache);
+    }
+
+    /**
+     * Open the journal beside the log file, so this comparison can be resumed if it's interrupted.  If we've been asked
+     * to resume, this picks up the digests the interrupted comparison had already computed.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written, in which case there's
+     *            nowhere to keep a journal either.
+     * @return The HashJournal, or null if we're not logging or the journal couldn't be opened
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private HashJournal openJournal(BufferedWriter log) throws IOException {
+        if (log == null) return null;
+        try {
+            HashJournal journal = new HashJournal(
+                    HashJournal.journalPath(options.getLogFilePath()),
+                    journalSource(sourcePath, options),
+                    journalTarget(targetPath, options),
+                    options.isResume()
+            );
+            if (options.isResume()) {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.journal.resumed"),
+                                journal.getRecoveredCount()
+                        )
+                );
+                log.newLine();
+            }
+            return journal;
+        } catch (Exception ex) {
+            log.write(Main.RESOURCES.getString("engine.log.journal.error"));
+            log.newLine();
+            log.write(ex.toString());
+            log.newLine();
+            return null;
+        }
+    }
+
+    /**
+     * Get the name the source goes by in the journal: the source manifest if we're comparing manifests, otherwise the
+     * source directory
+     * @param sourcePath The source directory's path
+     * @param options The ComparisonOptions for the comparison
+     * @return The source's name for the journal
+     */
+    public static String journalSource(String sourcePath, ComparisonOptions options) {
+        return options.getSourceManifest() != null ? options.getSourceManifest() : String.valueOf(sourcePath);
+    }
+
+    /**
+     * Get the name the target goes by in the journal: the manifest we're comparing against or writing, if any,
+     * otherwise the target directory
+     * @param targetPath The target directory's path
+     * @param options The ComparisonOptions for the comparison
+     * @return The target's name for the journal
+     */
+    public static String journalTarget(String targetPath, ComparisonOptions options) {
+        if (options.getTargetManifest() != null) return options.getTargetManifest();
+        if (options.getWriteManifest() != null) return options.getWriteManifest();
+        return String.valueOf(targetPath);
+    }
+
+    /**
+     * Open the persistent hash caches the user asked for, if any
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @return The IHashCache to use, or null if we're not using one
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private IHashCache openPersistentCache(BufferedWriter log) throws IOException {
+        IHashCache fileCache = null;
+        if (options.getHashCacheFile() != null) {
+            try {
+                fileCache = new HashCache(Paths.get(options.getHashCacheFile()), options.getHashCacheMaxSize());
+            } catch (Exception ex) {
+                if (log != null) {
+                    log.write(Main.RESOURCES.getString("engine.log.hash.cache.error"));
+                    log.newLine();
+                    log.write(ex.toString());
+                    log.newLine();
+                }
+            }
+        }
+        if (!options.isXattrCache()) return fileCache;
+        IHashCache xattrCache = new XattrHashCache(options.isXattrCacheReadOnly());
+        return fileCache == null ? xattrCache : new HashCacheChain(xattrCache, fileCache);
+    }
+
+    /**
+     * Delete the journal once the comparison has finished, since there's nothing left to resume.  If the comparison
+     * fails or is interrupted, we never get here, and the journal stays put for next time.
+     * @throws IOException Thrown if the journal can't be deleted
+     */
+    private void finishJournal() throws IOException {
+        if (options.getLogFilePath() != null && !options.getLogFilePath().isEmpty()) {
+            HashJournal.delete(HashJournal.journalPath(options.getLogFilePath()));
+        }
+    }
+
+    /**
+     * Save and close the hash cache, logging how much use we got out of it
+     * @param cache The IHashCache to close.  May be null if we're not using one.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private void closeHashCache(IHashCache cache, BufferedWriter log) throws IOException {
+        if (cache == null) return;
+        try {
+            cache.close();
+        } catch (Exception ex) {
+            if (log != null) {
+                log.write(Main.RESOURCES.getString("engine.log.hash.cache.error"));
+                log.newLine();
+                log.write(ex.toString());
+                log.newLine();
+            }
+        }
+        if (log != null) {
+            log.write(
+                    String.format(
+                            Main.RESOURCES.getString("engine.log.hash.cache.stats"),
+                            cache.getHits(),
+                            cache.getMisses()
+                    )
+            );
+            log.newLine();
+            // If we used more than one cache, show how each one did:
+            if (cache instanceof HashCacheChain) logHashCacheStats(cache, log);
+        }
+    }
+
+    /**
+     * Log the hits and misses of each cache in a chain separately
+     * @param cache The IHashCache to log, which may be a HashCacheChain
+     * @param log A BufferedWriter for our log file
+     * @throws IOException Thrown if writing to the log fails
+     */
+    private static void logHashCacheStats(IHashCache cache, BufferedWriter log) throws IOException {
+        if (cache instanceof HashCacheChain) {
+            logHashCacheStats(((HashCacheChain) cache).getFirst(), log);
+            logHashCacheStats(((HashCacheChain) cache).getSecond(), log);
+            return;
+        }
+        log.write(
+                String.format(
+                        Main.RESOURCES.getString("engine.log.hash.cache.stats.each"),
+                        cache.getName(),
+                        cache.getHits(),
+                        cache.getMisses()
+                )
+        );
+        log.newLine();
+    }
+
+    /**
+     * Determine whether the source and target directories live on the same device, i.e., whether they are backed by
+     * the same FileStore.  If we can't tell for any reason, we'll play it safe and assume they do.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @return True if both paths are on the same device (or we couldn't tell), false otherwise
+     */
+    private boolean sameDevice(BufferedWriter log) {
+        try {
+            FileStore sourceStore = Files.getFileStore(Paths.get(sourcePath));
+            FileStore targetStore = Files.getFileStore(Paths.get(targetPath));
+            if (log != null && options.isDebugMode()) {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.debug.devices"),
+                                sourceStore,
+                                targetStore
+                        )
+                );
+                log.newLine();
+            }
+            return sourceStore.equals(targetStore);
+        } catch (Exception ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Create a worker pool that shares our throttle
+     * @param threads The number of threads to hash with
+     * @param listener The IHashProgressListener to report progress to
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @param cache The IHashCache to consult before hashing.  May be null if we're not using one.
+     * @return A new HashWorkerPool
+     */
+    private HashWorkerPool newPool(int threads, IHashProgressListener listener, BufferedWriter log, IHashCache cache) {
+        return new HashWorkerPool(options, threads, listener, log, cache, throttle);
+    }
+
+    /**
+     * Hash the source and target file lists at the same time, each in its own lane with its own pool of workers.  The
+     * target lane runs on the engine's own thread while the source lane gets a helper thread, so cancelling the engine
+     * still stops both.
+     * @param sourceFiles A List of DCFiles from the source tree to hash
+     * @param targetFiles A List of DCFiles from the target tree to hash
+     * @param cache The IHashCache to consult before hashing.  May be null if we're not using one.
+     * @param log A BufferedWriter for our log file.  May be null if no log is to be written.
+     * @throws Exception Thrown if either lane fails or if we are interrupted
+     */
+    private void hashInLanes(List<DCFile> sourceFiles, List<DCFile> targetFiles, IHashCache cache, BufferedWriter log)
+            throws Exception {
+        // Both lanes report to the same listener, so it needs to be protected no matter how many threads each lane has:
+        IHashProgressListener listener = new SynchronizedHashProgressListener(hashListener);
+        HashWorkerPool sourcePool = newPool(options.getSourceThreads(), listener, log, cache);
+        HashWorkerPool targetPool = newPool(options.getTargetThreads(), listener, log, cache);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> sourceLane = executor.submit(() -> {
+                sourcePool.hash(sourceFiles);
+                return null;
+            });
+            targetPool.hash(targetFiles);
+            try {
+                sourceLane.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) throw (Exception) ex.getCause();
+                throw ex;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
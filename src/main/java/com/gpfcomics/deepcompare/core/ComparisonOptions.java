@@ -9,10 +9,7 @@ package com.gpfcomics.deepcompare.core;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -37,23 +34,17 @@ public class ComparisonOptions {
     public static final String HASH_SHA3_256 = "SHA3-256";
     public static final String HASH_SHA3_384 = "SHA3-384";
     public static final String HASH_SHA3_512 = "SHA3-512";
+    // These are fast, non-cryptographic checksums.  They're great for catching accidental corruption, but they won't
+    // stop a determined attacker.  xxHash64 is our own pure Java code, so it's always there, while CRC-32C needs Java
+    // 9.
+    public static final String HASH_CRC32C = CRC32CHasher.ALGORITHM;
+    public static final String HASH_XXH64 = XXHash64Hasher.ALGORITHM;
 
     /**
-     * The list of available hashes.  These will be determined by checking the Java runtime during start-up.
+     * The list of available hashes.  These are gathered from the built-in hash providers and any plug-in providers
+     * found on the class path during start-up.
      */
-    public static final List<String> HASHES = new ArrayList<>();
-    static {
-        // Identify the actually available hashes and stuff those into a list.  We'll loop through all the algorithm
-        // names set above and check to see what's available.  If it is (i.e., trying to instantiate it doesn't throw a
-        // NoSuchAlgorithmException), add it to the list.
-        for (String hash : Arrays.asList( HASH_MD5, HASH_SHA1, HASH_SHA256, HASH_SHA384, HASH_SHA512,
-                HASH_SHA512_224, HASH_SHA512_256, HASH_SHA3_224, HASH_SHA3_256, HASH_SHA3_384, HASH_SHA3_512)) {
-            try {
-                MessageDigest.getInstance(hash);
-                HASHES.add(hash);
-            } catch (NoSuchAlgorithmException ignored) { }
-        }
-    }
+    public static final List<String> HASHES = HashProviders.getAlgorithms();
 
     /**
      * The exclusion list.  Defaults to empty.
@@ -98,8 +89,287 @@ public class ComparisonOptions {
     @Setter
     private boolean debugMode = false;
 
+    /**
+     * The number of threads to use when hashing files.  Defaults to one, which hashes files one at a time just like
+     * the original single-threaded engine.
+     */
+    private int threads = 1;
+
+    /**
+     * The number of threads to use when hashing the source tree.  Defaults to zero, which means "use the general
+     * thread count".  This only makes a difference when the source and target live on different devices and are
+     * hashed at the same time, each in its own lane.
+     */
+    private int sourceThreads = 0;
+
+    /**
+     * The number of threads to use when hashing the target tree.  Defaults to zero, which means "use the general
+     * thread count".
+     */
+    private int targetThreads = 0;
+
+    /**
+     * Whether to treat the source and target as living on the same device, even if they appear to be on different
+     * file stores.  Defaults to false, meaning trees on different devices will be hashed at the same time.  This is
+     * useful if the two paths are different partitions on the same physical disk, which would only thrash if read at
+     * the same time.
+     */
+    @Getter
+    @Setter
+    private boolean assumeSameDevice = false;
+
+    /**
+     * Files at least this many bytes in size will be memory-mapped for hashing rather than read through a stream.
+     * Defaults to 64 MiB.  Setting this to zero turns memory-mapping off entirely.
+     */
+    @Getter
+    private long mappedThreshold = 64L * 1024L * 1024L;
+
+    /**
+     * Files at least this many bytes in size will be hashed as a tree: split into regions, with each region hashed
+     * separately (and concurrently, if we have more than one thread) and the file's hash computed from the region
+     * digests.  Defaults to zero, which turns tree hashing off.  Note that a tree hash is not the same as the plain
+     * hash of the file, so it's only meaningful when compared with another tree hash made with the same region size.
+     */
+    @Getter
+    private long treeHashThreshold = 0L;
+
+    /**
+     * The size of each region when hashing a file as a tree.  Defaults to 64 MiB.
+     */
+    @Getter
+    private long treeRegionSize = 64L * 1024L * 1024L;
+
+    /**
+     * The size of the buffers used to read files for hashing, in bytes.  Defaults to 256 KiB, which suits most local
+     * disks.  Network file systems and RAID arrays with large stripes may do better with a megabyte or more.
+     */
+    @Getter
+    private int bufferSize = 256 * 1024;
+
+    /**
+     * Whether to pair up the files in both trees before hashing and only hash pairs whose outcome can't be decided
+     * from the scan alone.  Files that only exist on one side and pairs with different sizes are never read.  Defaults
+     * to false, i.e., every file in both trees is hashed.
+     */
+    @Getter
+    @Setter
+    private boolean lazyHashing = false;
+
+    /**
+     * Whether to compare paired files directly, byte-for-byte, instead of hashing them.  Each pair is read in lockstep
+     * and the comparison stops at the first difference.  This implies pairing the files up first, just as in lazy
+     * hashing mode.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean byteCompare = false;
+
+    /**
+     * Whether to take a quick fingerprint of the first and last blocks of each pair of files before hashing them in
+     * full.  Pairs whose fingerprints differ are marked as changed right away; only pairs whose fingerprints agree go
+     * on to be fully hashed.  This implies pairing the files up first, just as in lazy hashing mode.  Defaults to
+     * false.
+     */
+    @Getter
+    @Setter
+    private boolean quickCheck = false;
+
+    /**
+     * The path to a manifest to write.  If this is set, only the source tree is hashed, and instead of comparing it
+     * against a target, we write each file's relative path, size and digest to the manifest.  Defaults to null,
+     * meaning no manifest is written.
+     */
+    @Getter
+    @Setter
+    private String writeManifest = null;
+
+    /**
+     * Whether to resume an interrupted comparison from the journal in the log directory, reusing the digests it had
+     * already computed.  Defaults to false, meaning any old journal is replaced.
+     */
+    @Getter
+    @Setter
+    private boolean resume = false;
+
+    /**
+     * Whether to write the manifest in our compact binary format rather than as text.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean binaryManifest = false;
+
+    /**
+     * The path to a manifest to use in place of the source tree.  This only makes sense along with a target manifest,
+     * in which case two manifests are compared without reading any files at all.  Defaults to null, meaning we scan a
+     * source directory.
+     */
+    @Getter
+    @Setter
+    private String sourceManifest = null;
+
+    /**
+     * The path to a manifest (text or binary) to compare the source tree against.  If this is set, it takes the place
+     * of the target tree, so only the source tree is read.  Defaults to null, meaning we compare against a target
+     * directory.
+     */
+    @Getter
+    @Setter
+    private String targetManifest = null;
+
+    /**
+     * Whether to hash files with direct I/O, bypassing the operating system's page cache, so a big comparison doesn't
+     * push everything else out of it.  This needs Java 10 or later and a file system that supports it; anywhere else,
+     * files are read through the cache as usual.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean directIo = false;
+
+    /**
+     * Whether to let the worker pools work out how many threads to use, by measuring throughput as they go, instead of
+     * using a fixed number.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean adaptiveThreads = false;
+
+    /**
+     * The number of buffers each hashing thread's reader fills ahead of the hasher, so reading and hashing overlap.
+     * Defaults to zero, meaning each thread reads and hashes in turn.
+     */
+    @Getter
+    private int readAheadBuffers = 0;
+
+    /**
+     * The number of reads to keep in flight at once when hashing with asynchronous I/O.  Defaults to zero, meaning
+     * files are hashed with ordinary blocking reads by the worker threads.
+     */
+    @Getter
+    private int asyncQueueDepth = 0;
+
+    /**
+     * The most files to have open at once when hashing with asynchronous I/O.  The queue depth is shared among them.
+     * Defaults to 16.
+     */
+    @Getter
+    private int asyncOpenFiles = 16;
+
+    /**
+     * The most threads each worker pool may use when adaptive threading is on.  This takes the place of the general
+     * thread count, while the source and target thread counts, if given, set the limit for their own side instead.
+     * Defaults to 32, which is enough to keep a network share busy.
+     */
+    @Getter
+    private int adaptiveThreadLimit = 32;
+
+    /**
+     * The order in which files are handed out to the hashing threads.  Defaults to depth-first, the order in which the
+     * files were found.
+     */
+    @Getter
+    private HashSchedule hashSchedule = HashSchedule.DEPTH_FIRST;
+
+    /**
+     * The most bytes per second to read from the disks, across all threads.  Defaults to zero, meaning no limit.  This
+     * only sets the starting rate; it can be changed while the comparison runs through the engine's throttle.
+     */
+    @Getter
+    private long bytesPerSecond = 0L;
+
+    /**
+     * The most files per second to open for reading, across all threads.  Defaults to zero, meaning no limit.
+     */
+    @Getter
+    private long filesPerSecond = 0L;
+
+    /**
+     * The path to a persistent hash cache file.  Files whose path, size, modification time and file key haven't
+     * changed since they were last hashed with the same algorithm will use the cached digest instead of being read
+     * again.  Defaults to null, meaning no cache is used.
+     */
+    @Getter
+    @Setter
+    private String hashCacheFile = null;
+
+    /**
+     * Whether to keep each file's digest in an extended attribute on the file itself.  Files whose attribute still
+     * matches their size, modification time and the hash algorithm won't be read again.  If a central hash cache file
+     * is also in use, the attributes are checked first.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean xattrCache = false;
+
+    /**
+     * Whether to only read the extended attribute cache and never write to it, leaving the files completely untouched.
+     * Only meaningful if the extended attribute cache is turned on.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean xattrCacheReadOnly = false;
+
+    /**
+     * The largest the hash cache file may grow, in bytes.  When a run would push it past this size, the entries that
+     * have gone unused the longest are dropped.  Defaults to 256 MiB, which holds roughly 2.8 million entries.
+     */
+    @Getter
+    private long hashCacheMaxSize = 256L * 1024L * 1024L;
+
+    /**
+     * Whether to double-check pairs of files whose hashes match by comparing them byte-for-byte.  This is mostly useful
+     * with the fast non-cryptographic checksums, where an accidental collision is unlikely but not unthinkable.  Pairs
+     * that turn out to differ are reported as changed.  This implies pairing the files up first.  Defaults to false.
+     */
+    @Getter
+    @Setter
+    private boolean verifyMatches = false;
+
     public ComparisonOptions() { }
 
+    /**
+     * Copy constructor
+     * @param other The ComparisonOptions to copy
+     */
+    public ComparisonOptions(ComparisonOptions other) {
+        exclusions.addAll(other.exclusions);
+        exclusionsRegex = other.exclusionsRegex;
+        hash = other.hash;
+        checkHiddenFiles = other.checkHiddenFiles;
+        logFilePath = other.logFilePath;
+        debugMode = other.debugMode;
+        threads = other.threads;
+        sourceThreads = other.sourceThreads;
+        targetThreads = other.targetThreads;
+        assumeSameDevice = other.assumeSameDevice;
+        mappedThreshold = other.mappedThreshold;
+        treeHashThreshold = other.treeHashThreshold;
+        treeRegionSize = other.treeRegionSize;
+        bufferSize = other.bufferSize;
+        lazyHashing = other.lazyHashing;
+        byteCompare = other.byteCompare;
+        quickCheck = other.quickCheck;
+        writeManifest = other.writeManifest;
+        resume = other.resume;
+        binaryManifest = other.binaryManifest;
+        sourceManifest = other.sourceManifest;
+        targetManifest = other.targetManifest;
+        directIo = other.directIo;
+        adaptiveThreads = other.adaptiveThreads;
+        readAheadBuffers = other.readAheadBuffers;
+        asyncQueueDepth = other.asyncQueueDepth;
+        asyncOpenFiles = other.asyncOpenFiles;
+        adaptiveThreadLimit = other.adaptiveThreadLimit;
+        hashSchedule = other.hashSchedule;
+        bytesPerSecond = other.bytesPerSecond;
+        filesPerSecond = other.filesPerSecond;
+        hashCacheFile = other.hashCacheFile;
+        xattrCache = other.xattrCache;
+        xattrCacheReadOnly = other.xattrCacheReadOnly;
+        hashCacheMaxSize = other.hashCacheMaxSize;
+        verifyMatches = other.verifyMatches;
+    }
+
     /**
      * Set the hash algorithm to use for comparisons
      * @param hash A String representing the cryptographic hash to use
@@ -112,6 +382,213 @@ public class ComparisonOptions {
         this.hash = hash;
     }
 
+    /**
+     * Get the number of threads to use when hashing files.  With adaptive threading, this is the adaptive thread limit,
+     * the most threads a worker pool may use.
+     * @return An int representing the number of hashing threads
+     */
+    public int getThreads() {
+        return adaptiveThreads ? adaptiveThreadLimit : threads;
+    }
+
+    /**
+     * Set the number of threads to use when hashing files
+     * @param threads An int representing the number of hashing threads
+     * @throws IllegalArgumentException Thrown if the thread count is less than one
+     */
+    public void setThreads(int threads) throws IllegalArgumentException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least one");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Get the number of threads to use when hashing the source tree
+     * @return An int representing the number of source hashing threads
+     */
+    public int getSourceThreads() {
+        return sourceThreads > 0 ? sourceThreads : getThreads();
+    }
+
+    /**
+     * Set the number of threads to use when hashing the source tree
+     * @param sourceThreads An int representing the number of source hashing threads, or zero to use the general
+     *                      thread count
+     * @throws IllegalArgumentException Thrown if the thread count is negative
+     */
+    public void setSourceThreads(int sourceThreads) throws IllegalArgumentException {
+        if (sourceThreads < 0) {
+            throw new IllegalArgumentException("Thread count cannot be negative");
+        }
+        this.sourceThreads = sourceThreads;
+    }
+
+    /**
+     * Get the number of threads to use when hashing the target tree
+     * @return An int representing the number of target hashing threads
+     */
+    public int getTargetThreads() {
+        return targetThreads > 0 ? targetThreads : getThreads();
+    }
+
+    /**
+     * Set the number of threads to use when hashing the target tree
+     * @param targetThreads An int representing the number of target hashing threads, or zero to use the general
+     *                      thread count
+     * @throws IllegalArgumentException Thrown if the thread count is negative
+     */
+    public void setTargetThreads(int targetThreads) throws IllegalArgumentException {
+        if (targetThreads < 0) {
+            throw new IllegalArgumentException("Thread count cannot be negative");
+        }
+        this.targetThreads = targetThreads;
+    }
+
+    /**
+     * Set the minimum file size for memory-mapped hashing
+     * @param mappedThreshold A long representing the minimum file size in bytes, or zero to turn off memory-mapping
+     * @throws IllegalArgumentException Thrown if the threshold is negative
+     */
+    public void setMappedThreshold(long mappedThreshold) throws IllegalArgumentException {
+        if (mappedThreshold < 0L) {
+            throw new IllegalArgumentException("Memory-mapping threshold cannot be negative");
+        }
+        this.mappedThreshold = mappedThreshold;
+    }
+
+    /**
+     * Set the minimum size of files to hash as a tree of regions
+     * @param treeHashThreshold A long representing the minimum file size in bytes, or zero to turn off tree hashing
+     * @throws IllegalArgumentException Thrown if the threshold is negative
+     */
+    public void setTreeHashThreshold(long treeHashThreshold) throws IllegalArgumentException {
+        if (treeHashThreshold < 0L) {
+            throw new IllegalArgumentException("Tree hashing threshold cannot be negative");
+        }
+        this.treeHashThreshold = treeHashThreshold;
+    }
+
+    /**
+     * Set the size of each region when hashing a file as a tree
+     * @param treeRegionSize A long representing the region size in bytes
+     * @throws IllegalArgumentException Thrown if the region size is less than 1 MiB
+     */
+    public void setTreeRegionSize(long treeRegionSize) throws IllegalArgumentException {
+        if (treeRegionSize < 1024L * 1024L) {
+            throw new IllegalArgumentException("Tree hashing region size must be at least 1 MiB");
+        }
+        this.treeRegionSize = treeRegionSize;
+    }
+
+    /**
+     * Set the largest size the hash cache file may grow to
+     * @param hashCacheMaxSize A long representing the maximum size in bytes
+     * @throws IllegalArgumentException Thrown if the size is less than 1 MiB, or 2 GiB or more
+     */
+    public void setHashCacheMaxSize(long hashCacheMaxSize) throws IllegalArgumentException {
+        if (hashCacheMaxSize < 1024L * 1024L || hashCacheMaxSize > HashCache.MAX_CACHE_SIZE) {
+            throw new IllegalArgumentException("Hash cache size must be between 1 MiB and 2 GiB");
+        }
+        this.hashCacheMaxSize = hashCacheMaxSize;
+    }
+
+    /**
+     * Set the size of the buffers used to read files for hashing
+     * @param bufferSize An int representing the buffer size in bytes
+     * @throws IllegalArgumentException Thrown if the buffer size is less than 4 KiB
+     */
+    public void setBufferSize(int bufferSize) throws IllegalArgumentException {
+        if (bufferSize < 4096) {
+            throw new IllegalArgumentException("Buffer size must be at least 4 KiB");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Set the most threads each worker pool may use when adaptive threading is on
+     * @param adaptiveThreadLimit An int representing the maximum number of threads
+     * @throws IllegalArgumentException Thrown if the limit is less than one
+     */
+    public void setAdaptiveThreadLimit(int adaptiveThreadLimit) throws IllegalArgumentException {
+        if (adaptiveThreadLimit < 1) {
+            throw new IllegalArgumentException("Adaptive thread limit must be at least one");
+        }
+        this.adaptiveThreadLimit = adaptiveThreadLimit;
+    }
+
+    /**
+     * Set the number of buffers each hashing thread's reader fills ahead of the hasher
+     * @param readAheadBuffers An int representing the number of buffers, or zero to turn read-ahead off
+     * @throws IllegalArgumentException Thrown if the count is one or negative
+     */
+    public void setReadAheadBuffers(int readAheadBuffers) throws IllegalArgumentException {
+        if (readAheadBuffers < 0 || readAheadBuffers == 1) {
+            throw new IllegalArgumentException("Read-ahead needs at least two buffers");
+        }
+        this.readAheadBuffers = readAheadBuffers;
+    }
+
+    /**
+     * Set the number of reads to keep in flight when hashing with asynchronous I/O
+     * @param asyncQueueDepth An int representing the queue depth, or zero to use blocking reads
+     * @throws IllegalArgumentException Thrown if the depth is negative
+     */
+    public void setAsyncQueueDepth(int asyncQueueDepth) throws IllegalArgumentException {
+        if (asyncQueueDepth < 0) {
+            throw new IllegalArgumentException("Asynchronous queue depth cannot be negative");
+        }
+        this.asyncQueueDepth = asyncQueueDepth;
+    }
+
+    /**
+     * Set the most files to have open at once when hashing with asynchronous I/O
+     * @param asyncOpenFiles An int representing the maximum number of open files
+     * @throws IllegalArgumentException Thrown if the limit is less than one
+     */
+    public void setAsyncOpenFiles(int asyncOpenFiles) throws IllegalArgumentException {
+        if (asyncOpenFiles < 1) {
+            throw new IllegalArgumentException("Asynchronous open file limit must be at least one");
+        }
+        this.asyncOpenFiles = asyncOpenFiles;
+    }
+
+    /**
+     * Set the order in which files are handed out to the hashing threads
+     * @param hashSchedule The HashSchedule to use
+     * @throws IllegalArgumentException Thrown if the schedule is null
+     */
+    public void setHashSchedule(HashSchedule hashSchedule) throws IllegalArgumentException {
+        if (hashSchedule == null) {
+            throw new IllegalArgumentException("Hashing schedule cannot be null");
+        }
+        this.hashSchedule = hashSchedule;
+    }
+
+    /**
+     * Set the maximum read rate
+     * @param bytesPerSecond A long representing the rate in bytes per second, or zero for no limit
+     * @throws IllegalArgumentException Thrown if the rate is negative
+     */
+    public void setBytesPerSecond(long bytesPerSecond) throws IllegalArgumentException {
+        if (bytesPerSecond < 0L) {
+            throw new IllegalArgumentException("Read rate cannot be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Set the maximum rate at which files are opened
+     * @param filesPerSecond A long representing the rate in files per second, or zero for no limit
+     * @throws IllegalArgumentException Thrown if the rate is negative
+     */
+    public void setFilesPerSecond(long filesPerSecond) throws IllegalArgumentException {
+        if (filesPerSecond < 0L) {
+            throw new IllegalArgumentException("File rate cannot be negative");
+        }
+        this.filesPerSecond = filesPerSecond;
+    }
+
     /**
      * Convert simple DOS/UNIX wildcards to regular expressions.  This is a one-way conversion that should only be
      * performed right before running the comparison.  However, this will check the flag to make sure the "exclusions
@@ -42,6 +42,13 @@ public class ComparisonResult {
     @Setter
     private long totalBytes;
 
+    /**
+     * The total number of bytes that never had to be read because the source and target files were the same physical
+     * file, counting both sides
+     */
+    @Setter
+    private long sameFileBytes;
+
     /**
      * The input comparison options
      */
@@ -71,4 +78,12 @@ public class ComparisonResult {
      */
     private final List<DCFile> changedFiles = new ArrayList<>();
 
+    /**
+     * Whether the comparison turned up no discrepancies at all
+     * @return True if nothing was missing or changed, false otherwise
+     */
+    public boolean isMatch() {
+        return sourceMissingFiles.isEmpty() && targetMissingFiles.isEmpty() && changedFiles.isEmpty();
+    }
+
 }
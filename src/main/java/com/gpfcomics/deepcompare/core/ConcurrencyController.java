@@ -0,0 +1,206 @@
+/*
+ * DEEP COMPARE: ConcurrencyController
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+
+import java.io.BufferedWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The concurrency controller works out how many hashing threads a device actually wants, rather than trusting a fixed
+ * count.  A network share may want dozens of reads in flight, while a single hard drive does best with one or two.  The
+ * worker pool starts as many threads as it's allowed, but only the first few are let through to work at any time.  The
+ * controller counts the bytes passing through the progress listener, and every couple of seconds it compares the
+ * throughput with what it saw before.  It climbs, doubling the number of active threads, for as long as that keeps
+ * paying off, then falls back to the best level it found and stays there.  Every so often it tries a neighbouring level
+ * again in case things have changed (the files got smaller, another job finished with the disk, and so on).
+ */
+class ConcurrencyController implements IHashProgressListener {
+
+    /**
+     * How often to measure throughput and maybe change the number of active threads, in milliseconds
+     */
+    static final long SAMPLE_INTERVAL = 2000L;
+
+    // How much better a level has to do before we'll move to it.  Anything less is noise.
+    private static final double IMPROVEMENT = 1.10;
+
+    // How many samples to sit at a settled level before trying a neighbour again
+    private static final int PROBE_AFTER = 15;
+
+    // The wrapped listener
+    private final IHashProgressListener listener;
+
+    // The log to report our choice to.  May be null if no log is being written.
+    private final BufferedWriter log;
+
+    // The most threads we may make active
+    private final int maxLevel;
+
+    // The number of threads currently allowed to work
+    private int level = 1;
+
+    // The best level we've found, and the throughput it gave in bytes per second.  A negative throughput means we
+    // haven't measured anything yet.
+    private int bestLevel = 1;
+    private double bestThroughput = -1.0;
+
+    // Whether we're trying out a new level (as opposed to sitting at the best one), and which way we're moving
+    private boolean probing = true;
+    private boolean climbing = true;
+
+    // The number of samples we've sat at the best level since we last probed
+    private int settledSamples = 0;
+
+    // Set when the current run has run out of work, so threads still waiting for a turn can leave
+    private boolean finished = false;
+
+    // The bytes read so far, and the count and time at our last sample
+    private final AtomicLong bytes = new AtomicLong();
+    private long lastSampleBytes = 0L;
+    private long lastSampleTime = System.nanoTime();
+
+    /**
+     * Constructor
+     * @param maxLevel The most threads that may be active at once
+     * @param listener The IHashProgressListener to pass progress on to
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is to be written.
+     */
+    ConcurrencyController(int maxLevel, IHashProgressListener listener, BufferedWriter log) {
+        this.maxLevel = Math.max(maxLevel, 1);
+        this.listener = listener;
+        this.log = log;
+    }
+
+    @Override
+    public void newFile() {
+        listener.newFile();
+    }
+
+    @Override
+    public void updateProgress(long bytesRead) {
+        bytes.addAndGet(bytesRead);
+        listener.updateProgress(bytesRead);
+    }
+
+    /**
+     * Get ready for a new batch of work.  Whatever we've learned about the best level carries over.
+     */
+    synchronized void start() {
+        finished = false;
+        lastSampleBytes = bytes.get();
+        lastSampleTime = System.nanoTime();
+    }
+
+    /**
+     * Note that a batch of work has run out, and let every waiting thread go
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait until a thread is allowed to work
+     * @param slot The thread's number within the pool, counting from zero
+     * @return True if the thread may take another item, false if the work has run out while it was waiting
+     * @throws InterruptedException Thrown if the thread is interrupted while waiting
+     */
+    synchronized boolean awaitTurn(int slot) throws InterruptedException {
+        while (slot >= level && !finished) wait();
+        return !finished;
+    }
+
+    /**
+     * Measure the throughput since the last sample and adjust the number of active threads
+     */
+    synchronized void sample() {
+        long now = System.nanoTime();
+        long total = bytes.get();
+        double seconds = (now - lastSampleTime) / 1.0e9;
+        if (seconds <= 0.0) return;
+        double throughput = (total - lastSampleBytes) / seconds;
+        lastSampleTime = now;
+        lastSampleBytes = total;
+        if (probing) {
+            if (bestThroughput < 0.0 || throughput > bestThroughput * IMPROVEMENT) {
+                // This level beat the best so far, so keep going the same way:
+                bestLevel = level;
+                bestThroughput = throughput;
+                int nextLevel = step(level, climbing);
+                if (nextLevel == level) settle();
+                else setLevel(nextLevel);
+            } else {
+                // No better, so go back to the best level we know of:
+                setLevel(bestLevel);
+                settle();
+            }
+        } else {
+            // Keep the best throughput fresh, since the work itself changes over time:
+            bestThroughput = throughput;
+            if (++settledSamples >= PROBE_AFTER) {
+                // Try the other direction from last time:
+                climbing = !climbing;
+                int nextLevel = step(bestLevel, climbing);
+                if (nextLevel == bestLevel) nextLevel = step(bestLevel, climbing = !climbing);
+                settledSamples = 0;
+                if (nextLevel != bestLevel) {
+                    probing = true;
+                    setLevel(nextLevel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the level we've settled on, and the throughput it gave, to the log
+     */
+    synchronized void report() {
+        if (log == null || bestThroughput < 0.0) return;
+        synchronized (log) {
+            try {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.adaptive.threads"),
+                                bestLevel,
+                                Utilities.prettyPrintFileSize((long) bestThroughput)
+                        )
+                );
+                log.newLine();
+            } catch (Exception ignored) { }
+        }
+    }
+
+    /**
+     * Stop probing and sit at the best level for a while
+     */
+    private void settle() {
+        probing = false;
+        settledSamples = 0;
+    }
+
+    /**
+     * Change the number of active threads, waking up any that are now allowed to work
+     * @param level The new number of active threads
+     */
+    private void setLevel(int level) {
+        this.level = level;
+        notifyAll();
+    }
+
+    /**
+     * Work out the next level in a given direction
+     * @param level The level to step from
+     * @param up True to step up, false to step down
+     * @return The next level, which is the same as the current one if we can't go any further that way
+     */
+    private int step(int level, boolean up) {
+        return up ? Math.min(level * 2, maxLevel) : Math.max(level / 2, 1);
+    }
+
+}
@@ -15,9 +15,10 @@ import java.io.BufferedWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -204,18 +205,87 @@ public class DCDirectory {
     }
 
     /**
-     * Recursively generate the cryptographic hashes for all files under this directory
-     * @param hasher A MessageDigest object that will be used to generate the hashes
-     * @param listener An IHashProgressListener to report progress to
-     * @param log An open BufferedWriter representing the log file
+     * Recursively collect all files under this directory into a single flat list, in the same depth-first order they
+     * would be visited in the tree.  This is used to hand the files off to the HashWorkerPool.
+     * @param fileList A List of DCFiles to add our files to
      */
-    public void hash(MessageDigest hasher, IHashProgressListener listener, BufferedWriter log) {
-        // Tell all the files and subdirectories to do their own hashes:
+    public void collectFiles(List<DCFile> fileList) {
+        // Add our own files first, then ask all subdirectories to do the same:
+        fileList.addAll(files);
+        for (DCDirectory dir : subdirectories) {
+            dir.collectFiles(fileList);
+        }
+    }
+
+    /**
+     * Recursively pair the files under this directory with their companions in the opposite tree, using only the
+     * metadata gathered during the scan.  Files that exist on only one side are skipped, since compare() will flag them
+     * as missing without needing a hash.  Pairs whose sizes differ are resolved as changed right away.  Only pairs with
+     * equal sizes, whose outcome really does depend on their contents, are added to the lists of files to hash.
+     * @param companion The companion Directory
+     * @param ourFiles A List of DCFiles from our tree that need to be hashed
+     * @param companionFiles A List of DCFiles from the companion tree that need to be hashed
+     */
+    public void pairFiles(DCDirectory companion, List<DCFile> ourFiles, List<DCFile> companionFiles) {
+        // Index the companion's files by name so we don't have to search the whole list for each of our files:
+        Map<String, DCFile> companionFilesByName = new HashMap<>();
+        for (DCFile file : companion.getFiles()) {
+            companionFilesByName.put(file.getSimpleName(), file);
+        }
         for (DCFile file : files) {
-            file.hash(hasher, listener, log);
+            DCFile companionFile = companionFilesByName.get(file.getSimpleName());
+            // Pairs we've already settled (e.g., because they're the same physical file) don't need anything more:
+            if (companionFile == null || file.isResolved()) continue;
+            if (file.getSize() != companionFile.getSize()) {
+                file.resolve(false);
+                companionFile.resolve(false);
+            } else {
+                ourFiles.add(file);
+                companionFiles.add(companionFile);
+            }
+        }
+        // Now do the same for any subdirectories that exist on both sides:
+        Map<String, DCDirectory> companionDirsByName = new HashMap<>();
+        for (DCDirectory dir : companion.getSubdirectories()) {
+            companionDirsByName.put(dir.getSimpleName(), dir);
+        }
+        for (DCDirectory dir : subdirectories) {
+            DCDirectory companionDir = companionDirsByName.get(dir.getSimpleName());
+            if (companionDir != null) dir.pairFiles(companionDir, ourFiles, companionFiles);
+        }
+    }
+
+    /**
+     * Recursively find pairs of files that are really the same physical file, i.e., whose file keys (device and inode,
+     * on Unix-like systems) are the same on both sides.  This happens when the two trees are bind mounts of the same
+     * directory, hard-linked snapshots, or overlapping volumes.  Such a pair can only match, so it's resolved as
+     * matching right away and never needs to be read.  File systems that don't provide file keys never produce a pair.
+     * @param companion The companion Directory
+     * @param sameFiles A List of DCFiles to add our half of each such pair to
+     */
+    public void resolveSameFiles(DCDirectory companion, List<DCFile> sameFiles) {
+        Map<String, DCFile> companionFilesByName = new HashMap<>();
+        for (DCFile file : companion.getFiles()) {
+            if (file.getFileKey() != null) companionFilesByName.put(file.getSimpleName(), file);
+        }
+        if (!companionFilesByName.isEmpty()) {
+            for (DCFile file : files) {
+                DCFile companionFile = companionFilesByName.get(file.getSimpleName());
+                if (companionFile != null && file.getFileKey() != null &&
+                        file.getFileKey().equals(companionFile.getFileKey())) {
+                    file.resolve(true);
+                    companionFile.resolve(true);
+                    sameFiles.add(file);
+                }
+            }
+        }
+        Map<String, DCDirectory> companionDirsByName = new HashMap<>();
+        for (DCDirectory dir : companion.getSubdirectories()) {
+            companionDirsByName.put(dir.getSimpleName(), dir);
         }
         for (DCDirectory dir : subdirectories) {
-            dir.hash(hasher, listener, log);
+            DCDirectory companionDir = companionDirsByName.get(dir.getSimpleName());
+            if (companionDir != null) dir.resolveSameFiles(companionDir, sameFiles);
         }
     }
 
@@ -11,14 +11,24 @@ import lombok.Getter;
 import lombok.Setter;
 
 import javax.swing.tree.DefaultMutableTreeNode;
-import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.util.Base64;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
  * This class represents an individual file in the comparison tree.  It maintains the file's own state (name, full
@@ -29,6 +39,30 @@ public class DCFile {
 
     /* MEMBER VARIABLES **********************************************************************************************/
 
+    /**
+     * The size of the blocks read from the beginning and end of a file to build its quick-check fingerprint
+     */
+    public static final int QUICK_CHECK_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The size of each window when memory-mapping a file for hashing.  Java can't map more than 2 GB at a time, and
+     * smaller windows keep us from tying up too much address space at once.
+     */
+    private static final long MAPPED_WINDOW_SIZE = 256L * 1024L * 1024L;
+
+    /**
+     * The size of each slice of a mapped window handed to the digest at a time.  This only controls how often we
+     * report progress.
+     */
+    private static final int MAPPED_SLICE_SIZE = 1024 * 1024;
+
+    /**
+     * Whether the file system offers the "unix" attribute view, which gives us inode numbers along with the basic
+     * attributes in the same call
+     */
+    private static final boolean UNIX_ATTRIBUTES =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
     /**
      * A string containing the full path to the file
      */
@@ -36,10 +70,13 @@ public class DCFile {
     private final String pathString;
 
     /**
-     * The Base64-encoded cryptographic hash of the file
+     * The raw digest of the file's contents, or null if the file hasn't been hashed (or couldn't be).  We keep the raw
+     * bytes rather than an encoded string, since we may be holding millions of these at once; encode them only when
+     * something actually needs to be written out.
      */
     @Getter
-    private String hash;
+    @Setter
+    private byte[] hash;
 
     /**
      * The size of the file in bytes
@@ -47,6 +84,26 @@ public class DCFile {
     @Getter
     private long size;
 
+    /**
+     * The file's last modification time, in milliseconds since the epoch
+     */
+    @Getter
+    private long lastModified;
+
+    /**
+     * The object that uniquely identifies this file on its file system (e.g., the device and inode on UNIX-like
+     * systems), or null if the file system doesn't provide one
+     */
+    @Getter
+    private Object fileKey;
+
+    /**
+     * The file's inode number on UNIX-like systems, used to hash files in roughly the order they sit on the disk.  This
+     * will be -1 if the file system doesn't provide one.
+     */
+    @Getter
+    private long inode = -1L;
+
     /**
      * Whether this file's path matches its companion file's path in the other tree
      */
@@ -60,6 +117,53 @@ public class DCFile {
     @Getter
     private boolean hashMatch = false;
 
+    /**
+     * Whether the outcome of comparing this file's contents with its companion has already been decided by some means
+     * other than comparing hashes (for example, because the two files are different sizes).  Once this is set, the
+     * hash comparison in compare() will leave the hash match flag alone.
+     */
+    @Getter
+    private boolean resolved = false;
+
+    /**
+     * The offset of the first byte that differs between this file and its companion, if the two were compared
+     * byte-for-byte and found to differ.  This will be -1 if the offset isn't known.
+     */
+    @Getter
+    private long firstDifference = -1L;
+
+    /**
+     * A cheap fingerprint (a CRC-32) of the first and last blocks of the file, used to weed out changed files before
+     * hashing them in full.  This will be -1 if the fingerprint hasn't been taken or couldn't be.
+     */
+    @Getter
+    private long fingerprint = -1L;
+
+    /**
+     * The size of each region, if this file was hashed as a tree of regions.  Zero if it was hashed as a whole.
+     */
+    @Getter
+    private long regionSize = 0L;
+
+    /**
+     * The digest of each region, if this file was hashed as a tree of regions.  Null if it was hashed as a whole.
+     */
+    @Getter
+    private byte[][] regionDigests;
+
+    /**
+     * The indexes of the regions that differ from the companion file's regions, if both files were hashed as trees and
+     * turned out to be different.  Null otherwise.
+     */
+    @Getter
+    private int[] differingRegions;
+
+    // The number of regions still waiting to be hashed.  Whichever thread finishes the last one computes the root.
+    private AtomicInteger regionsRemaining;
+
+    // Whether any region failed to hash
+    private volatile boolean regionFailed = false;
+
     /* CONSTRUCTORS **************************************************************************************************/
 
     /**
@@ -95,51 +199,447 @@ public class DCFile {
     }
 
     /**
-     * Scan this individual file, taking note of its current file size
+     * Scan this individual file, taking note of its current file size, modification time, file key and inode number
      * @throws IOException Thrown if anything blows up while scanning the file
      */
     public void scan() throws IOException {
-        // This seems pretty simple, but for now all we'll do is get our file size and keep track of it.  The parent
-        // directory will reference this to get the total size of the directory.
-        size = Files.size(Paths.get(pathString));
+        // Read all the attributes in one go.  The parent directory will reference our size to get the total size of the
+        // directory, while the modification time and file key tell a hash cache whether the file has changed.  Where
+        // the file system has inode numbers, we pick those up from the same call, so that hashing in physical order
+        // doesn't cost another trip to the disk for every file.
+        Path path = Paths.get(pathString);
+        if (UNIX_ATTRIBUTES) {
+            Map<String, Object> attributes = Files.readAttributes(path, "unix:size,lastModifiedTime,fileKey,ino");
+            size = (Long) attributes.get("size");
+            lastModified = ((FileTime) attributes.get("lastModifiedTime")).toMillis();
+            fileKey = attributes.get("fileKey");
+            inode = ((Number) attributes.get("ino")).longValue();
+        } else {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            fileKey = attributes.fileKey();
+        }
     }
 
     /**
      * Generate the cryptographic hash of this file
-     * @param hasher A MessageDigest object, which will perform the hash
+     * @param worker The HashWorker for the current thread, which supplies the IHasher to hash with
      * @param listener The IHashProgressListener to report progress to
      * @param log An open BufferedWriter representing the log file
      */
-    public void hash(MessageDigest hasher, IHashProgressListener listener, BufferedWriter log) {
-        // Open the file and read in the raw bytes, feeding them to the hash algorithm.  As we update the hash, we'll
-        // also send the number of bytes read to the listener to update our progress.  Once the file read is complete,
-        // compute the final digest and Base64 encode it, storing the string in our local variable.
-        try ( BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(Paths.get(pathString))) ) {
+    public void hash(HashWorker worker, IHashProgressListener listener, BufferedWriter log) {
+        // Feed the raw bytes of the file to the hash algorithm.  Large files are memory-mapped and handed to the digest
+        // directly, while everything else is read into one of the worker's reusable buffers.  Either way, once the
+        // file read is complete, compute the final digest and store it in our local variable.  If the worker has a
+        // reader thread, let it do the reading while we hash.
+        IHasher hasher = worker.getHasher();
+        if (worker.canReadAhead(size)) {
+            try {
+                hasher.reset();
+                worker.getReadAhead().hash(pathString, hasher, listener);
+                hash = hasher.digest();
+            } catch (Exception ex) {
+                logHashError(ex, log);
+                hash = null;
+            }
+            return;
+        }
+        try (
+                FileChannel direct = openDirect(worker);
+                FileChannel channel = direct != null ? direct :
+                        FileChannel.open(Paths.get(pathString), StandardOpenOption.READ)
+        ) {
+            worker.throttleFile();
             hasher.reset();
-            byte[] byteArray = new byte[8192];
-            int byteCount = 0;
-            while ((byteCount = stream.read(byteArray)) != -1) {
-                hasher.update(byteArray, 0, byteCount);
-                listener.updateProgress(byteCount);
-            };
-            hash = Base64.getEncoder().encodeToString(hasher.digest());
+            hashRange(channel, 0L, channel.size(), worker, listener, direct != null);
+            hash = hasher.digest();
         } catch (Exception ex) {
             // If anything above blows up, log an error (if we're keeping a log) and set our hash to null:
+            logHashError(ex, log);
+            hash = null;
+        }
+    }
+
+    /**
+     * Ask the worker's reader thread to start reading this file, so it's ready by the time the worker gets to it.  This
+     * does nothing if the file won't be read ahead.
+     * @param worker The HashWorker that will hash this file next
+     */
+    public void prefetch(HashWorker worker) {
+        if (worker.canReadAhead(size)) worker.getReadAhead().prefetch(pathString);
+    }
+
+    /**
+     * Take on the digest of another path to the same physical file (i.e., a hard link), rather than reading the same
+     * data again
+     * @param other The DCFile that was actually hashed
+     */
+    public void shareDigest(DCFile other) {
+        hash = other.getHash();
+        regionSize = other.getRegionSize();
+        regionDigests = other.getRegionDigests();
+    }
+
+    /**
+     * Get ready to hash this file as a tree of fixed-size regions.  Each region can then be hashed independently (and
+     * concurrently) with hashRegion(), and once the last one is done, the file's hash is computed from the region
+     * digests.  This lets several threads share the work of a single enormous file, and the region digests tell us
+     * which parts of a changed file actually differ.
+     * @param regionSize The size of each region in bytes
+     * @return The number of regions to hash
+     */
+    public int prepareRegions(long regionSize) {
+        int count = (int) Math.max((size + regionSize - 1L) / regionSize, 1L);
+        this.regionSize = regionSize;
+        regionDigests = new byte[count][];
+        regionsRemaining = new AtomicInteger(count);
+        regionFailed = false;
+        return count;
+    }
+
+    /**
+     * Hash a single region of this file.  prepareRegions() must be called first.  When the last region is finished,
+     * the file's hash is set to the digest of all the region digests in order.
+     * @param region The index of the region to hash
+     * @param worker The HashWorker for the current thread, which supplies the IHasher to hash with
+     * @param listener The IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file
+     */
+    public void hashRegion(int region, HashWorker worker, IHashProgressListener listener, BufferedWriter log) {
+        IHasher hasher = worker.getHasher();
+        if (!regionFailed) {
+            try (
+                    FileChannel direct = openDirect(worker);
+                    FileChannel channel = direct != null ? direct :
+                            FileChannel.open(Paths.get(pathString), StandardOpenOption.READ)
+            ) {
+                // A file split into regions still only counts once toward the file rate:
+                if (region == 0) worker.throttleFile();
+                long start = region * regionSize;
+                hasher.reset();
+                hashRange(channel, start, Math.min(start + regionSize, size), worker, listener, direct != null);
+                regionDigests[region] = hasher.digest();
+            } catch (Exception ex) {
+                // Only log the first failure; once one region is gone, the file's hash is lost anyway:
+                if (!regionFailed) {
+                    regionFailed = true;
+                    logHashError(ex, log);
+                }
+            }
+        }
+        // If this was the last region, combine the region digests into the file's hash:
+        if (regionsRemaining.decrementAndGet() == 0) {
+            if (regionFailed) {
+                hash = null;
+            } else {
+                hasher.reset();
+                for (byte[] digest : regionDigests) hasher.update(digest, 0, digest.length);
+                hash = hasher.digest();
+            }
+        }
+    }
+
+    /**
+     * Open this file for direct reading, bypassing the operating system's cache, if the worker is set up for it
+     * @param worker The HashWorker for the current thread
+     * @return A FileChannel opened for direct I/O, or null if the file should be read the usual way
+     */
+    private FileChannel openDirect(HashWorker worker) {
+        return worker.getDirectBuffer() == null ? null : DirectIO.open(Paths.get(pathString));
+    }
+
+    /**
+     * Feed a range of this file to the hash algorithm.  Direct channels are read into the worker's aligned buffer.
+     * Otherwise, large ranges are memory-mapped if the worker allows it, while everything else is read into one of the
+     * worker's reusable buffers.
+     * @param channel The open FileChannel to read from
+     * @param start The offset of the first byte to hash
+     * @param end The offset just past the last byte to hash
+     * @param worker The HashWorker for the current thread
+     * @param listener The IHashProgressListener to report progress to
+     * @param direct True if the channel was opened for direct I/O
+     * @throws IOException Thrown if the file cannot be read
+     */
+    private void hashRange(FileChannel channel, long start, long end, HashWorker worker, IHashProgressListener listener,
+                           boolean direct) throws IOException {
+        if (direct) {
+            hashDirect(channel, start, end, worker, listener);
+        } else if (worker.getMappedThreshold() > 0 && end - start >= worker.getMappedThreshold()) {
+            hashMapped(channel, start, end, worker, listener);
+        } else {
+            ByteBuffer buffer = worker.getBuffers().acquire();
+            try {
+                hashChannel(channel, start, end, worker, buffer, listener);
+            } finally {
+                worker.getBuffers().release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Feed a range of this file to the hash algorithm by reading it through a FileChannel into a reusable buffer.  As
+     * we update the hash, we'll also send the number of bytes read to the listener to update our progress.
+     * @param channel The open FileChannel to read from
+     * @param start The offset of the first byte to hash
+     * @param end The offset just past the last byte to hash
+     * @param worker The HashWorker for the current thread, which supplies the hasher and throttle
+     * @param buffer The ByteBuffer to read into
+     * @param listener The IHashProgressListener to report progress to
+     * @throws IOException Thrown if the file cannot be read
+     */
+    private void hashChannel(FileChannel channel, long start, long end, HashWorker worker, ByteBuffer buffer,
+                             IHashProgressListener listener) throws IOException {
+        IHasher hasher = worker.getHasher();
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int byteCount = channel.read(buffer, position);
+            if (byteCount == -1) break;
+            buffer.flip();
+            hasher.update(buffer);
+            position += byteCount;
+            listener.updateProgress(byteCount);
+            worker.throttleBytes(byteCount);
+        }
+    }
+
+    /**
+     * Feed a range of this file to the hash algorithm through a channel opened for direct I/O.  Direct reads have to
+     * start on an aligned offset and fill whole blocks, so we always read the worker's full aligned buffer and only
+     * hash the part of it that falls inside the range.  The range has to start on an aligned offset, which both whole
+     * files and tree regions (a whole number of megabytes apart) do.
+     * @param channel The open FileChannel to read from
+     * @param start The offset of the first byte to hash
+     * @param end The offset just past the last byte to hash
+     * @param worker The HashWorker for the current thread, which supplies the hasher, throttle and aligned buffer
+     * @param listener The IHashProgressListener to report progress to
+     * @throws IOException Thrown if the file cannot be read
+     */
+    private void hashDirect(FileChannel channel, long start, long end, HashWorker worker,
+                            IHashProgressListener listener) throws IOException {
+        IHasher hasher = worker.getHasher();
+        ByteBuffer buffer = worker.getDirectBuffer();
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            int byteCount = channel.read(buffer, position);
+            if (byteCount <= 0) break;
+            int usable = (int) Math.min(byteCount, end - position);
+            buffer.flip();
+            buffer.limit(usable);
+            hasher.update(buffer);
+            position += usable;
+            listener.updateProgress(usable);
+            worker.throttleBytes(usable);
+        }
+    }
+
+    /**
+     * Feed a range of this file to the hash algorithm by memory-mapping it.  This skips the copy into a Java byte
+     * buffer and the system call for every buffer's worth of data, which adds up on multi-gigabyte files.  A single
+     * mapping can't be larger than 2 GB, so the range is mapped in windows, and each window is handed to the digest in
+     * smaller slices so we can keep reporting progress as we go.
+     * @param channel The open FileChannel to read from
+     * @param start The offset of the first byte to hash
+     * @param end The offset just past the last byte to hash
+     * @param worker The HashWorker for the current thread, which supplies the hasher and throttle
+     * @param listener The IHashProgressListener to report progress to
+     * @throws IOException Thrown if the file cannot be read or mapped
+     */
+    private void hashMapped(FileChannel channel, long start, long end, HashWorker worker,
+                            IHashProgressListener listener) throws IOException {
+        IHasher hasher = worker.getHasher();
+        long position = start;
+        while (position < end) {
+            long windowSize = Math.min(MAPPED_WINDOW_SIZE, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            while (window.hasRemaining()) {
+                int sliceSize = Math.min(window.remaining(), MAPPED_SLICE_SIZE);
+                window.limit(window.position() + sliceSize);
+                hasher.update(window);
+                window.limit(window.capacity());
+                listener.updateProgress(sliceSize);
+                worker.throttleBytes(sliceSize);
+            }
+            position += windowSize;
+        }
+    }
+
+    /**
+     * Write a hashing error for this file to the log.  We may be one of several hashing threads, so lock the log while
+     * we write so our lines don't get interleaved.
+     * @param ex The Exception that caused the failure
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is being written.
+     */
+    void logHashError(Exception ex, BufferedWriter log) {
+        if (log == null) return;
+        synchronized (log) {
+            try {
+                log.write(
+                        String.format(
+                                Main.RESOURCES.getString("engine.log.hash.error"),
+                                pathString
+                        )
+                );
+                log.newLine();
+                log.write(ex.toString());
+                log.newLine();
+            } catch (Exception ignored) { }
+        }
+    }
+
+    /**
+     * Take a quick fingerprint of this file by computing a CRC-32 over its first and last blocks.  Most changes to a
+     * file (new headers, appended log entries, truncated copies) show up in one of those places, so if two files of the
+     * same size have different fingerprints, we know they're different without reading the rest of either one.  If
+     * anything goes wrong, the fingerprint is left unset and the file will simply be hashed in full.
+     * @param worker The HashWorker for the current thread, which supplies the read buffer
+     */
+    public void fingerprint(HashWorker worker) {
+        ByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(Paths.get(pathString), StandardOpenOption.READ)) {
+            worker.throttleFile();
+            buffer = worker.getBuffers().acquire();
+            int blockSize = Math.min(buffer.capacity(), QUICK_CHECK_BLOCK_SIZE);
+            CRC32 crc = new CRC32();
+            // Read the head block, then the tail block.  If the file is small enough, these will overlap, which is
+            // fine; both files in a pair are the same size, so they'll overlap in exactly the same way.
+            for (long position : new long[] { 0L, Math.max(size - blockSize, 0L) }) {
+                buffer.clear();
+                buffer.limit(blockSize);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) == -1) break;
+                }
+                buffer.flip();
+                worker.throttleBytes(buffer.remaining());
+                crc.update(buffer);
+            }
+            fingerprint = crc.getValue();
+        } catch (Exception ex) {
+            fingerprint = -1L;
+        } finally {
+            worker.getBuffers().release(buffer);
+        }
+    }
+
+    /**
+     * Compare the contents of this file directly with its companion in the opposite tree, without hashing either one.
+     * Both files are read in lockstep, one buffer at a time, and we stop at the first buffer that differs, so a changed
+     * pair usually costs a fraction of a full read.  The outcome is recorded on both files.  It is assumed that the
+     * two files have already been found to be the same size.
+     * @param companion The companion File
+     * @param worker The HashWorker for the current thread, which supplies the read buffers
+     * @param listener The IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file
+     */
+    public void compareContents(DCFile companion, HashWorker worker, IHashProgressListener listener,
+                                BufferedWriter log) {
+        ByteBuffer ourBuffer = null;
+        ByteBuffer theirBuffer = null;
+        try (
+                FileChannel ourChannel = FileChannel.open(Paths.get(pathString), StandardOpenOption.READ);
+                FileChannel theirChannel =
+                        FileChannel.open(Paths.get(companion.getPathString()), StandardOpenOption.READ)
+        ) {
+            worker.throttleFile();
+            worker.throttleFile();
+            ourBuffer = worker.getBuffers().acquire();
+            theirBuffer = worker.getBuffers().acquire();
+            long offset = 0L;
+            long difference = -1L;
+            while (difference < 0L) {
+                // Fill both buffers as far as we can.  If both files are at their end, we're done and they match.
+                int ourCount = readFully(ourChannel, ourBuffer);
+                int theirCount = readFully(theirChannel, theirBuffer);
+                if (ourCount == 0 && theirCount == 0) break;
+                listener.updateProgress(ourCount + theirCount);
+                worker.throttleBytes(ourCount + theirCount);
+                ourBuffer.flip();
+                theirBuffer.flip();
+                // ByteBuffer.equals() is vectorized on newer Java runtimes, so check the whole buffer that way first
+                // and only go looking for the exact offset once we know there's a difference:
+                if (!ourBuffer.equals(theirBuffer)) {
+                    difference = offset + mismatch(ourBuffer, theirBuffer);
+                }
+                offset += ourCount;
+                ourBuffer.clear();
+                theirBuffer.clear();
+            }
+            // If we bailed out early, count the bytes we didn't need to read as processed so the overall progress
+            // still adds up:
+            if (difference >= 0L) {
+                long skipped = Math.max(size - offset, 0L) + Math.max(companion.getSize() - offset, 0L);
+                if (skipped > 0L) listener.updateProgress(skipped);
+            }
+            firstDifference = difference;
+            companion.firstDifference = difference;
+            resolve(difference < 0L);
+            companion.resolve(difference < 0L);
+        } catch (Exception ex) {
+            // If anything above blows up, log an error (if we're keeping a log) and call the pair changed, just as we
+            // would if we couldn't hash one of them:
             if (log != null) {
-                try {
-                    log.write(
-                            String.format(
-                                    Main.RESOURCES.getString("engine.log.hash.error"),
-                                    pathString
-                            )
-                    );
-                    log.newLine();
-                    log.write(ex.toString());
-                    log.newLine();
-                } catch (Exception ignored) { }
+                synchronized (log) {
+                    try {
+                        log.write(
+                                String.format(
+                                        Main.RESOURCES.getString("engine.log.compare.error"),
+                                        pathString
+                                )
+                        );
+                        log.newLine();
+                        log.write(ex.toString());
+                        log.newLine();
+                    } catch (Exception ignored) { }
+                }
             }
-            hash = null;
+            resolve(false);
+            companion.resolve(false);
+        } finally {
+            worker.getBuffers().release(ourBuffer);
+            worker.getBuffers().release(theirBuffer);
+        }
+    }
+
+    /**
+     * Read from a channel until the buffer is full or we reach the end of the file.  A single read may return less
+     * than a full buffer, which would throw off a lockstep comparison of two files.
+     * @param channel The FileChannel to read from
+     * @param buffer The ByteBuffer to read into
+     * @return The number of bytes read, which will be zero at the end of the file
+     * @throws IOException Thrown if the file cannot be read
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer);
+            if (count == -1) break;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Find the index of the first byte that differs between two buffers, relative to their current positions.  We
+     * compare eight bytes at a time until we find a difference, then narrow it down to the exact byte.  If one buffer
+     * is a prefix of the other, the index is the length of the shorter one.
+     * @param a The first ByteBuffer
+     * @param b The second ByteBuffer
+     * @return The index of the first differing byte, or -1 if the buffers are identical
+     */
+    private static int mismatch(ByteBuffer a, ByteBuffer b) {
+        int length = Math.min(a.remaining(), b.remaining());
+        int i = 0;
+        while (i + 8 <= length && a.getLong(a.position() + i) == b.getLong(b.position() + i)) {
+            i += 8;
+        }
+        while (i < length && a.get(a.position() + i) == b.get(b.position() + i)) {
+            i++;
         }
+        if (i == length && a.remaining() == b.remaining()) return -1;
+        return i;
     }
 
     /**
@@ -148,11 +648,37 @@ public class DCFile {
      * @param companion The companion File
      */
     public void compare(DCFile companion) {
+        // If we already know the answer, there's nothing left to do:
+        if (resolved) return;
         // This should (hopefully) never happen, but if either our hash or the companion object are null, declare the
-        // hash not a match.  Otherwise, compare the two hashes and return the result.  (If the companion's hash is
-        // null, the comparison should still return false.  The null check is mostly to prevent NPEs.)
+        // hash not a match.  Two files of different sizes can't possibly have the same contents, so don't bother with
+        // the hashes in that case.  Otherwise, compare the two hashes and return the result.  (If the companion's hash
+        // is null, the comparison should still return false.  The null check is mostly to prevent NPEs.)
         if (hash == null || companion == null) hashMatch = false;
-        else hashMatch = hash.equals(companion.getHash());
+        else if (size != companion.getSize()) hashMatch = false;
+        else hashMatch = Arrays.equals(hash, companion.getHash());
+        // If both files were hashed as trees and they don't match, work out which regions differ:
+        if (!hashMatch && companion != null && regionDigests != null && companion.getRegionDigests() != null &&
+                regionSize == companion.getRegionSize() &&
+                regionDigests.length == companion.getRegionDigests().length) {
+            List<Integer> regions = new ArrayList<>();
+            for (int i = 0; i < regionDigests.length; i++) {
+                if (!Arrays.equals(regionDigests[i], companion.getRegionDigests()[i])) regions.add(i);
+            }
+            differingRegions = new int[regions.size()];
+            for (int i = 0; i < differingRegions.length; i++) differingRegions[i] = regions.get(i);
+        }
+    }
+
+    /**
+     * Record the outcome of comparing this file's contents with its companion, when that outcome has been decided
+     * without comparing hashes.  This also marks the file as existing in both trees.
+     * @param match True if the contents match, false otherwise
+     */
+    public void resolve(boolean match) {
+        pathMatch = true;
+        hashMatch = match;
+        resolved = true;
     }
 
     /**
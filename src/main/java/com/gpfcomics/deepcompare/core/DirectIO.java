@@ -0,0 +1,97 @@
+/*
+ * DEEP COMPARE: DirectIO
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers for reading files with direct I/O, which bypasses the operating system's page cache.  Hashing terabytes of
+ * data through the cache pushes out whatever else the machine was keeping there, such as the working set of a database
+ * sharing the server, and we'll never read the same data twice anyway.  Direct reads must start at an aligned offset
+ * and go into an aligned buffer, a multiple of the device's block size in length.
+ * <p>
+ * Direct I/O only arrived in Java 10, while we still build for Java 8, so everything here is looked up by reflection.
+ * On older runtimes, and on file systems that refuse direct I/O (tmpfs, many network file systems), files are simply
+ * read through the cache as usual.
+ */
+final class DirectIO {
+
+    /**
+     * The alignment used for direct reads.  This is a multiple of every block size in common use.
+     */
+    static final int ALIGNMENT = 4096;
+
+    // The DIRECT open option, or null if this runtime doesn't have one
+    private static final OpenOption DIRECT;
+
+    // ByteBuffer.alignedSlice(int), or null if this runtime doesn't have it
+    private static final Method ALIGNED_SLICE;
+
+    static {
+        OpenOption direct = null;
+        Method alignedSlice = null;
+        try {
+            Class<?> extended = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            direct = (OpenOption) extended.getField("DIRECT").get(null);
+            alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (Exception | LinkageError ex) {
+            direct = null;
+        }
+        DIRECT = direct;
+        ALIGNED_SLICE = direct == null ? null : alignedSlice;
+    }
+
+    private DirectIO() { }
+
+    /**
+     * Check whether this runtime supports direct I/O at all
+     * @return True if it does
+     */
+    static boolean isAvailable() {
+        return DIRECT != null && ALIGNED_SLICE != null;
+    }
+
+    /**
+     * Allocate a buffer suitable for direct reads
+     * @param size The buffer size in bytes.  This is rounded up to a multiple of the alignment.
+     * @return A direct ByteBuffer whose address and capacity are both aligned, or null if direct I/O isn't available
+     */
+    static ByteBuffer allocate(int size) {
+        if (!isAvailable()) return null;
+        int capacity = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        try {
+            ByteBuffer buffer = (ByteBuffer) ALIGNED_SLICE.invoke(
+                    ByteBuffer.allocateDirect(capacity + ALIGNMENT), ALIGNMENT
+            );
+            buffer.limit(capacity);
+            return buffer.slice();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Open a file for direct reading
+     * @param path The Path of the file to open
+     * @return An open FileChannel that bypasses the cache, or null if direct I/O isn't available for this file, in
+     * which case the caller should open it the usual way
+     */
+    static FileChannel open(Path path) {
+        if (!isAvailable()) return null;
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+}
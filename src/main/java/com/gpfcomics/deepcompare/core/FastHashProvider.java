@@ -0,0 +1,43 @@
+/*
+ * DEEP COMPARE: FastHashProvider
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The built-in provider for our fast non-cryptographic checksums.  xxHash64 is pure Java and always available, while
+ * CRC-32C is only offered if the runtime has it (Java 9 and up).
+ */
+public class FastHashProvider implements IHashProvider {
+
+    // The checksums this runtime supports
+    private final List<String> algorithms = new ArrayList<>();
+
+    public FastHashProvider() {
+        try {
+            new CRC32CHasher();
+            algorithms.add(CRC32CHasher.ALGORITHM);
+        } catch (NoSuchAlgorithmException ignored) { }
+        algorithms.add(XXHash64Hasher.ALGORITHM);
+    }
+
+    @Override
+    public List<String> getAlgorithms() {
+        return Collections.unmodifiableList(algorithms);
+    }
+
+    @Override
+    public IHasher newHasher(String algorithm) throws NoSuchAlgorithmException {
+        if (XXHash64Hasher.ALGORITHM.equals(algorithm)) return new XXHash64Hasher();
+        if (CRC32CHasher.ALGORITHM.equals(algorithm)) return new CRC32CHasher();
+        throw new NoSuchAlgorithmException(algorithm + " is not a built-in checksum");
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ * DEEP COMPARE: HashCache
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent, on-disk cache of file digests.  The cache file is a header followed by fixed-width records sorted by
+ * key, where the key is an MD5 hash of the file's absolute path, size, modification time, file key (i.e., inode) and
+ * hash algorithm.  Any change to any of those produces a different key, so stale entries are simply never found again.
+ * The file is kept open and binary searched in place with positional reads, so opening even a very large cache costs
+ * next to nothing.  (We don't memory-map it: Java 8 has no way to unmap a file, and Windows won't let us replace a file
+ * that's still mapped.)
+ * <p>
+ * New and re-used entries are collected in memory while we run and merged into a fresh copy of the cache when it's
+ * closed.  The fresh copy is written to a temporary file, flushed to disk, then renamed over the old one, so a crash
+ * part way through leaves the previous cache intact.  If the merged cache would grow past its size limit, the entries
+ * that have gone unused the longest are dropped.
+ */
+public class HashCache implements IHashCache {
+
+    // The magic number at the start of every cache file ("DCHC")
+    private static final int MAGIC = 0x44434843;
+
+    // The cache file format version
+    private static final int VERSION = 1;
+
+    // The header holds the magic number, the version and the record count
+    private static final int HEADER_SIZE = 16;
+
+    // The size of a key (an MD5 hash)
+    private static final int KEY_SIZE = 16;
+
+    // The largest digest we can cache.  This covers SHA-512; anything bigger simply isn't cached.
+    private static final int MAX_DIGEST_SIZE = 64;
+
+    // Each record holds the key, the time it was last used, the digest length and the digest, padded out to a round
+    // number so records stay aligned
+    private static final int RECORD_SIZE = 96;
+    private static final int LAST_USED_OFFSET = KEY_SIZE;
+    private static final int DIGEST_LENGTH_OFFSET = LAST_USED_OFFSET + 8;
+    private static final int DIGEST_OFFSET = DIGEST_LENGTH_OFFSET + 1;
+
+    /**
+     * The largest cache file we support.  Records are numbered with ints, which keeps us under 2 GB.
+     */
+    public static final long MAX_CACHE_SIZE = Integer.MAX_VALUE;
+
+    // The path to the cache file
+    private final Path path;
+
+    // The largest we'll let the cache file grow, in bytes
+    private final long maxSize;
+
+    // The existing cache, open for positional reads.  Null if there wasn't one (or it was unreadable).
+    private final FileChannel records;
+
+    // The number of records in the existing cache
+    private final int recordCount;
+
+    // Entries that were added or used during this run, which will be merged into the cache when it's saved
+    private final Map<Key, Entry> updates = new ConcurrentHashMap<>();
+
+    // A time stamp to mark entries used during this run
+    private final long now = System.currentTimeMillis();
+
+    // Our hit and miss counters
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Each thread gets its own MD5 digest for building keys
+    private static final ThreadLocal<MessageDigest> KEY_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    /**
+     * Constructor.  If the cache file exists, it will be opened for lookups.  If it doesn't exist yet, we
+     * start with an empty cache.  A file that isn't a valid cache (or is from an incompatible version) is ignored and
+     * will be replaced when the cache is saved.
+     * @param path The Path to the cache file
+     * @param maxSize The largest the cache file may grow, in bytes
+     * @throws IOException Thrown if the cache file exists but could not be read
+     */
+    public HashCache(Path path, long maxSize) throws IOException {
+        this.path = path;
+        this.maxSize = Math.min(maxSize, MAX_CACHE_SIZE);
+        FileChannel channel = null;
+        int count = 0;
+        if (Files.isRegularFile(path)) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long fileSize = channel.size();
+                ByteBuffer header = fileSize >= HEADER_SIZE && fileSize <= MAX_CACHE_SIZE ?
+                        read(channel, 0L, HEADER_SIZE) : null;
+                long recordsInFile = header == null ? -1L : header.getLong(8);
+                if (header != null && header.getInt(0) == MAGIC && header.getInt(4) == VERSION &&
+                        recordsInFile >= 0L && fileSize == HEADER_SIZE + recordsInFile * RECORD_SIZE) {
+                    count = (int) recordsInFile;
+                } else {
+                    channel.close();
+                    channel = null;
+                }
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+        records = channel;
+        recordCount = count;
+    }
+
+    @Override
+    public byte[] lookup(DCFile file, String algorithm) {
+        Key key = key(file, algorithm);
+        byte[] digest = null;
+        Entry entry = updates.get(key);
+        if (entry != null) {
+            digest = entry.digest;
+        } else {
+            try {
+                int index = find(key);
+                if (index >= 0) {
+                    ByteBuffer record = read(records, HEADER_SIZE + (long) index * RECORD_SIZE, RECORD_SIZE);
+                    digest = new byte[record.get(DIGEST_LENGTH_OFFSET) & 0xFF];
+                    record.position(DIGEST_OFFSET);
+                    record.get(digest);
+                    // Mark the entry as used so it survives the next round of eviction:
+                    updates.put(key, new Entry(key, now, digest));
+                }
+            } catch (IOException ex) {
+                // If the cache can't be read, treat it as a miss and hash the file
+                digest = null;
+            }
+        }
+        if (digest != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return digest;
+    }
+
+    @Override
+    public void store(DCFile file, String algorithm, byte[] digest) {
+        if (digest == null || digest.length > MAX_DIGEST_SIZE) return;
+        Key key = key(file, algorithm);
+        updates.put(key, new Entry(key, now, digest));
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String getName() {
+        return Main.RESOURCES.getString("engine.log.hash.cache.name.file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The old cache has to be closed before we can replace it, whatever happens:
+        try {
+            save();
+        } finally {
+            if (records != null) records.close();
+        }
+    }
+
+    /**
+     * Merge the entries added or used during this run into the cache, and write it out to a temporary file.  The old
+     * cache is read sequentially as we go.
+     * @throws IOException Thrown if the old cache couldn't be read or the new one couldn't be written
+     */
+    private void save() throws IOException {
+        // If nothing was added or used, there's nothing to save:
+        if (updates.isEmpty()) return;
+        // Sort our updates so we can merge them with the existing records in a single pass:
+        List<Entry> sorted = new ArrayList<>(updates.values());
+        sorted.sort((a, b) -> a.key.compareTo(b.key));
+        // Work out how many records we can keep.  Entries used during this run are the newest, so they're kept first.
+        // If there's still room, keep the most recently used of the old entries as well.
+        int maxRecords = (int) Math.max((maxSize - HEADER_SIZE) / RECORD_SIZE, 0L);
+        int keepUpdates = Math.min(sorted.size(), maxRecords);
+        long cutoff = evictionCutoff(maxRecords - keepUpdates);
+        // Now write the merged records to a temporary file beside the real one:
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            // Leave room for the header, which we'll fill in once we know how many records we wrote:
+            buffer.position(HEADER_SIZE);
+            long written = 0L;
+            RecordScanner old = new RecordScanner();
+            ByteBuffer oldRecord = old.next();
+            int newIndex = 0;
+            while (oldRecord != null || newIndex < keepUpdates) {
+                Key oldKey = oldRecord != null ? new Key(oldRecord.getLong(0), oldRecord.getLong(8)) : null;
+                Entry next = newIndex < keepUpdates ? sorted.get(newIndex) : null;
+                int order = oldKey == null ? 1 : next == null ? -1 : oldKey.compareTo(next.key);
+                if (order < 0) {
+                    // An old record with no update.  Keep it if it's recent enough.
+                    if (oldRecord.getLong(LAST_USED_OFFSET) > cutoff) {
+                        buffer.put(oldRecord);
+                        written++;
+                    }
+                    oldRecord = old.next();
+                } else {
+                    // An update, which replaces any old record with the same key:
+                    buffer.putLong(next.key.high).putLong(next.key.low).putLong(next.lastUsed);
+                    buffer.put((byte) next.digest.length).put(next.digest);
+                    buffer.put(new byte[RECORD_SIZE - DIGEST_OFFSET - next.digest.length]);
+                    written++;
+                    newIndex++;
+                    if (order == 0) oldRecord = old.next();
+                }
+                if (buffer.remaining() < RECORD_SIZE) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(written).flip();
+            channel.write(header, 0L);
+            channel.force(true);
+        }
+        // Finally, close the old cache and swap the new one into place:
+        if (records != null) records.close();
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Work out which old records to evict.  Any old record that wasn't used during this run and was last used at or
+     * before the returned time will be dropped.
+     * @param room The number of old records we have room to keep
+     * @return The last-used cutoff time, or Long.MIN_VALUE if we can keep everything
+     * @throws IOException Thrown if the old cache couldn't be read
+     */
+    private long evictionCutoff(int room) throws IOException {
+        // Collect the last-used times of the old records we didn't touch this run:
+        long[] lastUsed = new long[recordCount];
+        int count = 0;
+        RecordScanner old = new RecordScanner();
+        ByteBuffer record;
+        while ((record = old.next()) != null) {
+            if (!updates.containsKey(new Key(record.getLong(0), record.getLong(8)))) {
+                lastUsed[count++] = record.getLong(LAST_USED_OFFSET);
+            }
+        }
+        if (count <= room) return Long.MIN_VALUE;
+        if (room <= 0) return Long.MAX_VALUE;
+        // Sort them and find the time that leaves only the newest ones.  (Ties at the cutoff may evict a few extra.)
+        Arrays.sort(lastUsed, 0, count);
+        return lastUsed[count - room - 1];
+    }
+
+    /**
+     * Binary search the existing records for a key
+     * @param key The Key to look for
+     * @return The index of the matching record, or -1 if it isn't there
+     * @throws IOException Thrown if the old cache couldn't be read
+     */
+    private int find(Key key) throws IOException {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = keyAt(middle).compareTo(key);
+            if (order < 0) low = middle + 1;
+            else if (order > 0) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the key of an existing record
+     * @param index The index of the record
+     * @return The record's Key
+     * @throws IOException Thrown if the old cache couldn't be read
+     */
+    private Key keyAt(int index) throws IOException {
+        ByteBuffer key = read(records, HEADER_SIZE + (long) index * RECORD_SIZE, KEY_SIZE);
+        return new Key(key.getLong(0), key.getLong(8));
+    }
+
+    /**
+     * Read a block of bytes from a channel at a given position.  Positional reads don't move the channel's position,
+     * so any number of threads can do this at once.
+     * @param channel The FileChannel to read from
+     * @param position The position to start reading at
+     * @param length The number of bytes to read
+     * @return A ByteBuffer holding the bytes, positioned at the start
+     * @throws IOException Thrown if the read failed or the file ended early
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Hash cache ended unexpectedly");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Build the cache key for a file
+     * @param file The scanned DCFile
+     * @param algorithm The name of the hash algorithm
+     * @return The file's Key
+     */
+    private static Key key(DCFile file, String algorithm) {
+        MessageDigest md5 = KEY_DIGEST.get();
+        String identity = file.getPathString() + '\0' + file.getSize() + '\0' + file.getLastModified() + '\0' +
+                (file.getFileKey() == null ? "" : file.getFileKey().toString()) + '\0' + algorithm;
+        ByteBuffer digest = ByteBuffer.wrap(md5.digest(identity.getBytes(StandardCharsets.UTF_8)));
+        return new Key(digest.getLong(), digest.getLong());
+    }
+
+    /**
+     * Reads the old cache's records in order, a block at a time
+     */
+    private class RecordScanner {
+
+        // The number of records to read at a time
+        private static final int BLOCK_RECORDS = 1024;
+
+        // The index of the next record to read from the file, and the block we've read so far
+        private int nextIndex = 0;
+        private ByteBuffer block = ByteBuffer.allocate(0);
+
+        /**
+         * Get the next record
+         * @return A ByteBuffer holding just the next record, or null if there are no more
+         * @throws IOException Thrown if the old cache couldn't be read
+         */
+        ByteBuffer next() throws IOException {
+            if (!block.hasRemaining()) {
+                if (nextIndex >= recordCount) return null;
+                int count = Math.min(BLOCK_RECORDS, recordCount - nextIndex);
+                block = read(records, HEADER_SIZE + (long) nextIndex * RECORD_SIZE, count * RECORD_SIZE);
+                nextIndex += count;
+            }
+            ByteBuffer record = block.slice();
+            record.limit(RECORD_SIZE);
+            block.position(block.position() + RECORD_SIZE);
+            return record;
+        }
+
+    }
+
+    /**
+     * A cache key: the 128-bit MD5 hash of a file's identity, split into two longs.  Keys sort as unsigned numbers,
+     * which is the same order as their bytes.
+     */
+    private static class Key implements Comparable<Key> {
+
+        final long high;
+        final long low;
+
+        Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int order = Long.compareUnsigned(high, other.high);
+            return order != 0 ? order : Long.compareUnsigned(low, other.low);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).high == high && ((Key) other).low == low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+
+    }
+
+    /**
+     * A cache entry added or used during this run
+     */
+    private static class Entry {
+
+        final Key key;
+        final long lastUsed;
+        final byte[] digest;
+
+        Entry(Key key, long lastUsed, byte[] digest) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+            this.digest = digest;
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * DEEP COMPARE: HashCacheChain
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * Two hash caches used together.  Lookups try the first cache, then fall back to the second; new digests are stored
+ * in both.  This lets the per-file extended attribute cache and the central cache file work side by side.  A digest
+ * found in the first cache is stored in the second one as well, so the second cache knows it's still in use and
+ * doesn't evict it.  That way, if the first cache is ever lost (say, the files were copied without their extended
+ * attributes), the second one still has everything.
+ */
+public class HashCacheChain implements IHashCache {
+
+    /**
+     * The cache to try first
+     */
+    @Getter
+    private final IHashCache first;
+
+    /**
+     * The cache to fall back on
+     */
+    @Getter
+    private final IHashCache second;
+
+    /**
+     * Constructor
+     * @param first The IHashCache to try first
+     * @param second The IHashCache to fall back on
+     */
+    public HashCacheChain(IHashCache first, IHashCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public byte[] lookup(DCFile file, String algorithm) {
+        byte[] digest = first.lookup(file, algorithm);
+        if (digest != null) {
+            // Keep the second cache's entry fresh too:
+            second.store(file, algorithm, digest);
+            return digest;
+        }
+        digest = second.lookup(file, algorithm);
+        // Fill in the first cache, so next time we find it there:
+        if (digest != null) first.store(file, algorithm, digest);
+        return digest;
+    }
+
+    @Override
+    public void store(DCFile file, String algorithm, byte[] digest) {
+        first.store(file, algorithm, digest);
+        second.store(file, algorithm, digest);
+    }
+
+    @Override
+    public long getHits() {
+        return first.getHits() + second.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        // The second cache only sees the lookups the first one missed, so its misses are the ones that count:
+        return second.getMisses();
+    }
+
+    @Override
+    public String getName() {
+        return first.getName() + ", " + second.getName();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            first.close();
+        } finally {
+            second.close();
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * DEEP COMPARE: HashJournal
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A journal of the digests computed during a single comparison, kept beside the log file so that an interrupted
+ * comparison can pick up where it left off.  Every digest is appended to the journal as soon as its file is hashed, and
+ * the journal is flushed to disk at regular checkpoints, so a crash or reboot loses at most the last few seconds of
+ * work.  Checkpoints run on a timer of their own, so digests don't sit in a buffer while a long file is hashed.  When a
+ * comparison is resumed, the trees are scanned again (a stale scan can't be trusted), and every file whose size and
+ * modification time still match its journal entry takes its digest from the journal instead of being read.
+ * <p>
+ * The journal is used like any other hash cache, and it starts with a header naming the source and target, so it's
+ * only ever resumed by a comparison of the same two things.  It's deleted once the comparison finishes, since there's
+ * nothing left to resume.
+ */
+public class HashJournal implements IHashCache {
+
+    /**
+     * The name of the journal file, which is written in the log directory
+     */
+    public static final String FILE_NAME = "deep-compare.journal";
+
+    // The magic number at the start of every journal
+    private static final long MAGIC = 0x44434A524E4C0001L;
+
+    // How often to flush the journal to disk, in milliseconds
+    private static final long CHECKPOINT_INTERVAL = 5000L;
+
+    // The digests recovered from a previous run, keyed by path and algorithm.  Null if we're not resuming.
+    private final Map<String, Record> recovered;
+
+    // The channel and stream we append to
+    private final FileChannel channel;
+    private final DataOutputStream out;
+
+    // The timer that flushes the journal to disk every CHECKPOINT_INTERVAL
+    private final ScheduledExecutorService checkpointer;
+
+    // Set if anything has been written since the last checkpoint
+    private boolean dirty = false;
+
+    // Set if writing to the journal ever fails, after which we stop trying
+    private boolean failed = false;
+
+    // Set once the journal is closed
+    private boolean closed = false;
+
+    // Our hit and miss counters
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of digests recovered from the previous run
+     */
+    @Getter
+    private final int recoveredCount;
+
+    /**
+     * Constructor.  This either starts a new journal, replacing any old one, or reopens an existing one to resume.
+     * @param path The Path to the journal file
+     * @param source The source path (or manifest) being compared
+     * @param target The target path (or manifest) being compared, or written
+     * @param resume True to resume from the existing journal if it's for the same comparison, false to start over
+     * @throws IOException Thrown if the journal can't be read or written
+     */
+    public HashJournal(Path path, String source, String target, boolean resume) throws IOException {
+        // If we're resuming, read back everything the last run got down, stopping at the first record that was only
+        // partly written when it was interrupted.  That's where we'll carry on from.
+        long validLength = -1L;
+        if (resume && isResumable(path, source, target)) {
+            recovered = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                validLength = readHeader(in);
+                try {
+                    while (true) {
+                        String filePath = in.readUTF();
+                        String algorithm = in.readUTF();
+                        long size = in.readLong();
+                        long lastModified = in.readLong();
+                        byte[] digest = new byte[in.readUnsignedByte()];
+                        in.readFully(digest);
+                        recovered.put(key(filePath, algorithm), new Record(size, lastModified, digest));
+                        validLength += 2 + utfLength(filePath) + 2 + utfLength(algorithm) + 8 + 8 + 1 + digest.length;
+                    }
+                } catch (EOFException | UTFDataFormatException ignored) { }
+            }
+        } else {
+            recovered = null;
+        }
+        recoveredCount = recovered == null ? 0 : recovered.size();
+        if (validLength >= 0L) {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeLong(MAGIC);
+            out.writeUTF(source);
+            out.writeUTF(target);
+            checkpoint();
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::timedCheckpoint, CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the path of the journal for a given log directory
+     * @param logDirectory The path to the log directory
+     * @return The Path to the journal file
+     */
+    public static Path journalPath(String logDirectory) {
+        return Paths.get(logDirectory, FILE_NAME).toAbsolutePath();
+    }
+
+    /**
+     * Check whether there's a journal that a comparison of these two paths could resume from
+     * @param path The Path to the journal file
+     * @param source The source path (or manifest) to be compared
+     * @param target The target path (or manifest) to be compared, or written
+     * @return True if the journal exists and was written by a comparison of the same two paths
+     */
+    public static boolean isResumable(Path path, String source, String target) {
+        if (!Files.isRegularFile(path)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readLong() != MAGIC) return false;
+            return in.readUTF().equals(source) && in.readUTF().equals(target);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete a finished journal, if there is one
+     * @param path The Path to the journal file
+     * @throws IOException Thrown if the journal exists but can't be deleted
+     */
+    public static void delete(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public byte[] lookup(DCFile file, String algorithm) {
+        Record record = recovered == null ? null : recovered.get(key(file.getPathString(), algorithm));
+        if (record != null && record.size == file.getSize() && record.lastModified == file.getLastModified()) {
+            hits.incrementAndGet();
+            return record.digest;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public synchronized void store(DCFile file, String algorithm, byte[] digest) {
+        if (failed || closed || digest == null) return;
+        try {
+            out.writeUTF(file.getPathString());
+            out.writeUTF(algorithm);
+            out.writeLong(file.getSize());
+            out.writeLong(file.getLastModified());
+            out.writeByte(digest.length);
+            out.write(digest);
+            dirty = true;
+        } catch (IOException ex) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String getName() {
+        return Main.RESOURCES.getString("engine.log.hash.cache.name.journal");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Don't interrupt a checkpoint in progress; that would close the channel out from under it.  Just let it
+        // finish, and cancel the ones still to come.
+        checkpointer.shutdown();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            try {
+                if (!failed) checkpoint();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Run a checkpoint from the timer, if anything has been written since the last one
+     */
+    private synchronized void timedCheckpoint() {
+        if (failed || closed || !dirty) return;
+        try {
+            checkpoint();
+        } catch (IOException ex) {
+            failed = true;
+        }
+    }
+
+    /**
+     * Flush everything written so far all the way to the disk, so it survives a crash or power loss
+     * @throws IOException Thrown if the journal can't be written
+     */
+    private synchronized void checkpoint() throws IOException {
+        out.flush();
+        channel.force(false);
+        dirty = false;
+    }
+
+    /**
+     * Read the journal header
+     * @param in The DataInputStream to read from
+     * @return The length of the header in bytes
+     * @throws IOException Thrown if the header can't be read
+     */
+    private static long readHeader(DataInputStream in) throws IOException {
+        in.readLong();
+        String source = in.readUTF();
+        String target = in.readUTF();
+        return 8 + 2 + utfLength(source) + 2 + utfLength(target);
+    }
+
+    /**
+     * Work out how many bytes DataOutputStream.writeUTF() writes for a string, not counting the length prefix
+     * @param s The String to measure
+     * @return The encoded length in bytes
+     */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) length++;
+            else if (c > 0x07ff) length += 3;
+            else length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * Build the key a digest is recovered under
+     * @param path The file's full path
+     * @param algorithm The name of the hash algorithm (plus anything else that affects the digest)
+     * @return The key
+     */
+    private static String key(String path, String algorithm) {
+        return path + '\0' + algorithm;
+    }
+
+    /**
+     * A digest recovered from the journal, along with what the file looked like when it was hashed
+     */
+    private static class Record {
+
+        final long size;
+        final long lastModified;
+        final byte[] digest;
+
+        Record(long size, long lastModified, byte[] digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * DEEP COMPARE: HashProviders
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The registry of every hash algorithm Deep Compare knows about.  On first use, this loads all the IHashProvider
+ * implementations on the class path (our own built-in providers as well as any plug-ins) and maps each algorithm name
+ * to the provider that offers it.  If two providers offer the same name, the first one found wins, so a plug-in can't
+ * quietly replace one of the standard hashes.
+ */
+public final class HashProviders {
+
+    // Map each algorithm name to its provider, in the order they were discovered
+    private static final Map<String, IHashProvider> PROVIDERS = new LinkedHashMap<>();
+    static {
+        // Our built-in providers come first so they're always listed in the same order and always take precedence.
+        // Then pick up any plug-ins the service loader can find.  A broken plug-in shouldn't take the whole program
+        // down, so skip any provider that fails to load.
+        register(new JCAHashProvider());
+        register(new FastHashProvider());
+        Iterator<IHashProvider> iterator = ServiceLoader.load(IHashProvider.class).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) break;
+                register(iterator.next());
+            } catch (ServiceConfigurationError ignored) { }
+        }
+    }
+
+    private HashProviders() { }
+
+    /**
+     * Get the names of all available hash algorithms
+     * @return An unmodifiable List of algorithm names
+     */
+    public static List<String> getAlgorithms() {
+        return Collections.unmodifiableList(new ArrayList<>(PROVIDERS.keySet()));
+    }
+
+    /**
+     * Create a new hasher for the named algorithm
+     * @param algorithm The name of the hash algorithm
+     * @return A new IHasher instance
+     * @throws NoSuchAlgorithmException Thrown if no provider offers the algorithm
+     */
+    public static IHasher newHasher(String algorithm) throws NoSuchAlgorithmException {
+        IHashProvider provider = PROVIDERS.get(algorithm);
+        if (provider == null) {
+            throw new NoSuchAlgorithmException("Hash algorithm not recognized: " + algorithm);
+        }
+        return provider.newHasher(algorithm);
+    }
+
+    /**
+     * Add a provider's algorithms to the registry, skipping any names we already have
+     * @param provider The IHashProvider to register
+     */
+    private static void register(IHashProvider provider) {
+        for (String algorithm : provider.getAlgorithms()) {
+            if (!PROVIDERS.containsKey(algorithm)) PROVIDERS.put(algorithm, provider);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * DEEP COMPARE: HashSchedule
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The order in which the worker pool hands files out to its threads.  None of these change the results, since each
+ * file's hash only depends on its own contents, but they can make a big difference to how long the hashing takes:
+ * <ul>
+ *     <li>Depth-first is the order the files were found in, one folder at a time.  This is the default.</li>
+ *     <li>Largest-first starts the biggest files first, so that with several threads, one huge file doesn't arrive
+ *     at the end and leave a single thread grinding away while the others sit idle.</li>
+ *     <li>Smallest-first gets through as many files as possible early on, which gives quick feedback on trees with lots
+ *     of small files.</li>
+ *     <li>Physical order sorts files by inode number, which on most Unix file systems roughly follows where the files
+ *     live on the disk, cutting down on seeks for spinning disks.  Where inode numbers aren't available, files are
+ *     left in the order they were found.</li>
+ * </ul>
+ */
+public enum HashSchedule {
+
+    DEPTH_FIRST("depth-first"),
+    LARGEST_FIRST("largest-first"),
+    SMALLEST_FIRST("smallest-first"),
+    PHYSICAL("physical");
+
+    /**
+     * The name of this schedule, as given on the command line and written to the log
+     */
+    @Getter
+    private final String label;
+
+    /**
+     * Constructor
+     * @param label The name of this schedule
+     */
+    HashSchedule(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Find a schedule by its name
+     * @param label The name of the schedule, as returned by getLabel()
+     * @return The matching HashSchedule
+     * @throws IllegalArgumentException Thrown if there's no schedule by that name
+     */
+    public static HashSchedule fromLabel(String label) throws IllegalArgumentException {
+        for (HashSchedule schedule : values()) {
+            if (schedule.label.equalsIgnoreCase(label)) return schedule;
+        }
+        throw new IllegalArgumentException("Unknown hashing schedule: " + label);
+    }
+
+    /**
+     * Put a list of work items in this schedule's order.  The list itself is left alone, since callers often rely on
+     * the positions of the items in it; a sorted copy is returned instead.  The sort is stable, so files that tie
+     * (such as files of the same size) stay in the order they were found.
+     * @param items The List of items to order
+     * @param fileOf A Function giving the DCFile each item is ordered by
+     * @param <T> The type of work item
+     * @return A new List with the same items in schedule order
+     */
+    public <T> List<T> order(List<T> items, Function<T, DCFile> fileOf) {
+        List<T> ordered = new ArrayList<>(items);
+        switch (this) {
+            case LARGEST_FIRST:
+                ordered.sort(Comparator.comparingLong((T item) -> fileOf.apply(item).getSize()).reversed());
+                break;
+            case SMALLEST_FIRST:
+                ordered.sort(Comparator.comparingLong((T item) -> fileOf.apply(item).getSize()));
+                break;
+            case PHYSICAL:
+                ordered.sort(Comparator.comparingLong((T item) -> inode(fileOf.apply(item))));
+                break;
+            default:
+                break;
+        }
+        return ordered;
+    }
+
+    /**
+     * Get a file's inode number, as noted when the file was scanned
+     * @param file The DCFile to look up
+     * @return The inode number, or Long.MAX_VALUE if it isn't available, which sorts the file after those we do know
+     */
+    private static long inode(DCFile file) {
+        return file.getInode() < 0L ? Long.MAX_VALUE : file.getInode();
+    }
+
+}
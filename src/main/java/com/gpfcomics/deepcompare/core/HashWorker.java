@@ -0,0 +1,122 @@
+/*
+ * DEEP COMPARE: HashWorker
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A hash worker holds the state that a single hashing thread needs to do its job.  Hashers are not thread-safe,
+ * so every thread in the HashWorkerPool gets its own worker (and thus its own hasher instance) rather than
+ * sharing one across the whole comparison.  Each worker also owns a small pool of read buffers that it reuses for every
+ * file it hashes.
+ */
+public class HashWorker {
+
+    /**
+     * The IHasher this worker uses to hash files
+     */
+    @Getter
+    private final IHasher hasher;
+
+    /**
+     * Files at least this many bytes in size will be memory-mapped for hashing rather than read through a stream.  A
+     * value of zero turns memory-mapping off.
+     */
+    @Getter
+    private final long mappedThreshold;
+
+    /**
+     * This worker's pool of reusable read buffers
+     */
+    @Getter
+    private final BufferPool buffers;
+
+    /**
+     * An aligned buffer for reading files with direct I/O, bypassing the operating system's cache.  Null if direct I/O
+     * is turned off or isn't available on this runtime.
+     */
+    @Getter
+    private final ByteBuffer directBuffer;
+
+    /**
+     * This worker's reader thread, which reads files ahead of the hasher so the two overlap.  Null if read-ahead is
+     * turned off.
+     */
+    @Getter
+    private final ReadAhead readAhead;
+
+    // The Throttle shared by every worker in the comparison.  May be null if reading isn't throttled.
+    private final Throttle throttle;
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @throws NoSuchAlgorithmException Thrown if the hash algorithm in the options is not available
+     */
+    public HashWorker(ComparisonOptions options) throws NoSuchAlgorithmException {
+        this(options, null);
+    }
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @param throttle The Throttle to apply to every read.  May be null if reading isn't throttled.
+     * @throws NoSuchAlgorithmException Thrown if the hash algorithm in the options is not available
+     */
+    public HashWorker(ComparisonOptions options, Throttle throttle) throws NoSuchAlgorithmException {
+        this.throttle = throttle;
+        this.hasher = HashProviders.newHasher(options.getHash());
+        this.mappedThreshold = options.getMappedThreshold();
+        // We need two buffers to compare a pair of files side by side, but one will do for hashing:
+        this.buffers = new BufferPool(
+                options.isByteCompare() || options.isVerifyMatches() ? 2 : 1,
+                options.getBufferSize()
+        );
+        this.directBuffer = options.isDirectIo() ? DirectIO.allocate(options.getBufferSize()) : null;
+        this.readAhead = options.getReadAheadBuffers() > 0 ?
+                new ReadAhead(this, options.getReadAheadBuffers(), options.getBufferSize()) : null;
+    }
+
+    /**
+     * Check whether a file of a given size should be read through our reader thread.  Files we memory-map or read with
+     * direct I/O are read the usual way.
+     * @param length The number of bytes to be read
+     * @return True if the file should be read ahead
+     */
+    public boolean canReadAhead(long length) {
+        return readAhead != null && directBuffer == null && (mappedThreshold <= 0L || length < mappedThreshold);
+    }
+
+    /**
+     * Release anything this worker holds that won't clean itself up, namely the reader thread
+     */
+    public void close() {
+        if (readAhead != null) readAhead.close();
+    }
+
+    /**
+     * Account for a number of bytes just read, waiting if the comparison is over its byte rate or paused
+     * @param bytes The number of bytes read
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    public void throttleBytes(long bytes) throws InterruptedIOException {
+        if (throttle != null) throttle.acquireBytes(bytes);
+    }
+
+    /**
+     * Account for a file about to be opened, waiting if the comparison is over its file rate or paused
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    public void throttleFile() throws InterruptedIOException {
+        if (throttle != null) throttle.acquireFile();
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * DEEP COMPARE: HashWorkerPool
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.BufferedWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The hash worker pool takes a flat list of files and hashes them using a fixed number of threads.  Each thread gets
+ * its own HashWorker, so no digest state is ever shared, and pulls the next file off a shared queue as soon as it
+ * finishes its current one.  Each file's hash only depends on its own contents, so the results are identical no matter
+ * how many threads we use or in what order the files finish.  With a single thread, the files are simply hashed in
+ * order on the calling thread, just as they always have been.
+ */
+public class HashWorkerPool {
+
+    // Our comparison options
+    private final ComparisonOptions options;
+
+    // The number of threads to hash with
+    private final int threads;
+
+    // The hash progress listener to notify of hash updates.  If we're running more than one thread, this will be
+    // wrapped so that only one thread talks to it at a time.
+    private final IHashProgressListener listener;
+
+    // The log file to write errors to.  May be null if no log is to be written.
+    private final BufferedWriter log;
+
+    // The hash cache to consult before hashing a file.  May be null if we're not using one.
+    private final IHashCache cache;
+
+    // The throttle to apply to every read.  May be null if reading isn't throttled.
+    private final Throttle throttle;
+
+    // The controller that decides how many of our threads are active at a time.  Null unless adaptive threading is on.
+    private final ConcurrencyController controller;
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @param threads The number of threads to hash with.  Values less than one will be treated as one.
+     * @param listener An IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is to be written.
+     */
+    public HashWorkerPool(
+            ComparisonOptions options,
+            int threads,
+            IHashProgressListener listener,
+            BufferedWriter log
+    ) {
+        this(options, threads, listener, log, null);
+    }
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @param threads The number of threads to hash with.  Values less than one will be treated as one.
+     * @param listener An IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is to be written.
+     * @param cache An IHashCache to consult before hashing each file.  May be null if no cache is to be used.
+     */
+    public HashWorkerPool(
+            ComparisonOptions options,
+            int threads,
+            IHashProgressListener listener,
+            BufferedWriter log,
+            IHashCache cache
+    ) {
+        this(options, threads, listener, log, cache, null);
+    }
+
+    /**
+     * Constructor
+     * @param options A ComparisonOptions object with our comparison options
+     * @param threads The number of threads to hash with.  Values less than one will be treated as one.
+     * @param listener An IHashProgressListener to report progress to
+     * @param log An open BufferedWriter representing the log file.  May be null if no log is to be written.
+     * @param cache An IHashCache to consult before hashing each file.  May be null if no cache is to be used.
+     * @param throttle A Throttle shared by all of our workers.  May be null if reading isn't to be throttled.
+     */
+    public HashWorkerPool(
+            ComparisonOptions options,
+            int threads,
+            IHashProgressListener listener,
+            BufferedWriter log,
+            IHashCache cache,
+            Throttle throttle
+    ) {
+        this.options = options;
+        // With adaptive threading, the thread count is the most we may use.  Start that many threads, and let the
+        // controller decide how many of them actually work:
+        this.threads = Math.max(threads, 1);
+        IHashProgressListener safeListener = this.threads > 1 &&
+                !(listener instanceof SynchronizedHashProgressListener) ?
+                new SynchronizedHashProgressListener(listener) : listener;
+        if (options.isAdaptiveThreads() && this.threads > 1) {
+            this.controller = new ConcurrencyController(this.threads, safeListener, log);
+            this.listener = controller;
+        } else {
+            this.controller = null;
+            this.listener = safeListener;
+        }
+        this.log = log;
+        this.cache = cache;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Generate the cryptographic hashes for all files in the list
+     * @param files A List of DCFiles to hash
+     * @throws Exception Thrown if a worker could not be created, if a worker thread blows up, or if we were
+     * interrupted while waiting for the workers to finish
+     */
+    public void hash(List<DCFile> files) throws Exception {
+        // If tree hashing is turned on, split files big enough to qualify into regions and make each region its own
+        // job.  The regions of a file are queued together, so all our threads can pile onto one huge file at once
+        // instead of leaving it to a single thread while the others sit idle.  Tree-hashed files are checked against
+        // the cache up front, since there's no single job that hashes them.  With asynchronous I/O turned on, whole
+        // files are handed to the asynchronous engine instead, which keeps many reads in flight from the calling
+        // thread.  With read-ahead, whole files are checked against the cache up front too, so we never read ahead a
+        // file we already have a digest for.
+        boolean async = options.getAsyncQueueDepth() > 0;
+        boolean readAhead = options.getReadAheadBuffers() > 0;
+        long threshold = options.getTreeHashThreshold();
+        List<HashJob> jobs = new ArrayList<>(files.size());
+        List<DCFile> treeFiles = new ArrayList<>();
+        List<DCFile> asyncFiles = new ArrayList<>();
+        for (DCFile file : options.getHashSchedule().order(files, file -> file)) {
+            if (threshold > 0L && file.getSize() >= threshold) {
+                if (useCachedHash(file)) continue;
+                int regions = file.prepareRegions(options.getTreeRegionSize());
+                for (int i = 0; i < regions; i++) jobs.add(new HashJob(file, i));
+                treeFiles.add(file);
+            } else if (async) {
+                if (!useCachedHash(file)) asyncFiles.add(file);
+            } else if (!readAhead || !useCachedHash(file)) {
+                jobs.add(new HashJob(file, HashJob.WHOLE_FILE));
+            }
+        }
+        run(jobs, (worker, job) -> {
+            if (job.region != HashJob.WHOLE_FILE) {
+                job.file.hashRegion(job.region, worker, listener, log);
+            } else if (readAhead || !useCachedHash(job.file)) {
+                job.file.hash(worker, listener, log);
+                if (cache != null) cache.store(job.file, cacheAlgorithm(job.file), job.file.getHash());
+            }
+        }, (worker, job) -> {
+            if (job.region == HashJob.WHOLE_FILE) job.file.prefetch(worker);
+        });
+        if (!asyncFiles.isEmpty()) {
+            new AsyncHashEngine(options, listener, log, throttle).hash(asyncFiles, file -> {
+                if (cache != null) cache.store(file, cacheAlgorithm(file), file.getHash());
+            });
+        }
+        // Now that all the regions are done, cache the tree hashes as well:
+        if (cache != null) {
+            for (DCFile file : treeFiles) cache.store(file, cacheAlgorithm(file), file.getHash());
+        }
+    }
+
+    /**
+     * Check the cache for a file's digest, and if we find it, use it instead of hashing the file.  The file's bytes are
+     * still counted toward our progress, since they were included in the total we're reading.
+     * @param file The DCFile to look up
+     * @return True if the cached digest was used, false if the file still needs to be hashed
+     */
+    private boolean useCachedHash(DCFile file) {
+        if (cache == null) return false;
+        byte[] digest = cache.lookup(file, cacheAlgorithm(file));
+        if (digest == null) return false;
+        file.setHash(digest);
+        listener.updateProgress(file.getSize());
+        return true;
+    }
+
+    /**
+     * Build the name under which a file's digest is cached.  A tree hash is a different value from a plain hash of the
+     * same file, and depends on the region size, so those get folded into the name.
+     * @param file The DCFile being hashed
+     * @return The algorithm name to cache the digest under
+     */
+    private String cacheAlgorithm(DCFile file) {
+        long threshold = options.getTreeHashThreshold();
+        if (threshold > 0L && file.getSize() >= threshold) {
+            return options.getHash() + "/tree/" + options.getTreeRegionSize();
+        }
+        return options.getHash();
+    }
+
+    /**
+     * Take a quick fingerprint of the beginning and end of each file in the list
+     * @param files A List of DCFiles to fingerprint
+     * @throws Exception Thrown if a worker could not be created, if a worker thread blows up, or if we were
+     * interrupted while waiting for the workers to finish
+     */
+    public void fingerprint(List<DCFile> files) throws Exception {
+        run(files, (worker, file) -> file.fingerprint(worker));
+    }
+
+    /**
+     * Compare the contents of pairs of files byte-for-byte.  The two lists should be the same length, with each file in
+     * the first list paired with the file at the same position in the second list.
+     * @param ourFiles A List of DCFiles from one tree
+     * @param companionFiles A List of the companion DCFiles from the other tree
+     * @throws Exception Thrown if a worker could not be created, if a worker thread blows up, or if we were
+     * interrupted while waiting for the workers to finish
+     */
+    public void compareContents(List<DCFile> ourFiles, List<DCFile> companionFiles) throws Exception {
+        List<DCFile[]> pairs = new ArrayList<>(ourFiles.size());
+        for (int i = 0; i < ourFiles.size(); i++) {
+            pairs.add(new DCFile[] { ourFiles.get(i), companionFiles.get(i) });
+        }
+        pairs = options.getHashSchedule().order(pairs, pair -> pair[0]);
+        run(pairs, (worker, pair) -> pair[0].compareContents(pair[1], worker, listener, log));
+    }
+
+    /**
+     * Run a task over every item in a list, spreading the work over our threads
+     * @param items The List of items to process
+     * @param task The Task to perform on each item
+     * @param <T> The type of item to process
+     * @throws Exception Thrown if a worker could not be created, if a worker thread blows up, or if we were
+     * interrupted while waiting for the workers to finish
+     */
+    private <T> void run(List<T> items, Task<T> task) throws Exception {
+        run(items, task, null);
+    }
+
+    /**
+     * Run a task over every item in a list, spreading the work over our threads.  If read-ahead is turned on, each
+     * thread claims its next item before it starts on the current one, so its reader can get started on it early.
+     * @param items The List of items to process
+     * @param task The Task to perform on each item
+     * @param prefetch The Task that gets an item ready before the main task reaches it.  May be null if there's nothing
+     * to get ready.
+     * @param <T> The type of item to process
+     * @throws Exception Thrown if a worker could not be created, if a worker thread blows up, or if we were
+     * interrupted while waiting for the workers to finish
+     */
+    private <T> void run(List<T> items, Task<T> task, Task<T> prefetch) throws Exception {
+        if (options.getReadAheadBuffers() <= 0) prefetch = null;
+        // If we've only got one thread (or there's only one thing to do), there's no point spinning up an executor.
+        // Just do the work here.  We'll still check for interruptions between items so a cancelled comparison stops
+        // promptly.
+        if (threads == 1 || items.size() <= 1) {
+            HashWorker worker = new HashWorker(options, throttle);
+            try {
+                if (prefetch != null && !items.isEmpty()) prefetch.process(worker, items.get(0));
+                for (int i = 0; i < items.size(); i++) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                    if (prefetch != null && i + 1 < items.size()) prefetch.process(worker, items.get(i + 1));
+                    task.process(worker, items.get(i));
+                }
+            } finally {
+                worker.close();
+            }
+            return;
+        }
+        // Otherwise, start up our threads.  Rather than submitting one job per item (which could mean millions of
+        // futures), each thread loops, grabbing the index of the next unclaimed item until there are none left.
+        // If the controller is in charge, a thread also has to wait for its turn before taking an item, so it can't
+        // claim one ahead; it can still read ahead within the item it's working on.
+        AtomicInteger next = new AtomicInteger(0);
+        Task<T> lookahead = controller == null ? prefetch : null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        if (controller != null) controller.start();
+        try {
+            for (int i = 0; i < threads; i++) {
+                final int slot = i;
+                futures.add(executor.submit(() -> {
+                    HashWorker worker = null;
+                    try {
+                        worker = new HashWorker(options, throttle);
+                        if (lookahead != null) {
+                            int index = next.getAndIncrement();
+                            if (index < items.size()) lookahead.process(worker, items.get(index));
+                            while (index < items.size()) {
+                                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                                int following = next.getAndIncrement();
+                                if (following < items.size()) lookahead.process(worker, items.get(following));
+                                task.process(worker, items.get(index));
+                                index = following;
+                            }
+                        } else {
+                            int index;
+                            while ((controller == null || controller.awaitTurn(slot)) &&
+                                    (index = next.getAndIncrement()) < items.size()) {
+                                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                                task.process(worker, items.get(index));
+                            }
+                        }
+                    } finally {
+                        if (worker != null) worker.close();
+                        // Whether the work has run out or this thread blew up, don't leave any idle threads waiting
+                        // for a turn that won't come:
+                        if (controller != null) controller.finish();
+                    }
+                    return null;
+                }));
+            }
+            executor.shutdown();
+            // Wait for everyone to finish.  If any thread blew up, pass along the original cause rather than the
+            // execution wrapper.
+            for (Future<Void> future : futures) {
+                try {
+                    await(future);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Exception) throw (Exception) ex.getCause();
+                    throw ex;
+                }
+            }
+            if (controller != null) controller.report();
+        } finally {
+            // If we're bailing out early (error or cancellation), make sure the remaining threads stop too:
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for a worker thread to finish.  If the controller is in charge, wake up regularly while we wait so it can
+     * measure our throughput and adjust the number of active threads.
+     * @param future The Future of the worker thread
+     * @throws Exception Thrown if the worker blew up or if we were interrupted while waiting
+     */
+    private void await(Future<Void> future) throws Exception {
+        if (controller == null) {
+            future.get();
+            return;
+        }
+        while (true) {
+            try {
+                future.get(ConcurrencyController.SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException ex) {
+                controller.sample();
+            }
+        }
+    }
+
+    /**
+     * A single hashing job: either a whole file or one region of a file being hashed as a tree
+     */
+    private static class HashJob {
+
+        // The region index used to mean "hash the whole file"
+        static final int WHOLE_FILE = -1;
+
+        final DCFile file;
+        final int region;
+
+        HashJob(DCFile file, int region) {
+            this.file = file;
+            this.region = region;
+        }
+
+    }
+
+    /**
+     * A unit of work performed by a worker thread on a single item
+     * @param <T> The type of item to process
+     */
+    private interface Task<T> {
+        void process(HashWorker worker, T item) throws Exception;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * DEEP COMPARE: IHashCache
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A cache of file digests that survives from one comparison to the next.  If a file's path, size, modification time,
+ * file key and hash algorithm all match a cached entry, the cached digest can be trusted and the file doesn't need to
+ * be read at all.  Caches must be safe to use from several hashing threads at once.
+ */
+public interface IHashCache extends Closeable {
+
+    /**
+     * Look up the cached digest of a file
+     * @param file The scanned DCFile to look up
+     * @param algorithm The name of the hash algorithm (plus anything else that affects the digest)
+     * @return The cached digest, or null if there's no valid entry for the file
+     */
+    byte[] lookup(DCFile file, String algorithm);
+
+    /**
+     * Record the digest of a file that was just hashed
+     * @param file The DCFile that was hashed
+     * @param algorithm The name of the hash algorithm (plus anything else that affects the digest)
+     * @param digest The file's digest
+     */
+    void store(DCFile file, String algorithm, byte[] digest);
+
+    /**
+     * Get the number of lookups that found a valid entry
+     * @return The number of cache hits
+     */
+    long getHits();
+
+    /**
+     * Get the number of lookups that came up empty
+     * @return The number of cache misses
+     */
+    long getMisses();
+
+    /**
+     * Get a short description of the cache, for the log
+     * @return The cache's name
+     */
+    String getName();
+
+    /**
+     * Write out any changes and release the cache
+     * @throws IOException Thrown if the cache could not be saved
+     */
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,36 @@
+/*
+ * DEEP COMPARE: IHashProvider
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A source of hash algorithms.  Providers are discovered at start-up with the standard Java ServiceLoader mechanism,
+ * so a new algorithm can be added simply by dropping a JAR on the class path that lists its provider class in
+ * META-INF/services/com.gpfcomics.deepcompare.core.IHashProvider.  Every algorithm a provider offers shows up in the
+ * list of available hashes.  Implementations must have a public no-argument constructor.
+ */
+public interface IHashProvider {
+
+    /**
+     * Get the names of the algorithms this provider offers.  Only algorithms that actually work in the current runtime
+     * should be listed.  Names are matched exactly and should be upper case, since the command line upper-cases
+     * whatever the user types.
+     * @return A List of algorithm names
+     */
+    List<String> getAlgorithms();
+
+    /**
+     * Create a new hasher for one of this provider's algorithms
+     * @param algorithm The name of the algorithm
+     * @return A new IHasher instance
+     * @throws NoSuchAlgorithmException Thrown if this provider does not offer the algorithm
+     */
+    IHasher newHasher(String algorithm) throws NoSuchAlgorithmException;
+
+}
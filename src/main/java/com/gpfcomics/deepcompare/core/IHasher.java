@@ -0,0 +1,50 @@
+/*
+ * DEEP COMPARE: IHasher
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming hash function.  File contents are fed to the hasher in pieces as they're read, and the final digest is
+ * collected once the whole file has been seen.  Hashers are not expected to be thread-safe; each hashing thread gets
+ * its own instance from the IHashProvider that supplies the algorithm.
+ */
+public interface IHasher {
+
+    /**
+     * Feed the remaining bytes of a buffer to the hasher.  When this returns, the buffer's position will be at its
+     * limit.  Implementations should read direct buffers in place rather than copying them into an array if they can.
+     * @param input The ByteBuffer to consume
+     */
+    void update(ByteBuffer input);
+
+    /**
+     * Feed a portion of a byte array to the hasher
+     * @param input The array containing the bytes
+     * @param offset The index of the first byte to consume
+     * @param length The number of bytes to consume
+     */
+    void update(byte[] input, int offset, int length);
+
+    /**
+     * Finish the hash and return the digest.  The hasher is reset afterward, ready for the next file.
+     * @return The digest as an array of bytes
+     */
+    byte[] digest();
+
+    /**
+     * Throw away anything fed to the hasher so far and start over
+     */
+    void reset();
+
+    /**
+     * Get the length of the digests this hasher produces
+     * @return The length of the digest in bytes
+     */
+    int getDigestLength();
+
+}
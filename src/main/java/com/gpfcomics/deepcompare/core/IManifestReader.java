@@ -0,0 +1,44 @@
+/*
+ * DEEP COMPARE: IManifestReader
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of a manifest (a list of the files in a tree along with their digests) in order of path.  Whatever
+ * the manifest's format, entries always come out sorted, which lets a manifest be walked side by side with a sorted
+ * list of files or with another manifest.
+ */
+public interface IManifestReader extends Closeable {
+
+    /**
+     * Get the name of the hash algorithm the manifest was made with
+     * @return The algorithm name, or null if the manifest doesn't say
+     */
+    String getAlgorithm();
+
+    /**
+     * Get the tree hashing threshold the manifest was made with
+     * @return The threshold in bytes, or zero if tree hashing wasn't used
+     */
+    long getTreeHashThreshold();
+
+    /**
+     * Get the tree hashing region size the manifest was made with
+     * @return The region size in bytes, or zero if tree hashing wasn't used
+     */
+    long getTreeRegionSize();
+
+    /**
+     * Read the next file from the manifest
+     * @return The next TextManifest.Entry, or null if there are no more
+     * @throws IOException Thrown if the manifest can't be read or is badly formatted
+     */
+    TextManifest.Entry next() throws IOException;
+
+}
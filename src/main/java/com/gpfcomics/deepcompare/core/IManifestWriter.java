@@ -0,0 +1,27 @@
+/*
+ * DEEP COMPARE: IManifestWriter
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a manifest (a list of the files in a tree along with their digests), one file at a time.  Files must be
+ * written in order of path.  The manifest isn't complete until the writer is closed.
+ */
+public interface IManifestWriter extends Closeable {
+
+    /**
+     * Write a single file to the manifest
+     * @param path The path of the file relative to the root of the tree, with forward slashes
+     * @param size The size of the file in bytes
+     * @param digest The raw digest of the file
+     * @throws IOException Thrown if the manifest can't be written
+     */
+    void write(String path, long size, byte[] digest) throws IOException;
+
+}
@@ -0,0 +1,51 @@
+/*
+ * DEEP COMPARE: JCAHashProvider
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The built-in provider for the cryptographic hashes that come with the Java runtime.  Not all of these will be
+ * available everywhere, so we check which ones the runtime actually supports when the provider is created.
+ */
+public class JCAHashProvider implements IHashProvider {
+
+    // The hashes this runtime supports, in the order we'd like them listed
+    private final List<String> algorithms = new ArrayList<>();
+
+    public JCAHashProvider() {
+        // Try to instantiate each of the algorithms.  If it doesn't throw a NoSuchAlgorithmException, it's a keeper.
+        for (String hash : Arrays.asList(ComparisonOptions.HASH_MD5, ComparisonOptions.HASH_SHA1,
+                ComparisonOptions.HASH_SHA256, ComparisonOptions.HASH_SHA384, ComparisonOptions.HASH_SHA512,
+                ComparisonOptions.HASH_SHA512_224, ComparisonOptions.HASH_SHA512_256, ComparisonOptions.HASH_SHA3_224,
+                ComparisonOptions.HASH_SHA3_256, ComparisonOptions.HASH_SHA3_384, ComparisonOptions.HASH_SHA3_512)) {
+            try {
+                MessageDigest.getInstance(hash);
+                algorithms.add(hash);
+            } catch (NoSuchAlgorithmException ignored) { }
+        }
+    }
+
+    @Override
+    public List<String> getAlgorithms() {
+        return Collections.unmodifiableList(algorithms);
+    }
+
+    @Override
+    public IHasher newHasher(String algorithm) throws NoSuchAlgorithmException {
+        if (!algorithms.contains(algorithm)) {
+            throw new NoSuchAlgorithmException(algorithm + " is not a built-in Java hash");
+        }
+        return new MessageDigestHasher(MessageDigest.getInstance(algorithm));
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * DEEP COMPARE: MessageDigestHasher
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * An IHasher that simply passes everything along to a standard Java MessageDigest
+ */
+public class MessageDigestHasher implements IHasher {
+
+    // The wrapped digest
+    private final MessageDigest digest;
+
+    /**
+     * Constructor
+     * @param digest The MessageDigest to wrap
+     */
+    public MessageDigestHasher(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+        digest.update(input);
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int length) {
+        digest.update(input, offset, length);
+    }
+
+    @Override
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    @Override
+    public void reset() {
+        digest.reset();
+    }
+
+    @Override
+    public int getDigestLength() {
+        return digest.getDigestLength();
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * DEEP COMPARE: PreflightPlanner
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The preflight planner sizes up a comparison before it's run for real.  It scans both trees exactly as the comparison
+ * engine would, then reads a sample of the biggest files on each device for a few seconds, once with a single thread
+ * and once with several, and times the hash algorithm on its own.  From those figures it estimates how long each kind
+ * of comparison would take and suggests thread and buffer settings.  Like the engine, it's a Callable so it can run on
+ * its own thread.
+ * <p>
+ * The estimates are only as good as the sample.  Files that happen to be in the operating system's cache already will
+ * read much faster than the rest, so a preflight run straight after a comparison of the same trees will be optimistic.
+ */
+public class PreflightPlanner implements Callable<PreflightReport> {
+
+    // The most bytes to read from each file in the sample
+    private static final long PROBE_CHUNK = 32L * 1024L * 1024L;
+
+    // The most bytes to read in each probe
+    private static final long PROBE_BYTES = 256L * 1024L * 1024L;
+
+    // The longest each probe may run, in nanoseconds
+    private static final long PROBE_TIME = 3000000000L;
+
+    // The number of threads to use for the parallel probe
+    private static final int PROBE_THREADS = 4;
+
+    // How long to spend timing the hash algorithm, in nanoseconds
+    private static final long HASH_TIME = 500000000L;
+
+    // Parallel reads have to be at least this much faster than a single thread before we'll recommend them
+    private static final double PARALLEL_GAIN = 1.25;
+
+    // File system types that live across a network, which do better with bigger reads
+    private static final List<String> NETWORK_TYPES = Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "fuse.sshfs", "afpfs", "webdav"
+    );
+
+    // The buffer size we recommend for network file systems
+    private static final int NETWORK_BUFFER_SIZE = 1024 * 1024;
+
+    // The absolute path to the source directory
+    private final String sourcePath;
+
+    // The absolute path to the target directory
+    private final String targetPath;
+
+    // Our comparison options
+    private final ComparisonOptions options;
+
+    // The status listener to notify of status updates
+    private final IStatusListener statusListener;
+
+    /**
+     * Constructor
+     * @param sourcePath A String containing the source directory's absolute path
+     * @param targetPath A String containing the target directory's absolute path
+     * @param options A ComparisonOptions object
+     * @param statusListener An IStatusListener to notify of status changes
+     */
+    public PreflightPlanner(
+            String sourcePath,
+            String targetPath,
+            ComparisonOptions options,
+            IStatusListener statusListener
+    ) {
+        this.sourcePath = sourcePath;
+        this.targetPath = targetPath;
+        this.options = options;
+        this.statusListener = statusListener;
+    }
+
+    @Override
+    public PreflightReport call() throws Exception {
+        PreflightReport report = new PreflightReport();
+
+        // Scan both trees, just as a comparison would:
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.build.source.map"));
+        DCDirectory sourceDirectory = new DCDirectory(sourcePath);
+        sourceDirectory.scan(options, null);
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("engine.status.build.target.map"));
+        DCDirectory targetDirectory = new DCDirectory(targetPath);
+        targetDirectory.scan(options, null);
+        report.setSourceFiles(sourceDirectory.getCount());
+        report.setSourceBytes(sourceDirectory.getSize());
+        report.setTargetFiles(targetDirectory.getCount());
+        report.setTargetBytes(targetDirectory.getSize());
+        statusListener.updateTotalFiles(sourceDirectory.getCount() + targetDirectory.getCount());
+        statusListener.updateTotalBytes(sourceDirectory.getSize() + targetDirectory.getSize());
+
+        // Work out how much the pairing modes would actually read.  Pairs that are the same physical file are never
+        // read by any mode.
+        List<DCFile> sameFiles = new ArrayList<>();
+        sourceDirectory.resolveSameFiles(targetDirectory, sameFiles);
+        long sameFileBytes = 2L * totalSize(sameFiles);
+        report.setSameFileBytes(sameFileBytes);
+        List<DCFile> sourcePairs = new ArrayList<>();
+        List<DCFile> targetPairs = new ArrayList<>();
+        sourceDirectory.pairFiles(targetDirectory, sourcePairs, targetPairs);
+        report.setPairedFiles(sourcePairs.size() + targetPairs.size());
+        report.setPairedBytes(totalSize(sourcePairs) + totalSize(targetPairs));
+
+        // Time the hash algorithm on its own, so we know when the CPU rather than the disk will be holding us up:
+        statusListener.updateStatusMessage(Main.RESOURCES.getString("preflight.status.hash"));
+        report.setHashRate(hashRate());
+
+        // Probe the devices.  If both trees are on the same one, there's no sense in measuring it twice.
+        List<DCFile> sourceList = new ArrayList<>();
+        List<DCFile> targetList = new ArrayList<>();
+        sourceDirectory.collectFiles(sourceList);
+        targetDirectory.collectFiles(targetList);
+        report.setSameDevice(options.isAssumeSameDevice() || sameDevice());
+        report.setProbeThreads(PROBE_THREADS);
+        if (report.isSameDevice()) {
+            sourceList.addAll(targetList);
+            statusListener.updateStatusMessage(
+                    String.format(Main.RESOURCES.getString("preflight.status.probe"), sourcePath)
+            );
+            double[] rates = probe(sourceList);
+            report.setSourceRate(rates[0]);
+            report.setSourceParallelRate(rates[1]);
+            report.setTargetRate(rates[0]);
+            report.setTargetParallelRate(rates[1]);
+        } else {
+            statusListener.updateStatusMessage(
+                    String.format(Main.RESOURCES.getString("preflight.status.probe"), sourcePath)
+            );
+            double[] rates = probe(sourceList);
+            report.setSourceRate(rates[0]);
+            report.setSourceParallelRate(rates[1]);
+            statusListener.updateStatusMessage(
+                    String.format(Main.RESOURCES.getString("preflight.status.probe"), targetPath)
+            );
+            rates = probe(targetList);
+            report.setTargetRate(rates[0]);
+            report.setTargetParallelRate(rates[1]);
+        }
+
+        // Pick our recommendations and estimate how long each mode would take with them:
+        report.setSourceThreads(recommendThreads(report.getSourceRate(), report.getSourceParallelRate(),
+                report.getHashRate()));
+        report.setTargetThreads(recommendThreads(report.getTargetRate(), report.getTargetParallelRate(),
+                report.getHashRate()));
+        report.setBufferSize(recommendBufferSize());
+        estimate(report);
+        return report;
+    }
+
+    /**
+     * Estimate the run time of each kind of comparison from the sizes and rates in the report
+     * @param report The PreflightReport to fill in
+     */
+    private void estimate(PreflightReport report) {
+        double sourceRate = hashingRate(report.getSourceRate(), report.getSourceParallelRate(), report.getHashRate(),
+                report.getSourceThreads());
+        double targetRate = hashingRate(report.getTargetRate(), report.getTargetParallelRate(), report.getHashRate(),
+                report.getTargetThreads());
+        if (sourceRate <= 0.0 || targetRate <= 0.0) return;
+        long sourceBytes = report.getSourceBytes() - report.getSameFileBytes() / 2L;
+        long targetBytes = report.getTargetBytes() - report.getSameFileBytes() / 2L;
+        long pairedBytes = report.getPairedBytes() / 2L;
+        report.setFullSeconds(hashingSeconds(sourceBytes, targetBytes, sourceRate, targetRate, report.isSameDevice()));
+        report.setLazySeconds(hashingSeconds(pairedBytes, pairedBytes, sourceRate, targetRate, report.isSameDevice()));
+        report.setManifestSeconds((long) Math.ceil(sourceBytes / sourceRate));
+        // Byte-for-byte comparison doesn't hash at all, but reads both sides of each pair in turn.  A changed pair
+        // stops at its first difference, so this is the most it could take.
+        report.setByteCompareSeconds((long) Math.ceil(
+                pairedBytes / best(report.getSourceRate(), report.getSourceParallelRate()) +
+                        pairedBytes / best(report.getTargetRate(), report.getTargetParallelRate())
+        ));
+    }
+
+    /**
+     * Estimate how long hashing both sides would take.  On separate devices both sides are hashed at once, so the
+     * slower side sets the pace.  On a shared device, they take turns.
+     * @param sourceBytes The bytes to hash from the source tree
+     * @param targetBytes The bytes to hash from the target tree
+     * @param sourceRate The rate at which the source can be hashed, in bytes per second
+     * @param targetRate The rate at which the target can be hashed, in bytes per second
+     * @param sameDevice True if both trees are on the same device
+     * @return The estimated time in seconds
+     */
+    private static long hashingSeconds(long sourceBytes, long targetBytes, double sourceRate, double targetRate,
+                                       boolean sameDevice) {
+        double seconds = sameDevice ? sourceBytes / sourceRate + targetBytes / targetRate :
+                Math.max(sourceBytes / sourceRate, targetBytes / targetRate);
+        return (long) Math.ceil(seconds);
+    }
+
+    /**
+     * Work out how fast a device can be hashed with a given number of threads: as fast as it can be read, unless the
+     * threads can't hash that quickly
+     * @param rate The read rate with one thread
+     * @param parallelRate The read rate with several threads
+     * @param hashRate The hashing rate of a single thread
+     * @param threads The number of threads to hash with
+     * @return The hashing rate in bytes per second, or a negative number if it isn't known
+     */
+    private static double hashingRate(double rate, double parallelRate, double hashRate, int threads) {
+        double readRate = threads > 1 ? best(rate, parallelRate) : rate;
+        if (readRate <= 0.0 || hashRate <= 0.0) return -1.0;
+        return Math.min(readRate, hashRate * threads);
+    }
+
+    /**
+     * Pick the number of threads to hash a device with.  Several threads are worth it if the device reads noticeably
+     * faster with them, or if one thread can't hash as fast as the device can be read.
+     * @param rate The read rate with one thread
+     * @param parallelRate The read rate with several threads
+     * @param hashRate The hashing rate of a single thread
+     * @return The recommended number of threads
+     */
+    private static int recommendThreads(double rate, double parallelRate, double hashRate) {
+        if (rate <= 0.0) return 1;
+        int ioThreads = parallelRate > rate * PARALLEL_GAIN ? PROBE_THREADS : 1;
+        double readRate = ioThreads > 1 ? parallelRate : rate;
+        int cpuThreads = hashRate > 0.0 ?
+                (int) Math.min(Runtime.getRuntime().availableProcessors(), Math.ceil(readRate / hashRate)) : 1;
+        return Math.max(Math.max(ioThreads, cpuThreads), 1);
+    }
+
+    /**
+     * Pick a read buffer size.  Network file systems do better with bigger reads; otherwise the current setting is
+     * fine.
+     * @return The recommended buffer size in bytes
+     */
+    private int recommendBufferSize() {
+        for (String path : new String[] { sourcePath, targetPath }) {
+            try {
+                if (NETWORK_TYPES.contains(Files.getFileStore(Paths.get(path)).type().toLowerCase())) {
+                    return Math.max(options.getBufferSize(), NETWORK_BUFFER_SIZE);
+                }
+            } catch (Exception ignored) { }
+        }
+        return options.getBufferSize();
+    }
+
+    /**
+     * Measure how fast a device reads, first with a single thread and then with several.  The biggest files make the
+     * best sample, since they're the most likely to be laid out sequentially.  The sample is split in two, alternating
+     * files, so the second probe doesn't just reread what the first one pulled into the cache.
+     * @param files The files on the device
+     * @return An array holding the single-thread and multi-thread rates in bytes per second, either of which may be
+     * negative if there wasn't enough to read
+     * @throws Exception Thrown if we're interrupted
+     */
+    private double[] probe(List<DCFile> files) throws Exception {
+        List<DCFile> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(DCFile::getSize).reversed());
+        List<DCFile> single = new ArrayList<>();
+        List<DCFile> parallel = new ArrayList<>();
+        long sampled = 0L;
+        for (DCFile file : sorted) {
+            if (file.getSize() == 0L || sampled >= 2L * PROBE_BYTES) break;
+            (single.size() <= parallel.size() ? single : parallel).add(file);
+            sampled += Math.min(file.getSize(), PROBE_CHUNK);
+        }
+        return new double[] { readRate(single, 1), readRate(parallel, PROBE_THREADS) };
+    }
+
+    /**
+     * Read the start of each file in a list and time it
+     * @param files The files to read
+     * @param threads The number of threads to read with
+     * @return The read rate in bytes per second, or -1 if less than a megabyte could be read
+     * @throws Exception Thrown if we're interrupted
+     */
+    private double readRate(List<DCFile> files, int threads) throws Exception {
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicLong bytes = new AtomicLong(0L);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(options.getBufferSize());
+                    int index;
+                    while ((index = next.getAndIncrement()) < files.size() && bytes.get() < PROBE_BYTES &&
+                            System.nanoTime() - start < PROBE_TIME) {
+                        if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                        readStart(files.get(index), buffer, bytes, start);
+                    }
+                    return null;
+                }));
+            }
+            executor.shutdown();
+            for (Future<Void> future : futures) future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        if (bytes.get() < 1024L * 1024L || seconds <= 0.0) return -1.0;
+        return bytes.get() / seconds;
+    }
+
+    /**
+     * Read the start of a file, counting the bytes read.  Files that can't be read are skipped.
+     * @param file The DCFile to read
+     * @param buffer The ByteBuffer to read into
+     * @param bytes The running count of bytes read
+     * @param start When the probe started, in System.nanoTime() terms
+     */
+    private static void readStart(DCFile file, ByteBuffer buffer, AtomicLong bytes, long start) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file.getPathString()), StandardOpenOption.READ)) {
+            long limit = Math.min(file.getSize(), PROBE_CHUNK);
+            long position = 0L;
+            while (position < limit && System.nanoTime() - start < PROBE_TIME) {
+                buffer.clear();
+                int count = channel.read(buffer, position);
+                if (count < 0) break;
+                position += count;
+                bytes.addAndGet(count);
+            }
+        } catch (Exception ignored) { }
+    }
+
+    /**
+     * Time the hash algorithm over data already in memory
+     * @return The hashing rate of a single thread in bytes per second, or -1 if the algorithm isn't available
+     */
+    private double hashRate() {
+        try {
+            IHasher hasher = HashProviders.newHasher(options.getHash());
+            byte[] data = new byte[1024 * 1024];
+            new Random(0L).nextBytes(data);
+            long bytes = 0L;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < HASH_TIME) {
+                hasher.update(data, 0, data.length);
+                bytes += data.length;
+            }
+            hasher.digest();
+            return bytes / ((System.nanoTime() - start) / 1.0e9);
+        } catch (Exception ex) {
+            return -1.0;
+        }
+    }
+
+    /**
+     * Determine whether the source and target directories are on the same device
+     * @return True if they are (or we couldn't tell), false otherwise
+     */
+    private boolean sameDevice() {
+        try {
+            FileStore sourceStore = Files.getFileStore(Paths.get(sourcePath));
+            FileStore targetStore = Files.getFileStore(Paths.get(targetPath));
+            return sourceStore.equals(targetStore);
+        } catch (Exception ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Pick the better of two rates
+     * @param rate The rate with one thread
+     * @param parallelRate The rate with several threads
+     * @return The higher of the two
+     */
+    private static double best(double rate, double parallelRate) {
+        return Math.max(rate, parallelRate);
+    }
+
+    /**
+     * Add up the sizes of a list of files
+     * @param files The List of DCFiles
+     * @return The total size in bytes
+     */
+    private static long totalSize(List<DCFile> files) {
+        long total = 0L;
+        for (DCFile file : files) total += file.getSize();
+        return total;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * DEEP COMPARE: PreflightReport
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class serves as a container for the results of a preflight check: what the scan found, how fast the devices
+ * and the hash algorithm turned out to be, and what that means for how long each kind of comparison would take.  Read
+ * rates are in bytes per second, and a negative rate means it couldn't be measured.
+ */
+@Getter
+@Setter
+public class PreflightReport {
+
+    /**
+     * The number of files and bytes in the source tree
+     */
+    private long sourceFiles;
+    private long sourceBytes;
+
+    /**
+     * The number of files and bytes in the target tree
+     */
+    private long targetFiles;
+    private long targetBytes;
+
+    /**
+     * The number of files and bytes, counting both sides, in pairs of the same size.  These are the only files read in
+     * lazy, quick check and byte-for-byte modes.
+     */
+    private long pairedFiles;
+    private long pairedBytes;
+
+    /**
+     * The bytes, counting both sides, in pairs that are the same physical file and never need to be read
+     */
+    private long sameFileBytes;
+
+    /**
+     * Whether both trees live on the same device, in which case only one device was probed
+     */
+    private boolean sameDevice;
+
+    /**
+     * The sequential read rates measured on the source device, with one thread and with several
+     */
+    private double sourceRate = -1.0;
+    private double sourceParallelRate = -1.0;
+
+    /**
+     * The sequential read rates measured on the target device, with one thread and with several
+     */
+    private double targetRate = -1.0;
+    private double targetParallelRate = -1.0;
+
+    /**
+     * The number of threads used for the parallel read probes
+     */
+    private int probeThreads;
+
+    /**
+     * How fast a single thread can run the chosen hash algorithm, in bytes per second
+     */
+    private double hashRate = -1.0;
+
+    /**
+     * The recommended number of hashing threads for each device
+     */
+    private int sourceThreads = 1;
+    private int targetThreads = 1;
+
+    /**
+     * The recommended read buffer size, in bytes
+     */
+    private int bufferSize;
+
+    /**
+     * The estimated run times, in seconds, for each kind of comparison.  Negative if they couldn't be estimated.
+     */
+    private long fullSeconds = -1L;
+    private long lazySeconds = -1L;
+    private long byteCompareSeconds = -1L;
+    private long manifestSeconds = -1L;
+
+    /**
+     * Format the report for display, one line per finding
+     * @return A String containing the formatted report
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        line(text, "preflight.report.source", sourceFiles, Utilities.prettyPrintFileSize(sourceBytes));
+        line(text, "preflight.report.target", targetFiles, Utilities.prettyPrintFileSize(targetBytes));
+        line(text, "preflight.report.paired", pairedFiles, Utilities.prettyPrintFileSize(pairedBytes));
+        if (sameFileBytes > 0L) {
+            line(text, "preflight.report.same.files", Utilities.prettyPrintFileSize(sameFileBytes));
+        }
+        text.append('\n');
+        if (sameDevice) {
+            rateLine(text, Main.RESOURCES.getString("preflight.report.both"), sourceRate, sourceParallelRate);
+        } else {
+            rateLine(text, Main.RESOURCES.getString("preflight.report.source.device"), sourceRate, sourceParallelRate);
+            rateLine(text, Main.RESOURCES.getString("preflight.report.target.device"), targetRate, targetParallelRate);
+        }
+        line(text, "preflight.report.hash.rate", rate(hashRate));
+        text.append('\n');
+        line(text, "preflight.report.estimates");
+        line(text, "preflight.report.estimate.full", duration(fullSeconds));
+        line(text, "preflight.report.estimate.lazy", duration(lazySeconds));
+        line(text, "preflight.report.estimate.byte.compare", duration(byteCompareSeconds));
+        line(text, "preflight.report.estimate.manifest", duration(manifestSeconds));
+        text.append('\n');
+        line(text, "preflight.report.recommended", sourceThreads, targetThreads, bufferSize / 1024);
+        return text.toString();
+    }
+
+    /**
+     * Add a formatted line to the report
+     * @param text The StringBuilder holding the report
+     * @param key The resource key of the line's format string
+     * @param args The values to format into the line
+     */
+    private static void line(StringBuilder text, String key, Object... args) {
+        text.append(String.format(Main.RESOURCES.getString(key), args)).append('\n');
+    }
+
+    /**
+     * Add the read rates for a device to the report
+     * @param text The StringBuilder holding the report
+     * @param device The name of the device (or devices)
+     * @param rate The rate measured with one thread
+     * @param parallelRate The rate measured with several threads
+     */
+    private void rateLine(StringBuilder text, String device, double rate, double parallelRate) {
+        if (rate < 0.0) {
+            line(text, "preflight.report.rate.unknown", device);
+        } else {
+            line(text, "preflight.report.rate", device, rate(rate), rate(parallelRate), probeThreads);
+        }
+    }
+
+    /**
+     * Format a rate for display
+     * @param rate The rate in bytes per second
+     * @return The formatted rate
+     */
+    private static String rate(double rate) {
+        return rate < 0.0 ? Main.RESOURCES.getString("preflight.report.unknown") :
+                Utilities.prettyPrintFileSize((long) rate);
+    }
+
+    /**
+     * Format a duration for display as hours, minutes and seconds
+     * @param seconds The duration in seconds
+     * @return The formatted duration
+     */
+    private static String duration(long seconds) {
+        if (seconds < 0L) return Main.RESOURCES.getString("preflight.report.unknown");
+        return String.format("%d:%02d:%02d", seconds / 3600L, seconds / 60L % 60L, seconds % 60L);
+    }
+
+}
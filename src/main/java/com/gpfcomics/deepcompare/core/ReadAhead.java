@@ -0,0 +1,182 @@
+/*
+ * DEEP COMPARE: ReadAhead
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Read-ahead gives a hash worker its own reader thread, so reading and hashing overlap instead of taking turns.  Left
+ * to itself, a worker waits on the disk while the hasher sits idle, then hashes while the disk sits idle, so each file
+ * takes the time to read it plus the time to hash it.  With a reader filling the next buffer while the worker hashes
+ * the current one, it takes closer to whichever of the two is slower.
+ * <p>
+ * Files are queued up by path, and the reader works through them in order, opening each one and reading it into a
+ * small ring of buffers.  The worker can queue up the next file before it starts hashing the current one, so the reader
+ * opens it and starts filling buffers the moment it's done with this one.  The worker gets the buffers back in the
+ * same order, hashes them, and hands them back to be filled again.  Progress is still reported on the worker's own
+ * thread.
+ */
+class ReadAhead {
+
+    // The chunks the reader has filled, in order.  A chunk with no buffer marks the end of a file.
+    private final BlockingQueue<Chunk> filled = new LinkedBlockingQueue<>();
+
+    // The buffers waiting to be filled
+    private final BlockingQueue<ByteBuffer> empty;
+
+    // The files queued for the reader, in order
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+    // The files we've queued and not yet consumed, in the same order, so we can tell whether a file is already on its
+    // way.  Only ever touched by the worker's thread.
+    private final Deque<String> pending = new ArrayDeque<>();
+
+    // The hash worker we read for, which applies the throttle
+    private final HashWorker worker;
+
+    // The reader thread, started the first time it's needed
+    private Thread reader;
+
+    /**
+     * Constructor
+     * @param worker The HashWorker we read for
+     * @param buffers The number of buffers to fill ahead of the worker.  Values less than two will be treated as two.
+     * @param bufferSize The size of each buffer in bytes
+     */
+    ReadAhead(HashWorker worker, int buffers, int bufferSize) {
+        this.worker = worker;
+        int count = Math.max(buffers, 2);
+        this.empty = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) empty.add(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Queue a file for the reader to start on as soon as it's free.  Queuing the same file again before it's hashed
+     * does nothing.
+     * @param path The full path to the file
+     */
+    void prefetch(String path) {
+        if (pending.contains(path)) return;
+        if (reader == null) {
+            reader = new Thread(this::read, "read-ahead");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        pending.add(path);
+        requests.add(path);
+    }
+
+    /**
+     * Feed the whole of a file to a hasher as the reader delivers it.  If the file wasn't already queued, it's queued
+     * now.  Any files queued ahead of it are thrown away.
+     * @param path The full path to the file
+     * @param hasher The IHasher to feed
+     * @param listener The IHashProgressListener to report progress to
+     * @throws IOException Thrown if the file couldn't be read, or if we were interrupted while waiting for the reader
+     */
+    void hash(String path, IHasher hasher, IHashProgressListener listener) throws IOException {
+        prefetch(path);
+        try {
+            // Skip past anything queued ahead of this file that we no longer want:
+            while (!pending.peek().equals(path)) {
+                pending.poll();
+                Chunk chunk;
+                while ((chunk = filled.take()).buffer != null) empty.add(chunk.buffer);
+            }
+            pending.poll();
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk.buffer == null) {
+                    if (chunk.error != null) throw chunk.error;
+                    return;
+                }
+                int length = chunk.buffer.remaining();
+                try {
+                    hasher.update(chunk.buffer);
+                } finally {
+                    empty.add(chunk.buffer);
+                }
+                listener.updateProgress(length);
+            }
+        } catch (InterruptedException ex) {
+            // We're being cancelled.  We've lost our place in the reader's queue, so stop it for good.
+            close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Stop the reader thread, if it's running
+     */
+    void close() {
+        if (reader != null) reader.interrupt();
+    }
+
+    /**
+     * The reader thread's main loop: take the next file off the queue, read it into buffers, and pass them along
+     */
+    private void read() {
+        try {
+            while (true) {
+                String path = requests.take();
+                IOException error = null;
+                try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                    worker.throttleFile();
+                    while (true) {
+                        ByteBuffer buffer = empty.take();
+                        buffer.clear();
+                        int count = channel.read(buffer);
+                        if (count == -1) {
+                            empty.add(buffer);
+                            break;
+                        }
+                        buffer.flip();
+                        filled.add(new Chunk(buffer, null));
+                        worker.throttleBytes(count);
+                    }
+                } catch (InterruptedIOException ex) {
+                    throw new InterruptedException();
+                } catch (IOException ex) {
+                    error = ex;
+                }
+                filled.add(new Chunk(null, error));
+            }
+        } catch (InterruptedException ignored) {
+            // We've been told to stop
+        }
+    }
+
+    /**
+     * A buffer the reader has filled, or the end of a file
+     */
+    private static class Chunk {
+
+        // The filled buffer, ready to be read, or null at the end of a file
+        final ByteBuffer buffer;
+
+        // At the end of a file, the error that stopped the reader early, if there was one
+        final IOException error;
+
+        Chunk(ByteBuffer buffer, IOException error) {
+            this.buffer = buffer;
+            this.error = error;
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * DEEP COMPARE: SynchronizedHashProgressListener
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+/**
+ * A simple wrapper that serializes calls to a hash progress listener.  The listeners in the UI keep running totals that
+ * were never meant to be updated by more than one thread at a time, so whenever the engine hashes on several threads
+ * (or several devices) at once, the real listener gets wrapped in one of these.
+ */
+class SynchronizedHashProgressListener implements IHashProgressListener {
+
+    // The wrapped listener
+    private final IHashProgressListener listener;
+
+    /**
+     * Constructor
+     * @param listener The IHashProgressListener to wrap
+     */
+    SynchronizedHashProgressListener(IHashProgressListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void newFile() {
+        listener.newFile();
+    }
+
+    @Override
+    public synchronized void updateProgress(long bytesRead) {
+        listener.updateProgress(bytesRead);
+    }
+
+}
@@ -0,0 +1,506 @@
+/*
+ * DEEP COMPARE: TextManifest
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A plain text manifest of the files in a tree: one line per file giving its digest in hexadecimal and its path
+ * relative to the root of the tree, separated by two spaces.  This is the same format written by the GNU sha256sum
+ * family of tools, so a manifest made with SHA-256 can be checked with "sha256sum -c" and vice versa.  Paths always use
+ * forward slashes, and like sha256sum, a path containing a backslash or a line break is escaped and its line marked
+ * with a leading backslash.
+ * <p>
+ * We also write a few comment lines, which sha256sum skips over as improperly formatted lines (unless run with
+ * --strict): a header naming the hash algorithm (and the tree hashing settings, if they were used), and a "#size" line
+ * before each file giving its size in bytes.  Knowing the sizes lets us spot many changed files without hashing them
+ * at all.  Manifests without these comments can still be read; the sizes are simply unknown.
+ * <p>
+ * Manifests we write are sorted by path, which lets a live tree be compared against a manifest of any size by walking
+ * the two side by side rather than loading the whole manifest into memory.  Manifests from elsewhere often aren't
+ * sorted, so those are sorted in runs small enough to fit in memory, each run is written to a temporary file, and the
+ * runs are merged back together as the manifest is read.
+ */
+public class TextManifest {
+
+    // The first line of every manifest we write
+    private static final String HEADER = "# Deep Compare manifest";
+
+    // The header comment naming the hash algorithm
+    private static final String ALGORITHM_PREFIX = "# algorithm: ";
+
+    // The header comment giving the tree hashing threshold and region size
+    private static final String TREE_PREFIX = "# tree: ";
+
+    // The comment giving the size of the next file
+    private static final String SIZE_PREFIX = "#size ";
+
+    // The most entries of an unsorted manifest to sort in memory at once
+    private static final int SORT_RUN_SIZE = 100000;
+
+    // The order entries are read back in
+    private static final Comparator<Entry> BY_PATH = (a, b) -> a.getPath().compareTo(b.getPath());
+
+    private TextManifest() { }
+
+    /**
+     * Turn a path relative to a tree's root into the form used in manifests, i.e., with forward slashes
+     * @param relativePath A String containing the relative path using the platform's separator
+     * @return The path with forward slashes
+     */
+    public static String manifestPath(String relativePath) {
+        return File.separatorChar == '/' ? relativePath : relativePath.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Check whether the entries in a manifest are sorted by path
+     * @param path The Path to the manifest file
+     * @return True if every entry's path sorts after the one before it
+     * @throws IOException Thrown if the manifest can't be read or is badly formatted
+     */
+    public static boolean isSorted(Path path) throws IOException {
+        try (Reader reader = new Reader(path)) {
+            String previous = null;
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (previous != null && previous.compareTo(entry.getPath()) >= 0) return false;
+                previous = entry.getPath();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A single line of a manifest
+     */
+    @Getter
+    public static class Entry {
+
+        /**
+         * The path of the file relative to the root of the tree, with forward slashes
+         */
+        private final String path;
+
+        /**
+         * The size of the file in bytes, or -1 if the manifest doesn't say
+         */
+        private final long size;
+
+        /**
+         * The raw digest of the file
+         */
+        private final byte[] digest;
+
+        public Entry(String path, long size, byte[] digest) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+        }
+
+    }
+
+    /**
+     * Writes a manifest, one file at a time.  The caller is responsible for writing the files in sorted order.
+     */
+    public static class Writer implements IManifestWriter {
+
+        // The underlying writer
+        private final BufferedWriter out;
+
+        /**
+         * Constructor.  This creates (or replaces) the manifest file and writes the header.
+         * @param path The Path to the manifest file
+         * @param algorithm The name of the hash algorithm
+         * @param treeHashThreshold The tree hashing threshold in bytes, or zero if tree hashing is off
+         * @param treeRegionSize The tree hashing region size in bytes
+         * @throws IOException Thrown if the manifest can't be created
+         */
+        public Writer(Path path, String algorithm, long treeHashThreshold, long treeRegionSize) throws IOException {
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            out.write(HEADER);
+            out.newLine();
+            out.write(ALGORITHM_PREFIX + algorithm);
+            out.newLine();
+            if (treeHashThreshold > 0L) {
+                out.write(TREE_PREFIX + treeHashThreshold + " " + treeRegionSize);
+                out.newLine();
+            }
+        }
+
+        /**
+         * Write a single file to the manifest
+         * @param path The path of the file relative to the root of the tree, with forward slashes
+         * @param size The size of the file in bytes
+         * @param digest The raw digest of the file
+         * @throws IOException Thrown if the manifest can't be written
+         */
+        @Override
+        public void write(String path, long size, byte[] digest) throws IOException {
+            out.write(SIZE_PREFIX + size);
+            out.newLine();
+            boolean escape = path.indexOf('\\') >= 0 || path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0;
+            if (escape) {
+                out.write('\\');
+                path = path.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+            }
+            out.write(Utilities.toHex(digest));
+            out.write("  ");
+            out.write(path);
+            // sha256sum always uses a bare line feed, whatever the platform:
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Reads a manifest, one file at a time.  The header comments, if there are any, are read when the manifest is
+     * opened.
+     */
+    public static class Reader implements IManifestReader {
+
+        // The underlying reader
+        private final BufferedReader in;
+
+        // If the manifest wasn't sorted but was small enough, the entries are loaded into memory, sorted, and served
+        // from here instead
+        private Iterator<Entry> sorted;
+
+        // If the manifest wasn't sorted and was too big to sort in memory, the entries are served from a merge of
+        // sorted runs instead
+        private RunMerger merger;
+
+        // The next line to read, which we've already peeked at while reading the header
+        private String pending;
+
+        // The current line number, for error messages
+        private long lineNumber = 0L;
+
+        /**
+         * The hash algorithm named in the header, or null if there wasn't one
+         */
+        @Getter
+        private String algorithm;
+
+        /**
+         * The tree hashing threshold named in the header, or zero if tree hashing wasn't used
+         */
+        @Getter
+        private long treeHashThreshold = 0L;
+
+        /**
+         * The tree hashing region size named in the header, or zero if tree hashing wasn't used
+         */
+        @Getter
+        private long treeRegionSize = 0L;
+
+        /**
+         * Constructor.  This opens the manifest and reads its header comments.
+         * @param path The Path to the manifest file
+         * @throws IOException Thrown if the manifest can't be opened or its header is badly formatted
+         */
+        public Reader(Path path) throws IOException {
+            in = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            try {
+                while ((pending = readLine()) != null && pending.startsWith("#") && !pending.startsWith(SIZE_PREFIX)) {
+                    if (pending.startsWith(ALGORITHM_PREFIX)) {
+                        algorithm = pending.substring(ALGORITHM_PREFIX.length()).trim();
+                    } else if (pending.startsWith(TREE_PREFIX)) {
+                        String[] parts = pending.substring(TREE_PREFIX.length()).trim().split(" ");
+                        treeHashThreshold = Long.parseLong(parts[0]);
+                        treeRegionSize = Long.parseLong(parts[1]);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                in.close();
+                throw new IOException("Invalid manifest header at line " + lineNumber, ex);
+            }
+        }
+
+        /**
+         * Open a manifest so its entries come out sorted by path.  Manifests we wrote ourselves are already sorted and
+         * are simply streamed.  Manifests from elsewhere (e.g., sha256sum run over the output of find) may not be.  If
+         * a manifest like that is small, it's loaded into memory and sorted.  Otherwise, it's sorted in runs, each
+         * written to a temporary file, and the runs are merged as the entries are read.  The temporary files are
+         * deleted when the Reader is closed.
+         * @param path The Path to the manifest file
+         * @param isSorted True if the manifest is known to be sorted (see TextManifest.isSorted())
+         * @return A Reader that returns entries in sorted order
+         * @throws IOException Thrown if the manifest can't be read or is badly formatted, or if a run can't be written
+         */
+        public static Reader open(Path path, boolean isSorted) throws IOException {
+            return open(path, isSorted, SORT_RUN_SIZE);
+        }
+
+        /**
+         * Open a manifest so its entries come out sorted by path
+         * @param path The Path to the manifest file
+         * @param isSorted True if the manifest is known to be sorted (see TextManifest.isSorted())
+         * @param runSize The most entries to sort in memory at once
+         * @return A Reader that returns entries in sorted order
+         * @throws IOException Thrown if the manifest can't be read or is badly formatted, or if a run can't be written
+         */
+        static Reader open(Path path, boolean isSorted, int runSize) throws IOException {
+            Reader reader = new Reader(path);
+            if (isSorted) return reader;
+            List<Path> runs = new ArrayList<>();
+            try {
+                List<Entry> entries = new ArrayList<>();
+                Entry entry;
+                while ((entry = reader.next()) != null) {
+                    entries.add(entry);
+                    if (entries.size() >= runSize) {
+                        runs.add(writeRun(entries));
+                        entries.clear();
+                    }
+                }
+                if (runs.isEmpty()) {
+                    entries.sort(BY_PATH);
+                    reader.sorted = entries.iterator();
+                } else {
+                    if (!entries.isEmpty()) runs.add(writeRun(entries));
+                    reader.merger = new RunMerger(runs);
+                }
+            } catch (IOException | RuntimeException ex) {
+                reader.close();
+                for (Path run : runs) Files.deleteIfExists(run);
+                throw ex;
+            }
+            return reader;
+        }
+
+        /**
+         * Sort a run of entries and write it to a temporary file
+         * @param entries The List of entries to sort and write
+         * @return The Path to the temporary file
+         * @throws IOException Thrown if the file can't be written
+         */
+        private static Path writeRun(List<Entry> entries) throws IOException {
+            entries.sort(BY_PATH);
+            Path run = Files.createTempFile("deep-compare-sort", ".txt");
+            try (Writer writer = new Writer(run, "", 0L, 0L)) {
+                for (Entry entry : entries) writer.write(entry.getPath(), entry.getSize(), entry.getDigest());
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(run);
+                throw ex;
+            }
+            return run;
+        }
+
+        /**
+         * Read the next file from the manifest
+         * @return The next Entry, or null if there are no more
+         * @throws IOException Thrown if the manifest can't be read or a line is badly formatted
+         */
+        @Override
+        public Entry next() throws IOException {
+            if (sorted != null) return sorted.hasNext() ? sorted.next() : null;
+            if (merger != null) return merger.next();
+            long size = -1L;
+            String line;
+            while ((line = pending != null ? pending : readLine()) != null) {
+                pending = null;
+                if (line.isEmpty()) continue;
+                if (line.startsWith(SIZE_PREFIX)) {
+                    try {
+                        size = Long.parseLong(line.substring(SIZE_PREFIX.length()).trim());
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Invalid size in manifest at line " + lineNumber);
+                    }
+                    continue;
+                }
+                if (line.startsWith("#")) continue;
+                return parse(line, size);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (merger != null) merger.close();
+            }
+        }
+
+        /**
+         * Read a line from the manifest, keeping count as we go
+         * @return The next line, or null at the end of the file
+         * @throws IOException Thrown if the manifest can't be read
+         */
+        private String readLine() throws IOException {
+            String line = in.readLine();
+            if (line != null) lineNumber++;
+            return line;
+        }
+
+        /**
+         * Parse a digest line
+         * @param line The line to parse
+         * @param size The size from the preceding "#size" comment, or -1 if there wasn't one
+         * @return The parsed Entry
+         * @throws IOException Thrown if the line is badly formatted
+         */
+        private Entry parse(String line, long size) throws IOException {
+            boolean escaped = line.startsWith("\\");
+            if (escaped) line = line.substring(1);
+            // The digest and the path are separated by a space and then either another space (text mode) or an
+            // asterisk (binary mode).  The distinction doesn't matter to us.
+            int space = line.indexOf(' ');
+            if (space <= 0 || space + 2 > line.length() ||
+                    (line.charAt(space + 1) != ' ' && line.charAt(space + 1) != '*')) {
+                throw new IOException("Invalid manifest line " + lineNumber);
+            }
+            byte[] digest;
+            try {
+                digest = Utilities.fromHex(line.substring(0, space));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Invalid digest in manifest at line " + lineNumber);
+            }
+            String path = line.substring(space + 2);
+            if (escaped) path = unescape(path);
+            // Running sha256sum over the output of "find ." gives paths like "./dir/file", but our paths are relative
+            // to the root without the leading "./":
+            while (path.startsWith("./")) path = path.substring(2);
+            return new Entry(path, size, digest);
+        }
+
+        /**
+         * Undo sha256sum-style escaping of a path
+         * @param path The escaped path
+         * @return The original path
+         */
+        private static String unescape(String path) {
+            StringBuilder sb = new StringBuilder(path.length());
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '\\' && i + 1 < path.length()) {
+                    char next = path.charAt(++i);
+                    sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * Merges sorted runs of entries, each in its own temporary file, back into a single sorted sequence.  Only the next
+     * entry of each run is held in memory.
+     */
+    private static class RunMerger implements Closeable {
+
+        // The temporary files holding the runs, which we delete when we're closed
+        private final List<Path> runs;
+
+        // A Reader for each run, in the same order
+        private final List<Reader> readers = new ArrayList<>();
+
+        // The next entry from each run that still has any, lowest path first.  Ties go to the earlier run, so entries
+        // with the same path come out in the order the manifest had them.
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(
+                Comparator.comparing((Head head) -> head.entry, BY_PATH).thenComparingInt(head -> head.run));
+
+        /**
+         * Constructor.  This opens every run and reads its first entry.
+         * @param runs The List of Paths to the sorted runs
+         * @throws IOException Thrown if a run can't be read
+         */
+        RunMerger(List<Path> runs) throws IOException {
+            this.runs = runs;
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    readers.add(new Reader(runs.get(i)));
+                    advance(i);
+                }
+            } catch (IOException | RuntimeException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Read the next entry in sorted order
+         * @return The next Entry, or null if every run has been used up
+         * @throws IOException Thrown if a run can't be read
+         */
+        Entry next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) return null;
+            advance(head.run);
+            return head.entry;
+        }
+
+        /**
+         * Queue up the next entry from a run, if it has one
+         * @param run The index of the run
+         * @throws IOException Thrown if the run can't be read
+         */
+        private void advance(int run) throws IOException {
+            Entry entry = readers.get(run).next();
+            if (entry != null) heads.add(new Head(entry, run));
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            for (Reader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    error = ex;
+                }
+            }
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ex) {
+                    error = ex;
+                }
+            }
+            if (error != null) throw error;
+        }
+
+        /**
+         * The next entry from one of the runs
+         */
+        private static class Head {
+
+            final Entry entry;
+            final int run;
+
+            Head(Entry entry, int run) {
+                this.entry = entry;
+                this.run = run;
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * DEEP COMPARE: Throttle
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.io.InterruptedIOException;
+
+/**
+ * The throttle limits how hard a comparison leans on the disks, so a long comparison can run in the background without
+ * starving everything else on the machine.  It keeps two token buckets, one for bytes read and one for files opened,
+ * that refill at their configured rates and can save up at most one second's worth of tokens.  Every hashing read
+ * takes tokens from the byte bucket after the fact, and if that leaves the bucket in debt, the reading thread waits
+ * until the debt has been paid off.  All of the threads in a comparison share one throttle, so the limits apply to the
+ * comparison as a whole no matter how many threads are reading.
+ * <p>
+ * The rates can be changed, and the throttle paused and resumed, from any thread while a comparison is running.  A rate
+ * of zero means no limit.
+ */
+public class Throttle {
+
+    // The number of nanoseconds in a second
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    // Our limits, in bytes and files per second.  Zero means no limit.
+    private volatile long bytesPerSecond;
+    private volatile long filesPerSecond;
+
+    // Whether reading has been paused
+    private volatile boolean paused = false;
+
+    // The tokens currently in each bucket.  These go negative when a thread takes more than is available.
+    private double byteTokens = 0.0;
+    private double fileTokens = 0.0;
+
+    // When we last topped up the buckets, in System.nanoTime() terms
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Constructor
+     * @param bytesPerSecond The maximum number of bytes to read per second, or zero for no limit
+     * @param filesPerSecond The maximum number of files to open per second, or zero for no limit
+     */
+    public Throttle(long bytesPerSecond, long filesPerSecond) {
+        setBytesPerSecond(bytesPerSecond);
+        setFilesPerSecond(filesPerSecond);
+    }
+
+    /**
+     * Get the maximum number of bytes to read per second
+     * @return The byte rate, or zero for no limit
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Set the maximum number of bytes to read per second.  This takes effect immediately, even for threads already
+     * waiting on the throttle.
+     * @param bytesPerSecond The byte rate, or zero for no limit
+     * @throws IllegalArgumentException Thrown if the rate is negative
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0L)
+            throw new IllegalArgumentException("Byte rate must not be negative");
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        byteTokens = Math.min(byteTokens, bytesPerSecond);
+        notifyAll();
+    }
+
+    /**
+     * Get the maximum number of files to open per second
+     * @return The file rate, or zero for no limit
+     */
+    public long getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    /**
+     * Set the maximum number of files to open per second.  This takes effect immediately, even for threads already
+     * waiting on the throttle.
+     * @param filesPerSecond The file rate, or zero for no limit
+     * @throws IllegalArgumentException Thrown if the rate is negative
+     */
+    public synchronized void setFilesPerSecond(long filesPerSecond) {
+        if (filesPerSecond < 0L)
+            throw new IllegalArgumentException("File rate must not be negative");
+        refill();
+        this.filesPerSecond = filesPerSecond;
+        fileTokens = Math.min(fileTokens, filesPerSecond);
+        notifyAll();
+    }
+
+    /**
+     * Check whether reading is paused
+     * @return True if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Pause all reading.  Threads finish the read they're in the middle of, then wait until we're resumed.
+     */
+    public synchronized void pause() {
+        refill();
+        paused = true;
+    }
+
+    /**
+     * Resume reading after a pause
+     */
+    public synchronized void resume() {
+        // Don't let the time spent paused turn into a burst of saved-up tokens:
+        refill();
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Account for a number of bytes just read, waiting if we're over our byte rate or paused
+     * @param bytes The number of bytes read
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    public void acquireBytes(long bytes) throws InterruptedIOException {
+        // Most of the time there's no limit at all, so don't bother taking the lock:
+        if (bytesPerSecond == 0L && !paused) return;
+        synchronized (this) {
+            awaitResume();
+            if (bytesPerSecond == 0L) return;
+            refill();
+            byteTokens -= bytes;
+            while (byteTokens < 0.0 && bytesPerSecond > 0L) {
+                await(-byteTokens / bytesPerSecond);
+                refill();
+            }
+            if (bytesPerSecond == 0L) byteTokens = 0.0;
+        }
+    }
+
+    /**
+     * Account for a file about to be opened, waiting if we're over our file rate or paused
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    public void acquireFile() throws InterruptedIOException {
+        if (filesPerSecond == 0L && !paused) return;
+        synchronized (this) {
+            awaitResume();
+            if (filesPerSecond == 0L) return;
+            refill();
+            fileTokens -= 1.0;
+            while (fileTokens < 0.0 && filesPerSecond > 0L) {
+                await(-fileTokens / filesPerSecond);
+                refill();
+            }
+            if (filesPerSecond == 0L) fileTokens = 0.0;
+        }
+    }
+
+    /**
+     * Wait for as long as we're paused.  Must be called while holding our lock.
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    private void awaitResume() throws InterruptedIOException {
+        while (paused) await(0.0);
+    }
+
+    /**
+     * Wait on our lock for a while, or until the rates change or we're paused or resumed.  Must be called while holding
+     * our lock.
+     * @param seconds The number of seconds to wait, or zero to wait until we're notified
+     * @throws InterruptedIOException Thrown if the thread is interrupted while waiting
+     */
+    private void await(double seconds) throws InterruptedIOException {
+        try {
+            if (seconds > 0.0) wait(Math.max((long) Math.ceil(seconds * 1000.0), 1L));
+            else wait();
+        } catch (InterruptedException ex) {
+            // Reading is done with blocking I/O, so let the reader treat this like any other interrupted read, but
+            // leave the flag set so the worker pool notices and stops:
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Top up both buckets for the time that has passed since we last did so.  Neither bucket holds more than one
+     * second's worth of tokens, and neither fills while we're paused.  Must be called while holding our lock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsed = (now - lastRefill) / NANOS_PER_SECOND;
+        lastRefill = now;
+        if (paused) return;
+        byteTokens = Math.min(byteTokens + elapsed * bytesPerSecond, bytesPerSecond);
+        fileTokens = Math.min(fileTokens + elapsed * filesPerSecond, filesPerSecond);
+    }
+
+}
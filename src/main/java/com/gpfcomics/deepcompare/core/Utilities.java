@@ -43,6 +43,43 @@ public class Utilities {
         return bytes + " B";
     }
 
+    /**
+     * Encode an array of bytes (such as a digest) as a lower-case hexadecimal string
+     * @param bytes The bytes to encode
+     * @return A String of hexadecimal digits, two per byte
+     */
+    public static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = digits[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Decode a hexadecimal string back into an array of bytes.  Upper and lower case digits are both accepted.
+     * @param hex A String of hexadecimal digits, two per byte
+     * @return The decoded bytes
+     * @throws IllegalArgumentException Thrown if the string has an odd length or contains non-hexadecimal characters
+     */
+    public static byte[] fromHex(String hex) throws IllegalArgumentException {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hexadecimal string must have an even number of digits");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hexadecimal digit");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
     /**
      * Get the default browse starting path.  This may return different values depending on the operating system.
      * @return A String containing the default path to use for all file/directory Browse buttons
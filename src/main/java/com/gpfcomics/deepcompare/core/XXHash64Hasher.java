@@ -0,0 +1,167 @@
+/*
+ * DEEP COMPARE: XXHash64Hasher
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pure Java implementation of the 64-bit xxHash algorithm (XXH64).  xxHash is NOT a cryptographic hash; it makes no
+ * attempt to resist someone deliberately crafting a collision.  What it does do is spread accidental differences (bit
+ * rot, truncated or botched copies) very evenly over its output, many times faster than SHA-256.  The digest is the
+ * 64-bit hash in big-endian order, which matches the canonical representation used by the reference xxhsum tool.  The
+ * seed is always zero.
+ */
+public class XXHash64Hasher implements IHasher {
+
+    /**
+     * The name of this algorithm as it appears in the hash list
+     */
+    public static final String ALGORITHM = "XXH64";
+
+    // The xxHash prime constants:
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    // The input is consumed in 32-byte stripes, one 8-byte lane per accumulator
+    private static final int STRIPE_SIZE = 32;
+
+    // Our four accumulators
+    private long v1, v2, v3, v4;
+
+    // The total number of bytes hashed so far
+    private long totalLength;
+
+    // Bytes left over that didn't fill a complete stripe, waiting for more input
+    private final byte[] pending = new byte[STRIPE_SIZE];
+    private int pendingLength;
+
+    // A little-endian view of the pending buffer, so we can pull lanes out of it without fiddling with bytes
+    private final ByteBuffer pendingBuffer = ByteBuffer.wrap(pending).order(ByteOrder.LITTLE_ENDIAN);
+
+    public XXHash64Hasher() {
+        reset();
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 8;
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME64_1 + PRIME64_2;
+        v2 = PRIME64_2;
+        v3 = 0L;
+        v4 = -PRIME64_1;
+        totalLength = 0L;
+        pendingLength = 0;
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int length) {
+        update(ByteBuffer.wrap(input, offset, length));
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+        // Read the lanes straight out of the buffer in little-endian order, so direct buffers never get copied into an
+        // array.  We'll put the caller's byte order back when we're done.
+        ByteOrder order = input.order();
+        input.order(ByteOrder.LITTLE_ENDIAN);
+        totalLength += input.remaining();
+        // Top up any partial stripe left over from last time:
+        if (pendingLength > 0) {
+            int count = Math.min(STRIPE_SIZE - pendingLength, input.remaining());
+            input.get(pending, pendingLength, count);
+            pendingLength += count;
+            if (pendingLength < STRIPE_SIZE) {
+                input.order(order);
+                return;
+            }
+            stripe(pendingBuffer, 0);
+            pendingLength = 0;
+        }
+        // Now chew through as many whole stripes as we can:
+        int position = input.position();
+        int limit = input.limit();
+        while (limit - position >= STRIPE_SIZE) {
+            stripe(input, position);
+            position += STRIPE_SIZE;
+        }
+        input.position(position);
+        // Hang on to whatever's left for next time:
+        pendingLength = input.remaining();
+        input.get(pending, 0, pendingLength);
+        input.order(order);
+    }
+
+    @Override
+    public byte[] digest() {
+        long h;
+        if (totalLength >= STRIPE_SIZE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        h += totalLength;
+        // Mix in the leftover bytes, eight at a time, then four, then one at a time:
+        int i = 0;
+        for (; i + 8 <= pendingLength; i += 8) {
+            h ^= round(0L, pendingBuffer.getLong(i));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (i + 4 <= pendingLength) {
+            h ^= (pendingBuffer.getInt(i) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            i += 4;
+        }
+        for (; i < pendingLength; i++) {
+            h ^= (pending[i] & 0xFFL) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+        }
+        // Final avalanche:
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        reset();
+        return ByteBuffer.allocate(8).putLong(h).array();
+    }
+
+    /**
+     * Feed one 32-byte stripe into the accumulators
+     * @param buffer A little-endian ByteBuffer holding the stripe
+     * @param index The absolute index of the start of the stripe within the buffer
+     */
+    private void stripe(ByteBuffer buffer, int index) {
+        v1 = round(v1, buffer.getLong(index));
+        v2 = round(v2, buffer.getLong(index + 8));
+        v3 = round(v3, buffer.getLong(index + 16));
+        v4 = round(v4, buffer.getLong(index + 24));
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0L, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+}
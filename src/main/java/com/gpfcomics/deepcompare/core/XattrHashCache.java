@@ -0,0 +1,142 @@
+/*
+ * DEEP COMPARE: XattrHashCache
+ * AUTHOR: Jeffrey T. Darlington
+ * URL: https://github.com/gpfjeff/deep-compare
+ * Copyright 2023, Jeffrey T. Darlington.  All rights reserved.
+ */
+package com.gpfcomics.deepcompare.core;
+
+import com.gpfcomics.deepcompare.Main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hash cache that keeps each file's digest in a user extended attribute on the file itself, along with the file's
+ * size and modification time and the algorithm used.  Unlike the central HashCache, this travels with the data: copy
+ * the files with their extended attributes and the cached hashes come along too.  Reading an attribute costs about as
+ * much as a stat() call.  File systems that don't support user attributes simply never produce a hit, and files we
+ * can't write to simply don't get an attribute.  In read-only mode we never write attributes at all.
+ */
+public class XattrHashCache implements IHashCache {
+
+    /**
+     * The name of the attribute we store our digests in.  (On Linux, this lands in the "user." namespace.)
+     */
+    public static final String ATTRIBUTE_NAME = "deepcompare.hash";
+
+    // The attribute format version
+    private static final byte VERSION = 1;
+
+    // Whether to leave the files untouched, i.e., never write attributes
+    private final boolean readOnly;
+
+    // Our hit and miss counters
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param readOnly True to only read existing attributes, false to also write new ones
+     */
+    public XattrHashCache(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public byte[] lookup(DCFile file, String algorithm) {
+        byte[] digest = null;
+        try {
+            UserDefinedFileAttributeView view = view(file);
+            if (view != null && view.list().contains(ATTRIBUTE_NAME)) {
+                ByteBuffer value = ByteBuffer.allocate(view.size(ATTRIBUTE_NAME));
+                view.read(ATTRIBUTE_NAME, value);
+                value.flip();
+                digest = decode(value, file, algorithm);
+            }
+        } catch (Exception ignored) { }
+        if (digest != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return digest;
+    }
+
+    @Override
+    public void store(DCFile file, String algorithm, byte[] digest) {
+        if (readOnly || digest == null) return;
+        try {
+            UserDefinedFileAttributeView view = view(file);
+            if (view != null) view.write(ATTRIBUTE_NAME, encode(file, algorithm, digest));
+        } catch (Exception ignored) { }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String getName() {
+        return Main.RESOURCES.getString("engine.log.hash.cache.name.xattr");
+    }
+
+    @Override
+    public void close() {
+        // Every attribute is written as we go, so there's nothing left to save
+    }
+
+    /**
+     * Get the user attribute view for a file
+     * @param file The DCFile to get the view for
+     * @return The UserDefinedFileAttributeView, or null if the file system doesn't support one
+     */
+    private static UserDefinedFileAttributeView view(DCFile file) {
+        Path path = Paths.get(file.getPathString());
+        return Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+    }
+
+    /**
+     * Pack a file's details and digest into an attribute value
+     * @param file The DCFile that was hashed
+     * @param algorithm The name of the hash algorithm
+     * @param digest The file's digest
+     * @return A ByteBuffer ready to be written as the attribute value
+     */
+    private static ByteBuffer encode(DCFile file, String algorithm, byte[] digest) {
+        byte[] name = algorithm.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer value = ByteBuffer.allocate(1 + 8 + 8 + 2 + name.length + 2 + digest.length);
+        value.put(VERSION).putLong(file.getSize()).putLong(file.getLastModified());
+        value.putShort((short) name.length).put(name);
+        value.putShort((short) digest.length).put(digest);
+        value.flip();
+        return value;
+    }
+
+    /**
+     * Unpack an attribute value and return the digest, if it's still valid for the file as it stands now
+     * @param value The attribute value
+     * @param file The scanned DCFile
+     * @param algorithm The name of the hash algorithm we're using
+     * @return The cached digest, or null if the attribute doesn't match the file
+     */
+    private static byte[] decode(ByteBuffer value, DCFile file, String algorithm) {
+        if (value.get() != VERSION) return null;
+        if (value.getLong() != file.getSize() || value.getLong() != file.getLastModified()) return null;
+        byte[] name = new byte[value.getShort()];
+        value.get(name);
+        if (!algorithm.equals(new String(name, StandardCharsets.UTF_8))) return null;
+        byte[] digest = new byte[value.getShort()];
+        value.get(digest);
+        return digest;
+    }
+
+}
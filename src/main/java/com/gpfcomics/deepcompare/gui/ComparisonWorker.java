@@ -25,20 +25,8 @@ public class ComparisonWorker extends SwingWorker<ComparisonResult, Object> {
     // Our parent ProgressDialog.  Primarily used to be the owner of any message dialogs we might pop.
     private final ProgressDialog parent;
 
-    // The absolute path to the source directory
-    private final String sourcePath;
-
-    // The absolute path to the target directory
-    private final String targetPath;
-
-    // Our comparison options
-    private final ComparisonOptions options;
-
-    // The hash progress listener to notify of hash updates
-    private final IHashProgressListener hashListener;
-
-    // The status listener to notify of status updates
-    private final IStatusListener statusListener;
+    // The comparison engine that does the real work
+    private final ComparisonEngine engine;
 
     // Our result collection
     @Getter
@@ -62,24 +50,28 @@ public class ComparisonWorker extends SwingWorker<ComparisonResult, Object> {
             IStatusListener statusListener
     ) {
         this.parent = parent;
-        this.sourcePath = sourcePath;
-        this.targetPath = targetPath;
-        this.options = options;
-        this.hashListener = hashListener;
-        this.statusListener = statusListener;
-    }
-
-    @Override
-    protected ComparisonResult doInBackground() throws Exception {
-        // Super simple here.  Build the comparison engine and set it to work.  This will pass all of its status and
-        // hash updates back to the progress dialog.
-        ComparisonEngine engine = new ComparisonEngine(
+        // Build the comparison engine up front, so its throttle can be adjusted before and while it runs.  This will
+        // pass all of its status and hash updates back to the progress dialog.
+        this.engine = new ComparisonEngine(
                 sourcePath,
                 targetPath,
                 options,
                 hashListener,
                 statusListener
         );
+    }
+
+    /**
+     * Get the throttle for the running comparison, so the user can change the read rate or pause reading
+     * @return The comparison engine's Throttle
+     */
+    public Throttle getThrottle() {
+        return engine.getThrottle();
+    }
+
+    @Override
+    protected ComparisonResult doInBackground() throws Exception {
+        // Super simple here.  Set the comparison engine to work:
         return engine.call();
     }
 
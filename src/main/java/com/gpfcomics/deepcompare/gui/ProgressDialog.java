@@ -31,6 +31,8 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
     // GUI Builder controls:
     private JPanel contentPane;
     private JButton btnCancel;
+    private JButton btnPause;
+    private JButton btnLimit;
     private JLabel lblStatus;
     private JProgressBar progressBar;
     private JLabel lblFilesAndBytes;
@@ -74,7 +76,7 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
         setContentPane(contentPane);
         setModal(true);
 
-        // There will be only one button on this dialog:  the Cancel button.  So make it the default:
+        // Cancel is the button the user is most likely to want, so make it the default:
         getRootPane().setDefaultButton(btnCancel);
 
         // Set the status label to our "starting up" message:
@@ -87,8 +89,10 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
         progressBar.setMaximum(100);
         progressBar.setValue(0);
 
-        // Wire up the cancel button:
+        // Wire up the buttons:
         btnCancel.addActionListener(e -> onCancel());
+        btnPause.addActionListener(e -> onPause());
+        btnLimit.addActionListener(e -> onLimit());
 
         // If the user clicks the close button in the upper right corner, treat it like clicking Cancel:
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
@@ -141,6 +145,45 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
         }
     }
 
+    // Pause reading if the comparison is running, or resume it if it's paused.  The engine's threads finish whatever
+    // read they're in the middle of and then wait.
+    private void onPause() {
+        Throttle throttle = worker.getThrottle();
+        if (throttle.isPaused()) {
+            throttle.resume();
+            btnPause.setText(Main.RESOURCES.getString("progress.pause.button"));
+        } else {
+            throttle.pause();
+            btnPause.setText(Main.RESOURCES.getString("progress.resume.button"));
+        }
+    }
+
+    // Ask the user for a new read rate limit, in megabytes per second, and apply it to the running comparison.  Zero
+    // means no limit.
+    private void onLimit() {
+        Throttle throttle = worker.getThrottle();
+        String input = (String) JOptionPane.showInputDialog(
+                btnCancel.getParent(),
+                Main.RESOURCES.getString("progress.limit.prompt"),
+                Main.RESOURCES.getString("progress.limit.title"),
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                null,
+                String.valueOf(throttle.getBytesPerSecond() / (1024L * 1024L))
+        );
+        if (input == null) return;
+        try {
+            throttle.setBytesPerSecond(Long.parseLong(input.trim()) * 1024L * 1024L);
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(
+                    btnCancel.getParent(),
+                    Main.RESOURCES.getString("progress.limit.invalid"),
+                    Main.RESOURCES.getString("dialog.title.error"),
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+    }
+
     // IStatusListener methods.  These receive status from the comparison engine, which we'll want to pass along to the
     // user.  This mostly involves taking note of the total files and bytes, as well as displaying status messages.
 
@@ -207,9 +250,16 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
                 // sides match, there's not a lot of point giving the user a complex GUI of identical file trees to
                 // scroll through.)
                 if (result.getSourceDirectory().isMatch() && result.getTargetDirectory().isMatch()) {
+                    String message = Main.RESOURCES.getString("result.all.match");
+                    if (result.getSameFileBytes() > 0L) {
+                        message += "\n" + String.format(
+                                Main.RESOURCES.getString("result.same.files"),
+                                Utilities.prettyPrintFileSize(result.getSameFileBytes())
+                        );
+                    }
                     JOptionPane.showMessageDialog(
                             btnCancel.getParent(),
-                            Main.RESOURCES.getString("result.all.match"),
+                            message,
                             Main.RESOURCES.getString("result.dialog.title"),
                             JOptionPane.INFORMATION_MESSAGE
                     );
@@ -287,6 +337,12 @@ public class ProgressDialog extends JDialog implements IStatusListener, IHashPro
         final JPanel panel3 = new JPanel();
         panel3.setLayout(new FlowLayout(FlowLayout.CENTER, 5, 5));
         panel2.add(panel3, BorderLayout.CENTER);
+        btnPause = new JButton();
+        this.$$$loadButtonText$$$(btnPause, this.$$$getMessageFromBundle$$$("MessagesBundle", "progress.pause.button"));
+        panel3.add(btnPause);
+        btnLimit = new JButton();
+        this.$$$loadButtonText$$$(btnLimit, this.$$$getMessageFromBundle$$$("MessagesBundle", "progress.limit.button"));
+        panel3.add(btnLimit);
         btnCancel = new JButton();
         this.$$$loadButtonText$$$(btnCancel, this.$$$getMessageFromBundle$$$("MessagesBundle", "cancel.button"));
         panel3.add(btnCancel);
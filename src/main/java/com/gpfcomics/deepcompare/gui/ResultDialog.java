@@ -59,21 +59,10 @@ public class ResultDialog extends JDialog {
         // message dialog is displayed.)  As such, the status label should note that discrepancies were found.
         lblResultStatus.setText(Main.RESOURCES.getString("result.discrepancies.found"));
 
-        // Populate the labels that show the number of files and total bytes for each directory:
-        lblSourceFiles.setText(
-                String.format(
-                        Main.RESOURCES.getString("result.files.and.bytes"),
-                        NumberFormat.getIntegerInstance().format(result.getSourceDirectory().getCount()),
-                        Utilities.prettyPrintFileSize(result.getSourceDirectory().getSize())
-                )
-        );
-        lblTargetFiles.setText(
-                String.format(
-                        Main.RESOURCES.getString("result.files.and.bytes"),
-                        NumberFormat.getIntegerInstance().format(result.getTargetDirectory().getCount()),
-                        Utilities.prettyPrintFileSize(result.getTargetDirectory().getSize())
-                )
-        );
+        // Populate the labels that show the number of files and total bytes for each directory.  If any pairs were the
+        // same physical file, each side's share of the bytes we didn't have to read goes alongside.
+        lblSourceFiles.setText(filesAndBytes(result.getSourceDirectory(), result.getSameFileBytes() / 2L));
+        lblTargetFiles.setText(filesAndBytes(result.getTargetDirectory(), result.getSameFileBytes() / 2L));
 
         // Now build the two result trees, starting with the source tree.  The work is pretty much the same, so we'll
         // farm it out to a helper method.
@@ -108,6 +97,29 @@ public class ResultDialog extends JDialog {
         dispose();
     }
 
+    /**
+     * Format the file count and size of a directory for display
+     *
+     * @param directory     The DCDirectory to describe
+     * @param sameFileBytes The number of this directory's bytes that were never read because they were the same
+     *                      physical file as their companions
+     * @return A String describing the directory
+     */
+    private static String filesAndBytes(DCDirectory directory, long sameFileBytes) {
+        String text = String.format(
+                Main.RESOURCES.getString("result.files.and.bytes"),
+                NumberFormat.getIntegerInstance().format(directory.getCount()),
+                Utilities.prettyPrintFileSize(directory.getSize())
+        );
+        if (sameFileBytes > 0L) {
+            text += String.format(
+                    Main.RESOURCES.getString("result.same.file.bytes"),
+                    Utilities.prettyPrintFileSize(sameFileBytes)
+            );
+        }
+        return text;
+    }
+
     /**
      * Build the result tree
      *
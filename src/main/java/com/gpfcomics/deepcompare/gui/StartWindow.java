@@ -7,7 +7,12 @@
 package com.gpfcomics.deepcompare.gui;
 
 import com.gpfcomics.deepcompare.Main;
+import com.gpfcomics.deepcompare.core.ComparisonEngine;
 import com.gpfcomics.deepcompare.core.ComparisonOptions;
+import com.gpfcomics.deepcompare.core.HashJournal;
+import com.gpfcomics.deepcompare.core.IStatusListener;
+import com.gpfcomics.deepcompare.core.PreflightPlanner;
+import com.gpfcomics.deepcompare.core.PreflightReport;
 import com.gpfcomics.deepcompare.core.Utilities;
 import lombok.Getter;
 
@@ -30,6 +35,7 @@ public class StartWindow {
     @Getter
     private JPanel rootPanel;
     private JButton btnStart;
+    private JButton btnPreflight;
     private JButton btnAbout;
     private JButton btnClose;
     private JButton btnOptions;
@@ -76,6 +82,28 @@ public class StartWindow {
         // The Close button (wait for it...) closes the window:
         btnClose.addActionListener(e -> System.exit(0));
 
+        // The Preflight button scans both folders and measures the devices without running the comparison, then shows
+        // the user what it found.  That can take a while on big trees, so it runs in the background.
+        btnPreflight.addActionListener(e -> {
+            try {
+                String sourceString = txtSource.getText().trim();
+                String targetString = txtTarget.getText().trim();
+                if (!validatePaths(sourceString, targetString)) return;
+                // The scan needs the exclusions in the same form as a real comparison (see below):
+                if (!options.isExclusionsRegex()) {
+                    options.convertSimpleWildcardsToRegex();
+                }
+                runPreflight(sourceString, targetString);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(
+                        btnStart.getParent(),
+                        Main.RESOURCES.getString("start.error.generic"),
+                        Main.RESOURCES.getString("dialog.title.error"),
+                        JOptionPane.ERROR_MESSAGE
+                );
+            }
+        });
+
         // Where the rubber meets the road.  The Start button validates our inputs and launches the comparison engine
         // to perform the actual comparison.
         btnStart.addActionListener(e -> {
@@ -85,46 +113,7 @@ public class StartWindow {
                 // directory paths.  If not, abort:
                 String sourceString = txtSource.getText().trim();
                 String targetString = txtTarget.getText().trim();
-                Path sourcePath = Paths.get(sourceString);
-                Path targetPath = Paths.get(targetString);
-                if (
-                        sourceString.isEmpty() ||
-                                !Files.exists(sourcePath) ||
-                                !Files.isDirectory(sourcePath)
-                ) {
-                    JOptionPane.showMessageDialog(
-                            btnStart.getParent(),
-                            Main.RESOURCES.getString("start.error.invalid.source.path"),
-                            Main.RESOURCES.getString("dialog.title.error"),
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                    return;
-                }
-                if (
-                        targetString.isEmpty() ||
-                                !Files.exists(targetPath) ||
-                                !Files.isDirectory(targetPath)
-                ) {
-                    JOptionPane.showMessageDialog(
-                            btnStart.getParent(),
-                            Main.RESOURCES.getString("start.error.invalid.target.path"),
-                            Main.RESOURCES.getString("dialog.title.error"),
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                    return;
-                }
-                // If the source and target paths are equal or one is contained inside the other, abort:
-                if (sourceString.equals(targetString) ||
-                        sourcePath.startsWith(targetString) ||
-                        targetPath.startsWith(sourceString)) {
-                    JOptionPane.showMessageDialog(
-                            btnStart.getParent(),
-                            Main.RESOURCES.getString("start.error.source.target.same.path"),
-                            Main.RESOURCES.getString("dialog.title.error"),
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                    return;
-                }
+                if (!validatePaths(sourceString, targetString)) return;
                 // The Options dialog will take care of most of the option validation for us, but there is one thing
                 // we need to check.  We don't want to let the user set the log folder into either the source or target
                 // directories, as that will throw off the comparison.
@@ -144,6 +133,22 @@ public class StartWindow {
                 if (!options.isExclusionsRegex()) {
                     options.convertSimpleWildcardsToRegex();
                 }
+                // If an earlier comparison of these same folders was interrupted, offer to pick up where it left off:
+                options.setResume(false);
+                if (options.getLogFilePath() != null && HashJournal.isResumable(
+                        HashJournal.journalPath(options.getLogFilePath()),
+                        ComparisonEngine.journalSource(sourceString, options),
+                        ComparisonEngine.journalTarget(targetString, options))) {
+                    int answer = JOptionPane.showConfirmDialog(
+                            btnStart.getParent(),
+                            Main.RESOURCES.getString("start.resume.prompt"),
+                            Main.RESOURCES.getString("start.resume.title"),
+                            JOptionPane.YES_NO_CANCEL_OPTION,
+                            JOptionPane.QUESTION_MESSAGE
+                    );
+                    if (answer == JOptionPane.CANCEL_OPTION || answer == JOptionPane.CLOSED_OPTION) return;
+                    options.setResume(answer == JOptionPane.YES_OPTION);
+                }
                 // At this point, we should be good to go.  Pass our parameters to the core comparison engine and
                 // put it to work:
                 ProgressDialog dialog = new ProgressDialog(parent, sourceString, targetString, options);
@@ -162,6 +167,116 @@ public class StartWindow {
 
     }
 
+    /**
+     * Run a preflight check in the background and show the report when it's done.  The buttons that start work are
+     * disabled in the meantime.
+     *
+     * @param sourceString The source path
+     * @param targetString The target path
+     */
+    private void runPreflight(String sourceString, String targetString) {
+        btnStart.setEnabled(false);
+        btnPreflight.setEnabled(false);
+        rootPanel.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        // The planner only needs status updates, and we've nowhere to show them until it's done:
+        IStatusListener quietListener = new IStatusListener() {
+            @Override
+            public void updateStatusMessage(String message) { }
+
+            @Override
+            public void errorMessage(String message) { }
+
+            @Override
+            public void updateTotalFiles(long fileCount) { }
+
+            @Override
+            public void updateTotalBytes(long totalBytes) { }
+        };
+        new SwingWorker<PreflightReport, Object>() {
+            @Override
+            protected PreflightReport doInBackground() throws Exception {
+                return new PreflightPlanner(sourceString, targetString, options, quietListener).call();
+            }
+
+            @Override
+            protected void done() {
+                btnStart.setEnabled(true);
+                btnPreflight.setEnabled(true);
+                rootPanel.setCursor(Cursor.getDefaultCursor());
+                try {
+                    JTextArea text = new JTextArea(get().toText());
+                    text.setEditable(false);
+                    text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+                    JOptionPane.showMessageDialog(
+                            btnStart.getParent(),
+                            text,
+                            Main.RESOURCES.getString("start.preflight.title"),
+                            JOptionPane.INFORMATION_MESSAGE
+                    );
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(
+                            btnStart.getParent(),
+                            Main.RESOURCES.getString("start.preflight.error"),
+                            Main.RESOURCES.getString("dialog.title.error"),
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Check that the source and target paths are both directories and don't overlap, telling the user if they aren't
+     *
+     * @param sourceString The source path as entered
+     * @param targetString The target path as entered
+     * @return True if the paths are usable, false if the user has been shown an error
+     */
+    private boolean validatePaths(String sourceString, String targetString) {
+        // Make sure both paths are populated and valid directory paths:
+        Path sourcePath = Paths.get(sourceString);
+        Path targetPath = Paths.get(targetString);
+        if (
+                sourceString.isEmpty() ||
+                        !Files.exists(sourcePath) ||
+                        !Files.isDirectory(sourcePath)
+        ) {
+            JOptionPane.showMessageDialog(
+                    btnStart.getParent(),
+                    Main.RESOURCES.getString("start.error.invalid.source.path"),
+                    Main.RESOURCES.getString("dialog.title.error"),
+                    JOptionPane.ERROR_MESSAGE
+            );
+            return false;
+        }
+        if (
+                targetString.isEmpty() ||
+                        !Files.exists(targetPath) ||
+                        !Files.isDirectory(targetPath)
+        ) {
+            JOptionPane.showMessageDialog(
+                    btnStart.getParent(),
+                    Main.RESOURCES.getString("start.error.invalid.target.path"),
+                    Main.RESOURCES.getString("dialog.title.error"),
+                    JOptionPane.ERROR_MESSAGE
+            );
+            return false;
+        }
+        // If the source and target paths are equal or one is contained inside the other, abort:
+        if (sourceString.equals(targetString) ||
+                sourcePath.startsWith(targetString) ||
+                targetPath.startsWith(sourceString)) {
+            JOptionPane.showMessageDialog(
+                    btnStart.getParent(),
+                    Main.RESOURCES.getString("start.error.source.target.same.path"),
+                    Main.RESOURCES.getString("dialog.title.error"),
+                    JOptionPane.ERROR_MESSAGE
+            );
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Allow the user to select the source or target folder via the system file selection dialog
      *
@@ -247,6 +362,9 @@ public class StartWindow {
         btnStart = new JButton();
         this.$$$loadButtonText$$$(btnStart, this.$$$getMessageFromBundle$$$("MessagesBundle", "start.start.button"));
         panel1.add(btnStart);
+        btnPreflight = new JButton();
+        this.$$$loadButtonText$$$(btnPreflight, this.$$$getMessageFromBundle$$$("MessagesBundle", "start.preflight.button"));
+        panel1.add(btnPreflight);
         btnAbout = new JButton();
         this.$$$loadButtonText$$$(btnAbout, this.$$$getMessageFromBundle$$$("MessagesBundle", "start.about.button"));
         panel1.add(btnAbout);
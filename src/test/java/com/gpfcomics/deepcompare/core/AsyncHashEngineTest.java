@@ -0,0 +1,94 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the asynchronous engine's out-of-order reads produce the same digests as hashing in order
+ */
+public class AsyncHashEngineTest
+    extends TestCase
+{
+    private static final int BUFFER_SIZE = 4096;
+
+    public AsyncHashEngineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AsyncHashEngineTest.class );
+    }
+
+    public void testDigestsMatchSerialHash() throws Exception
+    {
+        // An empty file, a file smaller than a buffer, one an exact multiple of the buffer size, and a few that end
+        // part way through a buffer, several times over the per-file queue depth
+        int[] sizes = { 0, 100, BUFFER_SIZE * 8, BUFFER_SIZE * 8 + 123, BUFFER_SIZE * 50 + 1, BUFFER_SIZE * 3 - 1 };
+        ComparisonOptions options = new ComparisonOptions();
+        options.setBufferSize( BUFFER_SIZE );
+        options.setAsyncQueueDepth( 6 );
+        options.setAsyncOpenFiles( 2 );
+
+        List<Path> paths = new ArrayList<>();
+        List<DCFile> files = new ArrayList<>();
+        List<DCFile> hashed = new ArrayList<>();
+        try
+        {
+            for ( int i = 0; i < sizes.length; i++ )
+            {
+                Path path = Files.createTempFile( "deep-compare-test", ".bin" );
+                Files.write( path, data( sizes[i], i ) );
+                paths.add( path );
+                DCFile file = new DCFile( path.toString() );
+                file.scan();
+                files.add( file );
+            }
+            new AsyncHashEngine( options, new IHashProgressListener()
+            {
+                public void newFile()
+                {
+                }
+
+                public void updateProgress( long bytesRead )
+                {
+                }
+            }, null, null ).hash( files, file ->
+            {
+                synchronized ( hashed )
+                {
+                    hashed.add( file );
+                }
+            } );
+
+            assertEquals( files.size(), hashed.size() );
+            for ( int i = 0; i < sizes.length; i++ )
+            {
+                IHasher hasher = HashProviders.newHasher( options.getHash() );
+                byte[] bytes = data( sizes[i], i );
+                hasher.update( bytes, 0, bytes.length );
+                assertTrue( "File of " + sizes[i] + " bytes",
+                        Arrays.equals( hasher.digest(), files.get( i ).getHash() ) );
+            }
+        }
+        finally
+        {
+            for ( Path path : paths ) Files.deleteIfExists( path );
+        }
+    }
+
+    private static byte[] data( int length, int seed )
+    {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < data.length; i++ ) data[i] = (byte) ( i * 31 + seed * 7 + ( i >> 12 ) );
+        return data;
+    }
+}
@@ -0,0 +1,107 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Round-trip tests for the binary manifest format
+ */
+public class BinaryManifestTest
+    extends TestCase
+{
+    public BinaryManifestTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BinaryManifestTest.class );
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        // Enough paths to fill several blocks, sharing long prefixes, with a few non-ASCII names thrown in
+        List<String> paths = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) paths.add( "photos/2023/album-" + ( i / 50 ) + "/IMG_" + i + ".jpg" );
+        paths.add( "café/menü.txt" );
+        paths.add( "日本/ファイル" );
+        Collections.sort( paths );
+
+        Path file = Files.createTempFile( "deep-compare-test", ".dcm" );
+        try
+        {
+            try ( BinaryManifest.Writer writer = new BinaryManifest.Writer( file, "SHA-256", 0L, 0L ) )
+            {
+                for ( int i = 0; i < paths.size(); i++ ) writer.write( paths.get( i ), i * 7L, digest( i ) );
+            }
+            assertTrue( BinaryManifest.isBinaryManifest( file ) );
+
+            BinaryManifest manifest = new BinaryManifest( file );
+            assertEquals( paths.size(), manifest.getCount() );
+            assertEquals( "SHA-256", manifest.getAlgorithm() );
+            assertEquals( 32, manifest.getDigestLength() );
+
+            // Random access and lookups
+            for ( int i = 0; i < paths.size(); i++ )
+            {
+                assertEquals( paths.get( i ), manifest.getPath( i ) );
+                assertEquals( i, manifest.find( paths.get( i ) ) );
+                assertEquals( i * 7L, manifest.getSize( i ) );
+                assertTrue( Arrays.equals( digest( i ), manifest.getDigest( i ) ) );
+            }
+            assertEquals( -1L, manifest.find( "photos/2023/album-3/IMG_0.jpg" ) );
+            assertEquals( -1L, manifest.find( "" ) );
+            assertEquals( -1L, manifest.find( "zzz" ) );
+
+            // Sequential reads
+            TextManifest.Entry entry;
+            int count = 0;
+            while ( ( entry = manifest.next() ) != null )
+            {
+                assertEquals( paths.get( count ), entry.getPath() );
+                assertTrue( Arrays.equals( digest( count ), entry.getDigest() ) );
+                count++;
+            }
+            assertEquals( paths.size(), count );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testRejectsUnsortedPaths() throws Exception
+    {
+        Path file = Files.createTempFile( "deep-compare-test", ".dcm" );
+        try ( BinaryManifest.Writer writer = new BinaryManifest.Writer( file, "SHA-256", 0L, 0L ) )
+        {
+            writer.write( "b", 1L, digest( 1 ) );
+            writer.write( "a", 1L, digest( 2 ) );
+            fail( "Out-of-order path accepted" );
+        }
+        catch ( IllegalArgumentException expected )
+        {
+            // Good
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    private static byte[] digest( int seed )
+    {
+        byte[] digest = new byte[32];
+        for ( int i = 0; i < digest.length; i++ ) digest[i] = (byte) ( seed * 31 + i );
+        return digest;
+    }
+}
@@ -0,0 +1,114 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Tests for comparing pairs of files byte-for-byte instead of hashing them
+ */
+public class ByteCompareTest
+    extends TestCase
+{
+    private static final int BUFFER_SIZE = 4096;
+
+    // Three full buffers and part of a fourth
+    private static final int FILE_SIZE = BUFFER_SIZE * 3 + 100;
+
+    public ByteCompareTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ByteCompareTest.class );
+    }
+
+    public void testIdenticalFiles() throws Exception
+    {
+        assertDifference( -1 );
+    }
+
+    public void testFirstByteDiffers() throws Exception
+    {
+        assertDifference( 0 );
+    }
+
+    public void testLastByteDiffers() throws Exception
+    {
+        assertDifference( FILE_SIZE - 1 );
+    }
+
+    public void testDifferenceAtBufferBoundary() throws Exception
+    {
+        // Inside the last eight-byte word of one buffer, and inside the first word of the next
+        assertDifference( BUFFER_SIZE * 2 - 3 );
+        assertDifference( BUFFER_SIZE * 2 + 2 );
+    }
+
+    /**
+     * Compare a file with a copy that differs in one byte, and check where the difference was found
+     * @param offset The offset of the byte to change, or -1 to leave the copy identical
+     */
+    private static void assertDifference( int offset ) throws Exception
+    {
+        byte[] bytes = data( FILE_SIZE );
+        Path original = createFile( bytes );
+        if ( offset >= 0 ) bytes[offset] ^= 0x40;
+        Path copy = createFile( bytes );
+        try
+        {
+            ComparisonOptions options = new ComparisonOptions();
+            options.setBufferSize( BUFFER_SIZE );
+            options.setByteCompare( true );
+            DCFile ours = scan( original );
+            DCFile theirs = scan( copy );
+            new HashWorkerPool( options, 1, new IHashProgressListener()
+            {
+                public void newFile()
+                {
+                }
+
+                public void updateProgress( long bytesRead )
+                {
+                }
+            }, null ).compareContents( Collections.singletonList( ours ), Collections.singletonList( theirs ) );
+
+            assertEquals( offset, ours.getFirstDifference() );
+            assertEquals( offset, theirs.getFirstDifference() );
+            assertEquals( offset < 0, ours.isHashMatch() );
+            assertEquals( offset < 0, theirs.isHashMatch() );
+        }
+        finally
+        {
+            Files.deleteIfExists( original );
+            Files.deleteIfExists( copy );
+        }
+    }
+
+    private static DCFile scan( Path path ) throws Exception
+    {
+        DCFile file = new DCFile( path.toString() );
+        file.scan();
+        return file;
+    }
+
+    private static Path createFile( byte[] bytes ) throws Exception
+    {
+        Path file = Files.createTempFile( "deep-compare-test", ".bin" );
+        Files.write( file, bytes );
+        return file;
+    }
+
+    private static byte[] data( int length )
+    {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < data.length; i++ ) data[i] = (byte) ( i * 31 + ( i >> 8 ) );
+        return data;
+    }
+}
@@ -0,0 +1,314 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the persistent hash cache: saving and reopening it, evicting old entries, and missing on changed files
+ */
+public class HashCacheTest
+    extends TestCase
+{
+    private static final String ALGORITHM = "SHA-256";
+
+    // The sizes of the cache file's header and of each record
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 96;
+
+    private Path directory;
+    private Path cachePath;
+
+    public HashCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashCacheTest.class );
+    }
+
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory( "deep-compare-test" );
+        cachePath = directory.resolve( "hashes.cache" );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        try ( Stream<Path> paths = Files.list( directory ) )
+        {
+            for ( Path path : (Iterable<Path>) paths::iterator ) Files.delete( path );
+        }
+        Files.delete( directory );
+    }
+
+    public void testSaveAndReopen() throws Exception
+    {
+        DCFile[] files = new DCFile[10];
+        for ( int i = 0; i < files.length; i++ ) files[i] = createFile( "file" + i, i );
+
+        HashCache cache = new HashCache( cachePath, Long.MAX_VALUE );
+        for ( int i = 0; i < 6; i++ ) cache.store( files[i], ALGORITHM, digest( i ) );
+        cache.close();
+        assertEquals( HEADER_SIZE + 6 * RECORD_SIZE, Files.size( cachePath ) );
+        assertFalse( Files.exists( cachePath.resolveSibling( cachePath.getFileName() + ".tmp" ) ) );
+
+        // Add the rest in a second run, so they have to be merged in among the old records
+        cache = new HashCache( cachePath, Long.MAX_VALUE );
+        for ( int i = 6; i < files.length; i++ ) cache.store( files[i], ALGORITHM, digest( i ) );
+        cache.close();
+        assertEquals( HEADER_SIZE + files.length * RECORD_SIZE, Files.size( cachePath ) );
+
+        cache = new HashCache( cachePath, Long.MAX_VALUE );
+        try
+        {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                assertTrue( Arrays.equals( digest( i ), cache.lookup( files[i], ALGORITHM ) ) );
+            }
+            assertNull( cache.lookup( files[0], "SHA-512" ) );
+            assertEquals( files.length, cache.getHits() );
+            assertEquals( 1L, cache.getMisses() );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    public void testInvalidCacheIsReplaced() throws Exception
+    {
+        DCFile file = createFile( "file", 0 );
+        Files.write( cachePath, new byte[] { 1, 2, 3, 4, 5 } );
+        HashCache cache = new HashCache( cachePath, Long.MAX_VALUE );
+        assertNull( cache.lookup( file, ALGORITHM ) );
+        cache.store( file, ALGORITHM, digest( 0 ) );
+        cache.close();
+
+        cache = new HashCache( cachePath, Long.MAX_VALUE );
+        try
+        {
+            assertTrue( Arrays.equals( digest( 0 ), cache.lookup( file, ALGORITHM ) ) );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    public void testLeastRecentlyUsedAreEvicted() throws Exception
+    {
+        DCFile[] files = new DCFile[5];
+        for ( int i = 0; i < files.length; i++ ) files[i] = createFile( "file" + i, i );
+        long maxSize = HEADER_SIZE + 4 * RECORD_SIZE;
+
+        // Three runs, each one later than the last.  The third uses file 0 again and adds file 4, which leaves room
+        // for two of the three old records we didn't touch, so the oldest of them (file 1) has to go.
+        HashCache cache = new HashCache( cachePath, maxSize );
+        cache.store( files[0], ALGORITHM, digest( 0 ) );
+        cache.store( files[1], ALGORITHM, digest( 1 ) );
+        cache.close();
+        Thread.sleep( 20L );
+        cache = new HashCache( cachePath, maxSize );
+        cache.store( files[2], ALGORITHM, digest( 2 ) );
+        cache.store( files[3], ALGORITHM, digest( 3 ) );
+        cache.close();
+        Thread.sleep( 20L );
+        cache = new HashCache( cachePath, maxSize );
+        assertTrue( Arrays.equals( digest( 0 ), cache.lookup( files[0], ALGORITHM ) ) );
+        cache.store( files[4], ALGORITHM, digest( 4 ) );
+        cache.close();
+        assertEquals( maxSize, Files.size( cachePath ) );
+
+        cache = new HashCache( cachePath, maxSize );
+        try
+        {
+            assertNull( cache.lookup( files[1], ALGORITHM ) );
+            for ( int i : new int[] { 0, 2, 3, 4 } )
+            {
+                assertTrue( Arrays.equals( digest( i ), cache.lookup( files[i], ALGORITHM ) ) );
+            }
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    public void testTiesAtCutoffStayUnderLimit() throws Exception
+    {
+        DCFile[] files = new DCFile[4];
+        for ( int i = 0; i < files.length; i++ ) files[i] = createFile( "file" + i, i );
+        long maxSize = HEADER_SIZE + 3 * RECORD_SIZE;
+
+        // Files 0 and 1 were last used at the same moment, and there's only room for one of them.  Rather than pick
+        // between them, both go.
+        HashCache cache = new HashCache( cachePath, maxSize );
+        cache.store( files[0], ALGORITHM, digest( 0 ) );
+        cache.store( files[1], ALGORITHM, digest( 1 ) );
+        cache.close();
+        Thread.sleep( 20L );
+        cache = new HashCache( cachePath, Long.MAX_VALUE );
+        cache.store( files[2], ALGORITHM, digest( 2 ) );
+        cache.close();
+        Thread.sleep( 20L );
+        cache = new HashCache( cachePath, maxSize );
+        cache.store( files[3], ALGORITHM, digest( 3 ) );
+        cache.close();
+        assertTrue( Files.size( cachePath ) <= maxSize );
+
+        cache = new HashCache( cachePath, maxSize );
+        try
+        {
+            assertNull( cache.lookup( files[0], ALGORITHM ) );
+            assertNull( cache.lookup( files[1], ALGORITHM ) );
+            assertTrue( Arrays.equals( digest( 2 ), cache.lookup( files[2], ALGORITHM ) ) );
+            assertTrue( Arrays.equals( digest( 3 ), cache.lookup( files[3], ALGORITHM ) ) );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    public void testUpdatesBeyondLimit() throws Exception
+    {
+        DCFile[] files = new DCFile[4];
+        for ( int i = 0; i < files.length; i++ ) files[i] = createFile( "file" + i, i );
+        long maxSize = HEADER_SIZE + 2 * RECORD_SIZE;
+
+        HashCache cache = new HashCache( cachePath, maxSize );
+        cache.store( files[0], ALGORITHM, digest( 0 ) );
+        cache.close();
+        Thread.sleep( 20L );
+
+        // A run that adds more than will fit keeps only as many of its own entries as there's room for, and none of
+        // the old ones
+        cache = new HashCache( cachePath, maxSize );
+        for ( int i = 1; i < files.length; i++ ) cache.store( files[i], ALGORITHM, digest( i ) );
+        cache.close();
+        assertEquals( maxSize, Files.size( cachePath ) );
+
+        cache = new HashCache( cachePath, maxSize );
+        try
+        {
+            assertNull( cache.lookup( files[0], ALGORITHM ) );
+            int found = 0;
+            for ( int i = 1; i < files.length; i++ )
+            {
+                byte[] digest = cache.lookup( files[i], ALGORITHM );
+                if ( digest != null )
+                {
+                    assertTrue( Arrays.equals( digest( i ), digest ) );
+                    found++;
+                }
+            }
+            assertEquals( 2, found );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    public void testChangedFileIsMiss() throws Exception
+    {
+        DCFile file = createFile( "file", 1 );
+        HashCache cache = new HashCache( cachePath, Long.MAX_VALUE );
+        cache.store( file, ALGORITHM, digest( 1 ) );
+        cache.close();
+        Path path = Paths.get( file.getPathString() );
+        FileTime lastModified = Files.getLastModifiedTime( path );
+
+        // A different size
+        Files.write( path, new byte[2] );
+        Files.setLastModifiedTime( path, lastModified );
+        assertMiss( path );
+
+        // A different modification time
+        Files.write( path, new byte[1] );
+        Files.setLastModifiedTime( path, FileTime.fromMillis( lastModified.toMillis() + 5000L ) );
+        assertMiss( path );
+
+        // The same size and modification time, but a different file (i.e., inode) moved into its place
+        Files.setLastModifiedTime( path, lastModified );
+        DCFile original = scan( path );
+        assertTrue( Arrays.equals( digest( 1 ), lookup( original ) ) );
+        Path replacement = directory.resolve( "replacement" );
+        Files.write( replacement, new byte[1] );
+        Files.setLastModifiedTime( replacement, lastModified );
+        Files.move( replacement, path, StandardCopyOption.REPLACE_EXISTING );
+        DCFile moved = scan( path );
+        if ( original.getFileKey() != null && !original.getFileKey().equals( moved.getFileKey() ) )
+        {
+            assertMiss( path );
+        }
+    }
+
+    public void testChainRefreshesSecondCache() throws Exception
+    {
+        DCFile file = createFile( "file", 1 );
+        Path firstPath = directory.resolve( "first.cache" );
+        HashCache first = new HashCache( firstPath, Long.MAX_VALUE );
+        first.store( file, ALGORITHM, digest( 1 ) );
+        first.close();
+
+        // A hit in the first cache is stored in the second one too
+        HashCacheChain chain = new HashCacheChain( new HashCache( firstPath, Long.MAX_VALUE ),
+                new HashCache( cachePath, Long.MAX_VALUE ) );
+        assertTrue( Arrays.equals( digest( 1 ), chain.lookup( file, ALGORITHM ) ) );
+        assertEquals( 1L, chain.getFirst().getHits() );
+        assertEquals( 0L, chain.getSecond().getHits() + chain.getSecond().getMisses() );
+        chain.close();
+        assertTrue( Arrays.equals( digest( 1 ), lookup( file ) ) );
+    }
+
+    private void assertMiss( Path path ) throws Exception
+    {
+        assertNull( lookup( scan( path ) ) );
+    }
+
+    private byte[] lookup( DCFile file ) throws Exception
+    {
+        HashCache cache = new HashCache( cachePath, Long.MAX_VALUE );
+        try
+        {
+            return cache.lookup( file, ALGORITHM );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    private DCFile createFile( String name, int length ) throws Exception
+    {
+        Path path = directory.resolve( name );
+        Files.write( path, new byte[length] );
+        return scan( path );
+    }
+
+    private static DCFile scan( Path path ) throws Exception
+    {
+        DCFile file = new DCFile( path.toString() );
+        file.scan();
+        return file;
+    }
+
+    private static byte[] digest( int seed )
+    {
+        byte[] digest = new byte[32];
+        Arrays.fill( digest, (byte) ( seed + 1 ) );
+        return digest;
+    }
+}
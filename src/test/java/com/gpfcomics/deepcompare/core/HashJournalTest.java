@@ -0,0 +1,166 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests for writing the hash journal and resuming from it after an interruption
+ */
+public class HashJournalTest
+    extends TestCase
+{
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final String[] ALGORITHMS = { ALGORITHM, "SHA-256/caf\u00e9", "SHA-256/\u65e5\u672c", ALGORITHM };
+
+    private static final String SOURCE = "source-\u00e9\u65e5";
+
+    private Path directory;
+
+    public HashJournalTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashJournalTest.class );
+    }
+
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory( "deep-compare-test" );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        try ( Stream<Path> paths = Files.list( directory ) )
+        {
+            for ( Path path : (Iterable<Path>) paths::iterator ) Files.delete( path );
+        }
+        Files.delete( directory );
+    }
+
+    public void testResumeAfterTornRecord() throws Exception
+    {
+        // Include names outside ASCII, so the record lengths have to account for multi-byte characters.  File names
+        // depend on the platform's encoding, so put them in the header and the algorithm names instead.
+        List<DCFile> files = new ArrayList<>();
+        for ( int i = 0; i < ALGORITHMS.length; i++ ) files.add( createFile( "file" + i, 10 * ( i + 1 ) ) );
+        Path journalPath = HashJournal.journalPath( directory.toString() );
+
+        HashJournal journal = new HashJournal( journalPath, SOURCE, "target", false );
+        for ( int i = 0; i < files.size(); i++ )
+        {
+            journal.store( files.get( i ), ALGORITHMS[i], digest( files.get( i ) ) );
+        }
+        journal.close();
+
+        // Cut the last record off part way through, as if we'd crashed while writing it
+        try ( FileChannel channel = FileChannel.open( journalPath, StandardOpenOption.WRITE ) )
+        {
+            channel.truncate( channel.size() - 5 );
+        }
+
+        assertTrue( HashJournal.isResumable( journalPath, SOURCE, "target" ) );
+        assertFalse( HashJournal.isResumable( journalPath, SOURCE, "elsewhere" ) );
+        journal = new HashJournal( journalPath, SOURCE, "target", true );
+        assertEquals( 3, journal.getRecoveredCount() );
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertTrue( Arrays.equals( digest( files.get( i ) ), journal.lookup( files.get( i ), ALGORITHMS[i] ) ) );
+        }
+        assertNull( journal.lookup( files.get( 3 ), ALGORITHMS[3] ) );
+        assertNull( journal.lookup( files.get( 0 ), "SHA-512" ) );
+
+        // Carry on where we left off.  The new record has to follow the last whole one, not the torn one.
+        journal.store( files.get( 3 ), ALGORITHMS[3], digest( files.get( 3 ) ) );
+        journal.close();
+
+        journal = new HashJournal( journalPath, SOURCE, "target", true );
+        try
+        {
+            assertEquals( 4, journal.getRecoveredCount() );
+            for ( int i = 0; i < files.size(); i++ )
+            {
+                byte[] digest = journal.lookup( files.get( i ), ALGORITHMS[i] );
+                assertTrue( Arrays.equals( digest( files.get( i ) ), digest ) );
+            }
+        }
+        finally
+        {
+            journal.close();
+        }
+    }
+
+    public void testChangedFileIsMiss() throws Exception
+    {
+        DCFile file = createFile( "changed", 10 );
+        Path journalPath = HashJournal.journalPath( directory.toString() );
+        HashJournal journal = new HashJournal( journalPath, "source", "target", false );
+        journal.store( file, ALGORITHM, digest( file ) );
+        journal.close();
+
+        Files.write( Paths.get( file.getPathString() ), new byte[11] );
+        file.scan();
+        journal = new HashJournal( journalPath, "source", "target", true );
+        try
+        {
+            assertEquals( 1, journal.getRecoveredCount() );
+            assertNull( journal.lookup( file, ALGORITHM ) );
+            assertEquals( 1L, journal.getMisses() );
+        }
+        finally
+        {
+            journal.close();
+        }
+    }
+
+    public void testStartOverReplacesJournal() throws Exception
+    {
+        DCFile file = createFile( "old", 10 );
+        Path journalPath = HashJournal.journalPath( directory.toString() );
+        HashJournal journal = new HashJournal( journalPath, "source", "target", false );
+        journal.store( file, ALGORITHM, digest( file ) );
+        journal.close();
+
+        journal = new HashJournal( journalPath, "source", "target", false );
+        journal.close();
+        journal = new HashJournal( journalPath, "source", "target", true );
+        try
+        {
+            assertEquals( 0, journal.getRecoveredCount() );
+        }
+        finally
+        {
+            journal.close();
+        }
+    }
+
+    private DCFile createFile( String name, int length ) throws Exception
+    {
+        Path path = directory.resolve( name );
+        Files.write( path, new byte[length] );
+        DCFile file = new DCFile( path.toString() );
+        file.scan();
+        return file;
+    }
+
+    private static byte[] digest( DCFile file )
+    {
+        byte[] digest = new byte[32];
+        Arrays.fill( digest, (byte) file.getSize() );
+        return digest;
+    }
+}
@@ -0,0 +1,115 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Known-answer tests for the fast hashes our built-in provider implements
+ */
+public class HashProvidersTest
+    extends TestCase
+{
+    public HashProvidersTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HashProvidersTest.class );
+    }
+
+    public void testXXHash64KnownValues() throws Exception
+    {
+        assertEquals( "ef46db3751d8e999", hex( hash( ComparisonOptions.HASH_XXH64, "" ) ) );
+        assertEquals( "44bc2cf5ad770999", hex( hash( ComparisonOptions.HASH_XXH64, "abc" ) ) );
+        assertEquals( "fbcea83c8a378bf1",
+                hex( hash( ComparisonOptions.HASH_XXH64, "Nobody inspects the spammish repetition" ) ) );
+    }
+
+    public void testXXHash64ChunkedInput() throws Exception
+    {
+        // Feeding the same data in odd-sized pieces, through both arrays and direct buffers, must not change the hash
+        byte[] data = new byte[1000];
+        for ( int i = 0; i < data.length; i++ ) data[i] = (byte) ( i * 31 );
+        IHasher whole = HashProviders.newHasher( ComparisonOptions.HASH_XXH64 );
+        whole.update( data, 0, data.length );
+        byte[] expected = whole.digest();
+        IHasher pieces = HashProviders.newHasher( ComparisonOptions.HASH_XXH64 );
+        ByteBuffer direct = ByteBuffer.allocateDirect( data.length );
+        direct.put( data );
+        int offset = 0;
+        for ( int size = 1; offset < data.length; size += 7 )
+        {
+            int count = Math.min( size, data.length - offset );
+            if ( size % 2 == 0 )
+            {
+                pieces.update( data, offset, count );
+            }
+            else
+            {
+                direct.limit( offset + count ).position( offset );
+                pieces.update( direct );
+            }
+            offset += count;
+        }
+        assertEquals( hex( expected ), hex( pieces.digest() ) );
+    }
+
+    public void testCRC32CKnownValue() throws Exception
+    {
+        // CRC-32C needs Java 9 or later, so there's nothing to test on older runtimes
+        if ( !ComparisonOptions.HASHES.contains( ComparisonOptions.HASH_CRC32C ) ) return;
+        assertEquals( "e3069283", hex( hash( ComparisonOptions.HASH_CRC32C, "123456789" ) ) );
+    }
+
+    public void testCRC32CDirectBuffer() throws Exception
+    {
+        // The buffer path is looked up by reflection, so make sure it gives the same answer as the array path
+        if ( !ComparisonOptions.HASHES.contains( ComparisonOptions.HASH_CRC32C ) ) return;
+        byte[] bytes = "123456789".getBytes( StandardCharsets.US_ASCII );
+        ByteBuffer direct = ByteBuffer.allocateDirect( bytes.length );
+        direct.put( bytes ).flip();
+        IHasher hasher = HashProviders.newHasher( ComparisonOptions.HASH_CRC32C );
+        hasher.update( direct );
+        assertEquals( "e3069283", hex( hasher.digest() ) );
+    }
+
+    public void testBuiltInProvidersRegistered()
+    {
+        assertTrue( ComparisonOptions.HASHES.contains( ComparisonOptions.HASH_SHA1 ) );
+        assertTrue( ComparisonOptions.HASHES.contains( ComparisonOptions.HASH_XXH64 ) );
+    }
+
+    public void testUnknownAlgorithmRejected()
+    {
+        try
+        {
+            HashProviders.newHasher( "NOT-A-HASH" );
+            fail( "Expected NoSuchAlgorithmException" );
+        }
+        catch ( NoSuchAlgorithmException expected )
+        {
+        }
+    }
+
+    private static byte[] hash( String algorithm, String input ) throws NoSuchAlgorithmException
+    {
+        IHasher hasher = HashProviders.newHasher( algorithm );
+        byte[] bytes = input.getBytes( StandardCharsets.US_ASCII );
+        hasher.update( bytes, 0, bytes.length );
+        return hasher.digest();
+    }
+
+    private static String hex( byte[] bytes )
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : bytes ) sb.append( String.format( "%02x", b ) );
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for reading plain text manifests
+ */
+public class TextManifestTest
+    extends TestCase
+{
+    public TextManifestTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TextManifestTest.class );
+    }
+
+    public void testUnsortedManifestIsMerged() throws Exception
+    {
+        // Write the manifest in a shuffled order, then read it back sorting only a few entries at a time
+        List<String> paths = new ArrayList<>();
+        for ( int i = 0; i < 250; i++ ) paths.add( "dir-" + ( i % 7 ) + "/file-" + i + ".txt" );
+        paths.add( "back\\slash" );
+        paths.add( "café/menü.txt" );
+        List<String> shuffled = new ArrayList<>( paths );
+        Collections.shuffle( shuffled, new Random( 42 ) );
+        Collections.sort( paths );
+
+        Path file = Files.createTempFile( "deep-compare-test", ".txt" );
+        try
+        {
+            try ( TextManifest.Writer writer = new TextManifest.Writer( file, "SHA-256", 0L, 0L ) )
+            {
+                for ( String path : shuffled ) writer.write( path, path.length(), digest( path ) );
+            }
+            assertFalse( TextManifest.isSorted( file ) );
+
+            List<Path> before = sortRuns();
+            try ( TextManifest.Reader reader = TextManifest.Reader.open( file, false, 30 ) )
+            {
+                assertEquals( "SHA-256", reader.getAlgorithm() );
+                assertTrue( sortRuns().size() > before.size() );
+                TextManifest.Entry entry;
+                int count = 0;
+                while ( ( entry = reader.next() ) != null )
+                {
+                    assertEquals( paths.get( count ), entry.getPath() );
+                    assertEquals( paths.get( count ).length(), entry.getSize() );
+                    assertTrue( Arrays.equals( digest( paths.get( count ) ), entry.getDigest() ) );
+                    count++;
+                }
+                assertEquals( paths.size(), count );
+            }
+            // The runs are cleaned up once the reader is closed
+            assertEquals( before, sortRuns() );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testSmallUnsortedManifestIsSortedInMemory() throws Exception
+    {
+        Path file = Files.createTempFile( "deep-compare-test", ".txt" );
+        try
+        {
+            try ( TextManifest.Writer writer = new TextManifest.Writer( file, "SHA-256", 0L, 0L ) )
+            {
+                writer.write( "b", 1L, digest( "b" ) );
+                writer.write( "a", 1L, digest( "a" ) );
+            }
+            List<Path> before = sortRuns();
+            try ( TextManifest.Reader reader = TextManifest.Reader.open( file, false ) )
+            {
+                assertEquals( before, sortRuns() );
+                assertEquals( "a", reader.next().getPath() );
+                assertEquals( "b", reader.next().getPath() );
+                assertNull( reader.next() );
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testSha256sumOutput() throws Exception
+    {
+        // Lines as written by "find . -type f -exec sha256sum {} +", plus one in binary mode and one without "./"
+        String manifest =
+                "\\" + sha256( "x" ) + "  ./sub/back\\\\slash\n" +
+                "\\" + sha256( "" ) + "  ./new\\nline\n" +
+                sha256( "hello" ) + "  ./a.txt\n" +
+                sha256( "binary" ) + " *./b.bin\n" +
+                sha256( "plain" ) + "  c.txt\n";
+        Path file = Files.createTempFile( "deep-compare-test", ".txt" );
+        try
+        {
+            Files.write( file, manifest.getBytes( StandardCharsets.UTF_8 ) );
+            assertFalse( TextManifest.isSorted( file ) );
+            String[] paths = { "a.txt", "b.bin", "c.txt", "new\nline", "sub/back\\slash" };
+            String[] contents = { "hello", "binary", "plain", "", "x" };
+            try ( TextManifest.Reader reader = TextManifest.Reader.open( file, false ) )
+            {
+                assertNull( reader.getAlgorithm() );
+                for ( int i = 0; i < paths.length; i++ )
+                {
+                    TextManifest.Entry entry = reader.next();
+                    assertEquals( paths[i], entry.getPath() );
+                    assertEquals( -1L, entry.getSize() );
+                    assertEquals( sha256( contents[i] ), Utilities.toHex( entry.getDigest() ) );
+                }
+                assertNull( reader.next() );
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    private static List<Path> sortRuns() throws Exception
+    {
+        List<Path> runs = new ArrayList<>();
+        Path temp = Paths.get( System.getProperty( "java.io.tmpdir" ) );
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( temp, "deep-compare-sort*" ) )
+        {
+            for ( Path run : stream ) runs.add( run );
+        }
+        Collections.sort( runs );
+        return runs;
+    }
+
+    private static String sha256( String contents ) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+        return Utilities.toHex( digest.digest( contents.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    private static byte[] digest( String path )
+    {
+        byte[] digest = new byte[32];
+        byte[] bytes = path.getBytes( StandardCharsets.UTF_8 );
+        for ( int i = 0; i < digest.length; i++ ) digest[i] = bytes[i % bytes.length];
+        return digest;
+    }
+}
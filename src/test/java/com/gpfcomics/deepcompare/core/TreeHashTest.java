@@ -0,0 +1,108 @@
+package com.gpfcomics.deepcompare.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for hashing large files as a tree of regions
+ */
+public class TreeHashTest
+    extends TestCase
+{
+    private static final long REGION_SIZE = 1024L * 1024L;
+
+    public TreeHashTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TreeHashTest.class );
+    }
+
+    public void testRootIndependentOfThreadCount() throws Exception
+    {
+        // Three and a half regions, so the last one is short
+        Path file = createFile( data( (int) ( REGION_SIZE * 7 / 2 ) ) );
+        try
+        {
+            byte[] single = treeHash( file, 1 ).getHash();
+            byte[] parallel = treeHash( file, 4 ).getHash();
+            assertNotNull( single );
+            assertTrue( Arrays.equals( single, parallel ) );
+
+            // The root is the digest of the region digests in order
+            DCFile tree = treeHash( file, 4 );
+            assertEquals( 4, tree.getRegionDigests().length );
+            IHasher hasher = HashProviders.newHasher( new ComparisonOptions().getHash() );
+            for ( byte[] digest : tree.getRegionDigests() ) hasher.update( digest, 0, digest.length );
+            assertTrue( Arrays.equals( hasher.digest(), single ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( file );
+        }
+    }
+
+    public void testOneByteChangeFlagsOneRegion() throws Exception
+    {
+        byte[] bytes = data( (int) ( REGION_SIZE * 4 ) );
+        Path original = createFile( bytes );
+        bytes[(int) ( REGION_SIZE * 2 + 12345 )] ^= 1;
+        Path changed = createFile( bytes );
+        try
+        {
+            DCFile ours = treeHash( original, 2 );
+            DCFile theirs = treeHash( changed, 2 );
+            ours.compare( theirs );
+            assertFalse( ours.isHashMatch() );
+            assertTrue( Arrays.equals( new int[] { 2 }, ours.getDifferingRegions() ) );
+        }
+        finally
+        {
+            Files.deleteIfExists( original );
+            Files.deleteIfExists( changed );
+        }
+    }
+
+    private static DCFile treeHash( Path path, int threads ) throws Exception
+    {
+        ComparisonOptions options = new ComparisonOptions();
+        options.setTreeHashThreshold( 1L );
+        options.setTreeRegionSize( REGION_SIZE );
+        DCFile file = new DCFile( path.toString() );
+        file.scan();
+        new HashWorkerPool( options, threads, new IHashProgressListener()
+        {
+            public void newFile()
+            {
+            }
+
+            public void updateProgress( long bytesRead )
+            {
+            }
+        }, null ).hash( Collections.singletonList( file ) );
+        return file;
+    }
+
+    private static Path createFile( byte[] bytes ) throws Exception
+    {
+        Path file = Files.createTempFile( "deep-compare-test", ".bin" );
+        Files.write( file, bytes );
+        return file;
+    }
+
+    private static byte[] data( int length )
+    {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < data.length; i++ ) data[i] = (byte) ( i * 31 + ( i >> 11 ) );
+        return data;
+    }
+}